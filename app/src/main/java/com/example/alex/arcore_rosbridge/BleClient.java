@@ -5,6 +5,7 @@ import android.bluetooth.BluetoothDevice;
 import android.bluetooth.BluetoothGatt;
 import android.bluetooth.BluetoothGattCallback;
 import android.bluetooth.BluetoothGattCharacteristic;
+import android.bluetooth.BluetoothGattDescriptor;
 import android.bluetooth.BluetoothGattService;
 import android.bluetooth.le.BluetoothLeScanner;
 import android.bluetooth.BluetoothManager;
@@ -13,180 +14,685 @@ import android.bluetooth.le.ScanFilter;
 import android.bluetooth.le.ScanResult;
 import android.bluetooth.le.ScanSettings;
 import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
 import android.os.ParcelUuid;
+import android.os.Process;
+import android.os.SystemClock;
 import android.util.Log;
 
 import androidx.annotation.RequiresPermission;
 
-import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
 import java.util.Collections;
 import java.util.List;
+import java.util.Locale;
 import java.util.UUID;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * Scans for the advertised "Portal" runtime (service UUID f8b69c7b-…-f49a) and opens a GATT link.
  * Extend with characteristic read/write as needed.
+ *
+ * <p>The link is kept up by a small state machine ({@link LinkState}) on the transmit thread. The
+ * Portal's address is remembered across runs, so later connects skip the scan and go straight to
+ * a direct {@code connectGatt}; if that does not complete within
+ * {@link #DIRECT_CONNECT_TIMEOUT_MS} the client falls back to a background (autoConnect) connect
+ * and scans in parallel in case the Portal moved to another address. A lost link is reconnected
+ * the same way. Each connection asks for high connection priority and, where supported, the 2M
+ * PHY.
+ *
+ * <p>Once ready, the client subscribes to the Portal's TX characteristic (f49c). What the Portal
+ * sends there – pose rate, AprilTag reporting and pose format requests, and pings – is handled by
+ * a {@link ControlChannel} on the transmit thread, which also pings the Portal to measure the
+ * round trip.
+ *
+ * <p>All characteristic writes happen on a dedicated "ble-tx" thread owned by this client, so
+ * callers on the GL, detector or UI threads never block on the Bluetooth stack. The
+ * {@link WriteScheduler} keeps one write in flight at a time (released by
+ * {@code onCharacteristicWrite}), sends button and calibration packets first, and collapses a
+ * backlog of poses down to the newest one.
+ *
+ * <p>A client can also be bound to one device, as {@link BleLinkManager} does for each Portal it
+ * feeds: it then never scans and leaves the remembered address alone, and reconnects to that
+ * device only.
  */
-public class BleClient {
+public class BleClient implements PoseTransport {
+    /** Link progress, in order; packets are only written while READY. */
+    public enum LinkState { IDLE, SCANNING, CONNECTING, CONFIGURING, DISCOVERING, READY, CLOSED }
+
     private static final String TAG = "BleClient";
     private final Context context;
+    private final BluetoothAdapter adapter;
     private final BluetoothLeScanner scanner;
     private final UUID serviceUuid;
-    private BluetoothGatt gatt;
+    private final boolean bound;
+    private volatile BluetoothGatt gatt;
+
+    // The last Portal we were ready with; connected to directly on the next start
+    private static final String PREFS = "portal_ble";
+    private static final String PREF_ADDRESS = "device_address";
+    // A direct connect to a device in range completes well within this; after it, go background
+    static final long DIRECT_CONNECT_TIMEOUT_MS = 2000;
+    private static final long RETRY_DELAY_MS = 1000;
+    private final SharedPreferences prefs;
+    private final Runnable connectTimeout = this::onDirectConnectTimeout;
+    private final Runnable retry = this::retryConnect;
+
+    // Link state machine – tx thread only, except the volatile fields
+    private volatile LinkState state = LinkState.IDLE;
+    private BluetoothDevice device;
+    private boolean directAttempt;
+    private boolean scanning;
+    private long attemptStartNs;       // start() or link loss, System.nanoTime()
+    private boolean reconnecting;
+    private int attempts;
+    private boolean awaitingFirstPose;
+    private boolean rediscovering;     // services changed on a link that was already ready
+    private volatile long readyCount;
+    private volatile long lastTimeToReadyNs;
+    private volatile long lastTimeToFirstPoseNs;
+    private volatile TelemetryRecorder telemetry;
 
     private static final UUID RX_UUID =
             UUID.fromString("f8b69c7b-3a91-4f2d-8e7a-9c4d35d5f49b");
-    // NEW – desired ATT MTU and flag
-    private static final int DESIRED_MTU = 96;
+    // Ask for the largest ATT MTU; the stack settles on what both sides support
+    private static final int DESIRED_MTU = 517;
     private volatile boolean mtuReady = false;
 
-    private BluetoothGattCharacteristic rxChar;
+    private volatile BluetoothGattCharacteristic rxChar;
+
+    private static final UUID TX_UUID =
+            UUID.fromString("f8b69c7b-3a91-4f2d-8e7a-9c4d35d5f49c");
+    // Client Characteristic Configuration descriptor, which switches notifications on
+    private static final UUID CCCD_UUID =
+            UUID.fromString("00002902-0000-1000-8000-00805f9b34fb");
+    private final ControlChannel control;
 
-    // Added packet type constants
-    private static final byte PACKET_POSE       = 0x00;
-    private static final byte PACKET_CALIBRATION = 0x01;
-    private static final byte PACKET_APRILTAG    = 0x02;
-    private static final byte PACKET_BUTTON     = 0x03;
+    // Transmit pipeline – every GATT write runs on txThread
+    private final HandlerThread txThread;
+    private final Handler txHandler;
+    private final PoseSlot poseSlot = new PoseSlot();
+    private final PacketEncoder encoder = new PacketEncoder();
+    private final WriteScheduler scheduler;
+    private final AtomicBoolean pumpPosted = new AtomicBoolean(false);
+    private volatile int lastWriteStatus;
+    private final WriteBuffers writeBuffers = new WriteBuffers();
+    private final Runnable pump = new Runnable() {
+        @Override public void run() {
+            pumpPosted.set(false);
+            runScheduler();
+        }
+    };
+    private final Runnable pumpLater = this::requestPump;
+    private final Runnable writeComplete = new Runnable() {
+        @Override public void run() {
+            scheduler.onWriteComplete(lastWriteStatus == BluetoothGatt.GATT_SUCCESS);
+            runScheduler();
+        }
+    };
 
-    public static final byte BUTTON_VOL_UP   = 0x00;
-    public static final byte BUTTON_VOL_DOWN = 0x01;
+    private volatile byte poseFormat = POSE_FORMAT_RAW;
 
     public BleClient(Context ctx, UUID serviceUuid) {
+        this(ctx, serviceUuid, null);
+    }
+
+    /** A client for {@code device} only, or any Portal it finds if null. */
+    BleClient(Context ctx, UUID serviceUuid, BluetoothDevice device) {
         this.context = ctx.getApplicationContext();
         this.serviceUuid = serviceUuid;
+        this.bound = device != null;
+        this.device = device;
         BluetoothManager mgr = (BluetoothManager) ctx.getSystemService(Context.BLUETOOTH_SERVICE);
-        this.scanner = mgr.getAdapter() != null ? mgr.getAdapter().getBluetoothLeScanner() : null;
+        this.adapter = mgr.getAdapter();
+        this.scanner = adapter != null ? adapter.getBluetoothLeScanner() : null;
+        this.prefs = context.getSharedPreferences(PREFS, Context.MODE_PRIVATE);
+        this.txThread = new HandlerThread(bound ? "ble-tx " + device.getAddress() : "ble-tx",
+                Process.THREAD_PRIORITY_URGENT_DISPLAY);
+        this.txThread.start();
+        this.txHandler = new Handler(txThread.getLooper());
+        this.scheduler = new WriteScheduler(poseSlot, encoder, this::write);
+        this.control = new ControlChannel(scheduler, encoder, this::requestPump);
     }
 
-    /** Begin scanning – caller must ensure permissions are already granted. */
+    /**
+     * Connect to the remembered Portal, or scan for one, and keep the link up until
+     * {@link #stop()} – caller must ensure permissions are already granted.
+     */
     @RequiresPermission(allOf = {
             "android.permission.BLUETOOTH_SCAN",
             "android.permission.BLUETOOTH_CONNECT"
     })
+    @Override
     public void start() {
         if (scanner == null) {
             Log.w(TAG, "BLE scanner unavailable");
             return;
         }
+        txHandler.post(() -> {
+            if (state != LinkState.IDLE) return;
+            attemptStartNs = System.nanoTime();
+            reconnecting = false;
+            attempts = 0;
+            String address = prefs.getString(PREF_ADDRESS, null);
+            if (device == null && address != null && BluetoothAdapter.checkBluetoothAddress(address)) {
+                device = adapter.getRemoteDevice(address);
+            }
+            if (device != null) {
+                connectDirect(device);
+            } else {
+                state = LinkState.SCANNING;
+                startScan();
+            }
+        });
+    }
+
+    /** Drops the link and stops reconnecting; {@link #start()} may be called again. */
+    public void stop() {
+        txHandler.post(() -> {
+            if (state == LinkState.CLOSED) return;
+            disconnect();
+            state = LinkState.IDLE;
+        });
+    }
+
+    /** Stops the link and shuts down the transmit thread; the client cannot be restarted. */
+    @Override
+    public void close() {
+        txHandler.post(() -> {
+            disconnect();
+            state = LinkState.CLOSED;
+        });
+        txThread.quitSafely();
+    }
+
+    public LinkState getLinkState() {
+        return state;
+    }
+
+    /** Times the link became ready, including the first. */
+    public long getReadyCount() {
+        return readyCount;
+    }
+
+    /** From {@link #start()} or the last link loss until the link was ready, in ms. */
+    public double getLastTimeToReadyMs() {
+        return lastTimeToReadyNs / 1e6;
+    }
+
+    /** From {@link #start()} or the last link loss until the first pose write, in ms. */
+    public double getLastTimeToFirstPoseMs() {
+        return lastTimeToFirstPoseNs / 1e6;
+    }
+
+    /**
+     * Enables packing several pending packets into one write (packet type 0x04). Leave this off
+     * for receivers that only understand single-packet writes.
+     */
+    @Override
+    public void setBatchingEnabled(boolean enabled) {
+        scheduler.setBatchingEnabled(enabled);
+    }
+
+    /**
+     * Selects the pose wire format. The choice is announced in the hello packet at connect time,
+     * so set it before {@link #start()}.
+     */
+    @Override
+    public void setPoseFormat(byte format) {
+        poseFormat = format;
+        control.setDefaultPoseFormat(format);
+    }
+
+    /** Logs every write, its duration and outcome to {@code recorder}; null stops logging. */
+    @Override
+    public void setTelemetry(TelemetryRecorder recorder) {
+        telemetry = recorder;
+        scheduler.setTelemetry(recorder);
+    }
+
+    /** Packets accepted by the Bluetooth stack; each packet in a batch counts separately. */
+    @Override
+    public long getSentPacketCount() {
+        return scheduler.getSentCount();
+    }
+
+    /** Poses replaced by a newer pose before they could be written. */
+    @Override
+    public long getCoalescedPoseCount() {
+        return scheduler.getCoalescedCount();
+    }
+
+    /** Button, calibration and AprilTag packets discarded because their queue was full. */
+    @Override
+    public long getDroppedPacketCount() {
+        return scheduler.getDroppedCount();
+    }
+
+    @Override
+    public boolean isAprilTagReportingEnabled() {
+        return control.isAprilTagReportingEnabled();
+    }
+
+    @Override
+    public double getRoundTripMs() {
+        return control.getRoundTripMs();
+    }
+
+    @Override
+    public long getClockOffsetNs() {
+        return control.getClockOffsetNs();
+    }
+
+    @Override
+    public long getFirstPoseSentNs() {
+        return scheduler.getFirstPoseNs();
+    }
+
+    /** Writes the stack accepted but then reported as failed. */
+    public long getFailedWriteCount() {
+        return scheduler.getFailedCount();
+    }
+
+    /** Writes whose completion callback never came. */
+    public long getTimedOutWriteCount() {
+        return scheduler.getTimedOutCount();
+    }
+
+    /* ───────── Link (tx thread) ───────── */
+
+    private void connectDirect(BluetoothDevice dev) {
+        closeGatt();
+        state = LinkState.CONNECTING;
+        directAttempt = true;
+        attempts++;
+        Log.i(TAG, "Connecting directly to " + dev.getAddress());
+        gatt = dev.connectGatt(context, false, gattCb, BluetoothDevice.TRANSPORT_LE);
+        txHandler.postDelayed(connectTimeout, DIRECT_CONNECT_TIMEOUT_MS);
+    }
+
+    /** Waits for the Portal to advertise again, and scans in case its address changed. */
+    private void connectInBackground() {
+        txHandler.removeCallbacks(connectTimeout);
+        closeGatt();
+        state = LinkState.CONNECTING;
+        directAttempt = false;
+        attempts++;
+        Log.i(TAG, "Waiting for " + device.getAddress() + " in the background");
+        gatt = device.connectGatt(context, true, gattCb, BluetoothDevice.TRANSPORT_LE);
+        startScan();
+    }
+
+    private void retryConnect() {
+        if (state == LinkState.CONNECTING && gatt == null) connectDirect(device);
+    }
+
+    private void onDirectConnectTimeout() {
+        if (state == LinkState.CONNECTING && directAttempt) {
+            Log.i(TAG, "Direct connect timed out");
+            connectInBackground();
+        }
+    }
+
+    private void startScan() {
+        if (scanning || bound) return;
         List<ScanFilter> filters = Collections.singletonList(
                 new ScanFilter.Builder().setServiceUuid(new ParcelUuid(serviceUuid)).build()
         );
         ScanSettings settings = new ScanSettings.Builder()
                 .setScanMode(ScanSettings.SCAN_MODE_LOW_LATENCY)
                 .build();
-        scanner.startScan(filters, settings, scanCb);   // pass actual filters
-        Log.i(TAG, "Scanning for Portal service " + serviceUuid);
+        try {
+            scanner.startScan(filters, settings, scanCb);   // pass actual filters
+            scanning = true;
+            Log.i(TAG, "Scanning for Portal service " + serviceUuid);
+        } catch (RuntimeException e) {
+            Log.e(TAG, "BLE scan could not start", e);
+        }
     }
 
-    public void stop() {
-        if (scanner != null) try { scanner.stopScan(scanCb); } catch (Exception ignored) {}
-        if (gatt != null) { gatt.close(); gatt = null; }
+    private void stopScan() {
+        if (!scanning) return;
+        scanning = false;
+        try { scanner.stopScan(scanCb); } catch (RuntimeException ignored) {}
+    }
+
+    private void closeGatt() {
+        BluetoothGatt g = gatt;
+        gatt = null;
+        if (g != null) g.close();
+    }
+
+    private void disconnect() {
+        txHandler.removeCallbacks(connectTimeout);
+        txHandler.removeCallbacks(retry);
+        stopScan();
+        closeGatt();
+        resetLink();
+    }
+
+    private void resetLink() {
         rxChar = null;
         mtuReady = false;
+        awaitingFirstPose = false;
+        rediscovering = false;
+        scheduler.setMaxWriteLength(WriteScheduler.DEFAULT_WRITE_LENGTH);
+        scheduler.reset();
+        control.reset();
+    }
+
+    private void onFound(BluetoothDevice dev) {
+        if (!scanning) return;   // a result queued before the scan stopped
+        Log.i(TAG, "Found " + dev.getName() + " (" + dev.getAddress() + ")");
+        stopScan();
+        device = dev;
+        connectDirect(dev);
+    }
+
+    private void onConnected(BluetoothGatt g) {
+        txHandler.removeCallbacks(connectTimeout);
+        stopScan();
+        state = LinkState.CONFIGURING;
+        mtuReady = false;
+        // Shortest connection interval, and twice the symbol rate where both sides support it
+        g.requestConnectionPriority(BluetoothGatt.CONNECTION_PRIORITY_HIGH);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            g.setPreferredPhy(BluetoothDevice.PHY_LE_2M_MASK, BluetoothDevice.PHY_LE_2M_MASK,
+                    BluetoothDevice.PHY_OPTION_NO_PREFERRED);
+        }
+        Log.i(TAG, "Connected – requesting MTU " + DESIRED_MTU);
+        g.requestMtu(DESIRED_MTU);   // wait for onMtuChanged before discovering services
+    }
+
+    private void onDisconnected(int status) {
+        LinkState was = state;
+        resetLink();
+        if (was == LinkState.CONNECTING) {
+            Log.i(TAG, "Connect failed, status " + status);
+            if (directAttempt) {
+                // Direct connects fail fast (e.g. status 133) when the Portal is out of range
+                connectInBackground();
+            } else {
+                stopScan();
+                closeGatt();
+                txHandler.postDelayed(retry, RETRY_DELAY_MS);
+            }
+            return;
+        }
+        Log.i(TAG, "Disconnected, status " + status + " – reconnecting");
+        if (was == LinkState.READY) {
+            attemptStartNs = System.nanoTime();
+            reconnecting = true;
+            attempts = 0;
+        }
+        connectDirect(device);
+    }
+
+    private void onServices(BluetoothGatt g) {
+        BluetoothGattService svc = g.getService(serviceUuid);
+        Log.i(TAG, "Service discovery " + (svc != null ? "succeeded" : "failed"));
+        BluetoothGattCharacteristic c = svc != null ? svc.getCharacteristic(RX_UUID) : null;
+        if (c != null) c.setWriteType(BluetoothGattCharacteristic.WRITE_TYPE_NO_RESPONSE);
+        rxChar = c;
+        Log.i(TAG, "Services discovered; rxChar=" + (c != null) + " mtuReady=" + mtuReady);
+        if (c == null) {
+            // The Portal may still be setting up its GATT server; connect again from scratch
+            Log.w(TAG, "Portal RX characteristic missing – reconnecting");
+            if (rediscovering) {
+                attemptStartNs = System.nanoTime();
+                reconnecting = true;
+                attempts = 0;
+            }
+            closeGatt();
+            resetLink();
+            state = LinkState.CONNECTING;
+            txHandler.postDelayed(retry, RETRY_DELAY_MS);
+            return;
+        }
+        subscribe(g, svc.getCharacteristic(TX_UUID));
+
+        // Announce the pose format before any pose goes out; compact poses restart with a keyframe
+        scheduler.offerControl(encoder.encodeHello(poseFormat), PacketEncoder.HELLO_LENGTH);
+        state = LinkState.READY;
+        if (rediscovering) {
+            // Same connection; the link metrics describe how it came up the first time
+            rediscovering = false;
+            Log.i(TAG, "Services rediscovered");
+            runScheduler();
+            return;
+        }
+        readyCount++;
+        lastTimeToReadyNs = System.nanoTime() - attemptStartNs;
+        awaitingFirstPose = true;
+        if (!bound && !device.getAddress().equals(prefs.getString(PREF_ADDRESS, null))) {
+            prefs.edit().putString(PREF_ADDRESS, device.getAddress()).apply();
+        }
+        Log.i(TAG, String.format(Locale.US, "%s ready in %.0f ms after %d attempt(s)",
+                reconnecting ? "Reconnected" : "Link", getLastTimeToReadyMs(), attempts));
+        runScheduler();
+    }
+
+    /**
+     * Turns on notifications for the Portal's TX characteristic. Writes refused while the
+     * descriptor write is outstanding are retried by the scheduler.
+     */
+    private void subscribe(BluetoothGatt g, BluetoothGattCharacteristic tx) {
+        BluetoothGattDescriptor cccd = tx != null ? tx.getDescriptor(CCCD_UUID) : null;
+        if (cccd == null || !g.setCharacteristicNotification(tx, true)) {
+            Log.w(TAG, "Portal TX characteristic not available – no back channel");
+            return;
+        }
+        cccd.setValue(BluetoothGattDescriptor.ENABLE_NOTIFICATION_VALUE);
+        if (!g.writeDescriptor(cccd)) Log.w(TAG, "Subscribing to Portal TX failed");
+    }
+
+    /** Called from the write sink once the first pose after (re)connecting has gone out. */
+    private void onFirstPose(long nowNs) {
+        awaitingFirstPose = false;
+        lastTimeToFirstPoseNs = nowNs - attemptStartNs;
+        Log.i(TAG, String.format(Locale.US, "First pose %.0f ms after %s",
+                getLastTimeToFirstPoseMs(), reconnecting ? "link loss" : "start"));
+        TelemetryRecorder t = telemetry;
+        if (t != null) {
+            t.link(attemptStartNs, attemptStartNs + lastTimeToReadyNs, nowNs, attempts, reconnecting);
+        }
     }
 
     /* ───────── Callbacks ───────── */
+    // Scan results arrive on the main thread and GATT callbacks on binder threads; both are
+    // handed to the tx thread, and callbacks from a GATT client already closed are ignored.
     private final ScanCallback scanCb = new ScanCallback() {
         @Override public void onScanResult(int c, ScanResult res) {
             BluetoothDevice dev = res.getDevice();
-            Log.i(TAG, "Found " + dev.getName() + " (" + dev.getAddress() + ")");
-            scanner.stopScan(this);
-            gatt = dev.connectGatt(context, false, gattCb, BluetoothDevice.TRANSPORT_LE);
+            txHandler.post(() -> onFound(dev));
         }
         @Override public void onScanFailed(int errorCode) {
             Log.e(TAG, "BLE scan failed with error: " + errorCode);
+            txHandler.post(() -> scanning = false);
         }
     };
 
     private final BluetoothGattCallback gattCb = new BluetoothGattCallback() {
         @Override public void onConnectionStateChange(BluetoothGatt g, int st, int newState) {
-            if (newState == BluetoothGatt.STATE_CONNECTED) {
-                Log.i(TAG, "Connected – requesting MTU " + DESIRED_MTU);
-                gatt = g;
-                mtuReady = false;
-                g.requestMtu(DESIRED_MTU);
-                return; // wait for onMtuChanged before discovering services
-            } else if (newState == BluetoothGatt.STATE_DISCONNECTED) {
-                Log.i(TAG, "Disconnected"); stop();
-            }
+            txHandler.post(() -> {
+                if (g != gatt) return;
+                if (newState == BluetoothGatt.STATE_CONNECTED) {
+                    onConnected(g);
+                } else if (newState == BluetoothGatt.STATE_DISCONNECTED) {
+                    onDisconnected(st);
+                }
+            });
         }
         @Override public void onMtuChanged(BluetoothGatt g, int mtu, int status) {
-            Log.i(TAG, "MTU changed callback: mtu=" + mtu + " status=" + status);
-            mtuReady = (status == BluetoothGatt.GATT_SUCCESS && mtu >= 28);
-            if (!mtuReady) {
-                Log.w(TAG, "MTU negotiation failed – proceeding with default MTU");
-            }
-            g.discoverServices();   // continue regardless
+            txHandler.post(() -> {
+                if (g != gatt || state != LinkState.CONFIGURING) return;
+                Log.i(TAG, "MTU changed callback: mtu=" + mtu + " status=" + status);
+                mtuReady = (status == BluetoothGatt.GATT_SUCCESS && mtu >= 28);
+                if (!mtuReady) {
+                    Log.w(TAG, "MTU negotiation failed – proceeding with default MTU");
+                } else {
+                    scheduler.setMaxWriteLength(mtu - 3);
+                }
+                state = LinkState.DISCOVERING;
+                g.discoverServices();   // continue regardless
+            });
         }
         @Override public void onServicesDiscovered(BluetoothGatt g, int status) {
-            BluetoothGattService svc = g.getService(serviceUuid);
-            Log.i(TAG, "Service discovery " + (svc != null ? "succeeded" : "failed"));
-            rxChar = svc != null ? svc.getCharacteristic(RX_UUID) : null;
-            if (rxChar != null) rxChar.setWriteType(
-                    BluetoothGattCharacteristic.WRITE_TYPE_NO_RESPONSE);
-            Log.i(TAG, "Services discovered; rxChar=" + (rxChar != null) + " mtuReady=" + mtuReady);
-            // TODO: subscribe / write to characteristics (RX f49b, TX f49c) as needed.
+            txHandler.post(() -> {
+                if (g == gatt && state == LinkState.DISCOVERING) onServices(g);
+            });
+        }
+        @Override public void onServiceChanged(BluetoothGatt g) {
+            txHandler.post(() -> {
+                if (g != gatt || state != LinkState.READY) return;
+                Log.i(TAG, "Portal services changed – rediscovering");
+                rxChar = null;
+                rediscovering = true;
+                state = LinkState.DISCOVERING;
+                g.discoverServices();
+            });
+        }
+        @Override public void onDescriptorWrite(BluetoothGatt g, BluetoothGattDescriptor d, int status) {
+            Log.i(TAG, "Portal TX notifications " + (status == BluetoothGatt.GATT_SUCCESS ? "on" : "failed: " + status));
+            requestPump();
+        }
+        @Override public void onCharacteristicChanged(BluetoothGatt g, BluetoothGattCharacteristic c) {
+            if (!TX_UUID.equals(c.getUuid())) return;
+            byte[] value = c.getValue().clone();   // the stack reuses the characteristic's value
+            txHandler.post(() -> {
+                if (g == gatt && state == LinkState.READY) control.onReceived(value, 0, value.length);
+            });
+        }
+        @Override public void onPhyUpdate(BluetoothGatt g, int txPhy, int rxPhy, int status) {
+            Log.i(TAG, "PHY tx=" + txPhy + " rx=" + rxPhy + " status=" + status);
+        }
+        @Override public void onCharacteristicWrite(BluetoothGatt g,
+                                                    BluetoothGattCharacteristic c, int status) {
+            lastWriteStatus = status;
+            txHandler.post(writeComplete);
         }
     };
 
-    public void sendPose(float[] pos, float[] quat) {
-        if (!mtuReady || gatt == null || rxChar == null) {
-            Log.w(TAG, "Pose send skipped – mtuReady=" + mtuReady + " gatt=" + (gatt != null) + " rxChar=" + (rxChar != null));
+    /**
+     * Hands the latest pose to the transmit thread. Safe to call from the GL thread at frame rate;
+     * the arrays are copied before returning, and a pose that has not been written yet is replaced.
+     */
+    @Override
+    public void publishPose(float[] pos, float[] quat, long sampledAtNs, long capturedAtNs) {
+        poseSlot.put(pos, quat, sampledAtNs, capturedAtNs);
+        requestPump();
+    }
+
+    /**
+     * Must only be called from the detector thread, which owns the encoder's AprilTag buffer; the
+     * arrays are encoded before returning and may be reused.
+     */
+    @Override
+    public void queueAprilTag(int id, long frameTimestampNs,
+                              float[] camPos, float[] camQuat,
+                              float[] pos, float[] rotMat) {
+        if (!control.isAprilTagReportingEnabled()) return;
+        if (state != LinkState.READY) {
+            Log.w(TAG, "AprilTag send skipped – link " + state);
             return;
         }
-        ByteBuffer bb = ByteBuffer.allocate(1 + 4 * 7).order(ByteOrder.LITTLE_ENDIAN);
-        bb.put(PACKET_POSE);
-        bb.putFloat(pos[0]).putFloat(pos[1]).putFloat(pos[2])
-          .putFloat(quat[0]).putFloat(quat[1]).putFloat(quat[2]).putFloat(quat[3]);
-        rxChar.setValue(bb.array());
-        boolean ok = gatt.writeCharacteristic(rxChar);
+        if (camPos.length < 3 || camQuat.length < 4 || pos.length < 3 || rotMat.length < 9) return;
+
+        scheduler.offerAprilTag(encoder.encodeAprilTag(id, frameTimestampNs, camPos, camQuat, pos, rotMat),
+                PacketEncoder.APRILTAG_LENGTH);
     }
 
-    /** Send AprilTag detection with raw camera pose included. */
-    public void sendAprilTag(int id,
-                             float[] camPos, float[] camQuat,
-                             float[] pos, float[] rotMat) {
-        if (!mtuReady || gatt == null || rxChar == null) {
-            Log.w(TAG, "AprilTag send skipped – mtuReady=" + mtuReady + " gatt=" + (gatt != null) + " rxChar=" + (rxChar != null));
+    /** Detector thread only, like {@link #queueAprilTag}. */
+    @Override
+    public void queueTagEstimate(int id, long frameTimestampNs, float[] pos, float[] quat,
+                                 float[] posVar, float rotVar, int samples) {
+        if (!control.isAprilTagReportingEnabled()) return;
+        if (state != LinkState.READY) {
+            Log.w(TAG, "Tag estimate send skipped – link " + state);
             return;
         }
-        if (camPos.length < 3 || camQuat.length < 4 || pos.length < 3 || rotMat.length < 9) return;
+        scheduler.offerAprilTag(encoder.encodeTagEstimate(id, frameTimestampNs, pos, quat, posVar, rotVar, samples),
+                PacketEncoder.TAG_ESTIMATE_LENGTH);
+    }
+
+    /**
+     * Queues an AprilTag or tag estimate packet encoded elsewhere, so several links can share one
+     * encoding; the bytes are copied before returning.
+     */
+    void offerAprilTagPacket(byte[] packet, int length) {
+        if (!control.isAprilTagReportingEnabled() || state != LinkState.READY) return;
+        scheduler.offerAprilTag(packet, length);
+    }
 
-        // Packet: [hdr][id][camPos(3f)][camQuat(4f)][tagPos(3f)][rot(9f)]
-        ByteBuffer bb = ByteBuffer.allocate(1 + 4 + 4 * (3 + 4 + 3 + 9))
-                                  .order(ByteOrder.LITTLE_ENDIAN);
-        bb.put(PACKET_APRILTAG);
-        bb.putInt(id);
-        for (int i = 0; i < 3; i++) bb.putFloat(camPos[i]);
-        for (int i = 0; i < 4; i++) bb.putFloat(camQuat[i]);
-        for (int i = 0; i < 3; i++) bb.putFloat(pos[i]);
-        for (int i = 0; i < 9; i++) bb.putFloat(rotMat[i]);
-        rxChar.setValue(bb.array());
-        gatt.writeCharacteristic(rxChar);
+    /** Queues a button or calibration packet encoded elsewhere; see {@link #offerAprilTagPacket}. */
+    void offerControlPacket(byte[] packet, int length) {
+        if (state != LinkState.READY) return;
+        offerControl(packet, length);
     }
 
-    /** Send a one-byte calibration trigger (packet type 0x01). */
+    /** Starts transmitting AprilTag packets and estimates queued since the last flush. */
+    @Override
+    public void flushAprilTags() {
+        requestPump();
+    }
+
+    /** Send a one-byte calibration trigger (packet type 0x01). Main thread only. */
+    @Override
     public void sendCalibrationTrigger() {
-        if (!mtuReady || gatt == null || rxChar == null) {
+        if (state != LinkState.READY) {
             Log.w(TAG, "Calibration trigger skipped – link not ready");
             return;
         }
-        rxChar.setValue(new byte[] { PACKET_CALIBRATION });
-        gatt.writeCharacteristic(rxChar);
+        offerControl(encoder.encodeCalibration(), PacketEncoder.CALIBRATION_LENGTH);
     }
 
-    /** Send a button press or release event. */
+    /** Send a button press or release event. Main thread only. */
+    @Override
     public void sendButtonEvent(byte button, boolean pressed) {
-        if (!mtuReady || gatt == null || rxChar == null) {
+        if (state != LinkState.READY) {
             Log.w(TAG, "Button event skipped – link not ready");
             return;
         }
-        ByteBuffer bb = ByteBuffer.allocate(3).order(ByteOrder.LITTLE_ENDIAN);
-        bb.put(PACKET_BUTTON);
-        bb.put(button);
-        bb.put((byte) (pressed ? 1 : 0));
-        rxChar.setValue(bb.array());
-        gatt.writeCharacteristic(rxChar);
+        offerControl(encoder.encodeButton(button, pressed), PacketEncoder.BUTTON_LENGTH);
+    }
+
+    private void offerControl(byte[] packet, int length) {
+        if (!scheduler.offerControl(packet, length)) {
+            Log.w(TAG, "Control queue full – packet type " + packet[0] + " dropped");
+            return;
+        }
+        requestPump();
+    }
+
+    /* ───────── Transmit thread ───────── */
+
+    private void requestPump() {
+        if (pumpPosted.compareAndSet(false, true)) {
+            txHandler.post(pump);
+        }
+    }
+
+    private void runScheduler() {
+        txHandler.removeCallbacks(pumpLater);
+        if (state != LinkState.READY) return;  // poses keep coalescing
+        long pingDelay = control.poll(System.nanoTime());
+        long delay = scheduler.pump(SystemClock.uptimeMillis());
+        if (delay < 0 || delay > pingDelay) delay = pingDelay;
+        txHandler.postDelayed(pumpLater, delay);
+    }
+
+    /** WriteScheduler sink; tx thread only. */
+    private boolean write(byte[] packet, int length) {
+        BluetoothGatt g = gatt;
+        BluetoothGattCharacteristic c = rxChar;
+        if (g == null || c == null) return false;
+        c.setValue(writeBuffers.copy(packet, length));
+        boolean accepted = g.writeCharacteristic(c);
+        if (accepted && awaitingFirstPose && scheduler.getWritePoseStamp() != 0) {
+            onFirstPose(System.nanoTime());
+        }
+        return accepted;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,387 @@
+package com.example.alex.arcore_rosbridge;
+
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothManager;
+import android.bluetooth.le.BluetoothLeScanner;
+import android.bluetooth.le.ScanCallback;
+import android.bluetooth.le.ScanFilter;
+import android.bluetooth.le.ScanResult;
+import android.bluetooth.le.ScanSettings;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.ParcelUuid;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.annotation.RequiresPermission;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Feeds several Portals from one phone: keeps a GATT link to each of up to {@code maxLinks}
+ * devices advertising the Portal service, through one device-bound {@link BleClient} apiece.
+ *
+ * <p>Every link has its own transmit thread, {@link WriteScheduler} and pose slot, so a slow
+ * receiver only backs up its own queue – its poses coalesce while the other links are written at
+ * their own pace. AprilTag, button and calibration packets are encoded once here and the same
+ * bytes are queued on every ready link. Poses are handed to each link and encoded at write time,
+ * since pose format, keyframes and clock offset are per link.
+ *
+ * <p>Portals linked before are connected directly at start; a scan runs while fewer than
+ * {@code maxLinks} links are live and adds each new Portal it finds. A link that is not ready
+ * within {@link LinkHealth#UNREADY_TIMEOUT_MS} of being added, or stays down that long, is
+ * closed and its slot goes back to the scan, which picks the Portal up again if it returns.
+ * Each link's throughput and loss are logged every {@link #STATS_LOG_MS}.
+ */
+public class BleLinkManager implements PoseTransport {
+    private static final String TAG = "BleLinkManager";
+
+    private static final String PREFS = "portal_ble_links";
+    private static final String PREF_ADDRESSES = "device_addresses";
+    static final long STATS_LOG_MS = 5000;
+    /** How often link readiness is checked. */
+    private static final long CHECK_MS = 1000;
+
+    private static final class Link {
+        final String address;
+        final BleClient client;
+        // Manager thread, except for its statistics
+        final LinkHealth health;
+
+        Link(String address, BleClient client, long nowMs) {
+            this.address = address;
+            this.client = client;
+            this.health = new LinkHealth(address, nowMs);
+        }
+
+        long lost() {
+            return client.getFailedWriteCount() + client.getTimedOutWriteCount()
+                    + client.getDroppedPacketCount();
+        }
+    }
+
+    private final Context context;
+    private final UUID serviceUuid;
+    private final int maxLinks;
+    private final BluetoothAdapter adapter;
+    private final BluetoothLeScanner scanner;
+    private final SharedPreferences prefs;
+    private final List<Link> links = new CopyOnWriteArrayList<>();
+
+    // Scan results and statistics are handled on this thread
+    private final HandlerThread thread = new HandlerThread("ble-links");
+    private final Handler handler;
+    private final Runnable check = this::check;
+    private boolean scanning;
+    private boolean started;
+    private long lastStatsMs;
+
+    // Applied to every link, including those found later
+    private volatile byte poseFormat = POSE_FORMAT_RAW;
+    private volatile boolean batching = true;
+    private volatile TelemetryRecorder telemetry;
+
+    // AprilTags are encoded on the detector thread, buttons and calibration on the main thread
+    private final PacketEncoder encoder = new PacketEncoder();
+
+    public BleLinkManager(Context ctx, UUID serviceUuid, int maxLinks) {
+        this.context = ctx.getApplicationContext();
+        this.serviceUuid = serviceUuid;
+        this.maxLinks = maxLinks;
+        BluetoothManager mgr = (BluetoothManager) ctx.getSystemService(Context.BLUETOOTH_SERVICE);
+        this.adapter = mgr.getAdapter();
+        this.scanner = adapter != null ? adapter.getBluetoothLeScanner() : null;
+        this.prefs = context.getSharedPreferences(PREFS, Context.MODE_PRIVATE);
+        thread.start();
+        handler = new Handler(thread.getLooper());
+    }
+
+    /**
+     * Connects to the Portals linked before and scans for more until {@code maxLinks} are
+     * linked – caller must ensure permissions are already granted.
+     */
+    @RequiresPermission(allOf = {
+            "android.permission.BLUETOOTH_SCAN",
+            "android.permission.BLUETOOTH_CONNECT"
+    })
+    @Override
+    public void start() {
+        if (scanner == null) {
+            Log.w(TAG, "BLE scanner unavailable");
+            return;
+        }
+        handler.post(() -> {
+            if (started) return;
+            started = true;
+            for (String address : prefs.getStringSet(PREF_ADDRESSES, Collections.<String>emptySet())) {
+                if (links.size() < maxLinks && BluetoothAdapter.checkBluetoothAddress(address)) {
+                    addLink(adapter.getRemoteDevice(address));
+                }
+            }
+            if (links.size() < maxLinks) startScan();
+            lastStatsMs = SystemClock.uptimeMillis();
+            handler.postDelayed(check, CHECK_MS);
+        });
+    }
+
+    /** Closes every link and stops scanning; the manager cannot be restarted. */
+    @Override
+    public void close() {
+        handler.post(() -> {
+            stopScan();
+            handler.removeCallbacks(check);
+            for (Link link : links) link.client.close();
+        });
+        thread.quitSafely();
+    }
+
+    /* ───────── Links (manager thread) ───────── */
+
+    private void addLink(BluetoothDevice device) {
+        BleClient client = new BleClient(context, serviceUuid, device);
+        client.setPoseFormat(poseFormat);
+        client.setBatchingEnabled(batching);
+        client.setTelemetry(telemetry);
+        links.add(new Link(device.getAddress(), client, SystemClock.uptimeMillis()));
+        Log.i(TAG, "Linking Portal " + device.getAddress() + " (" + links.size() + "/" + maxLinks + ")");
+        client.start();
+    }
+
+    private void onFound(BluetoothDevice device) {
+        if (!scanning) return;   // a result queued before the scan stopped
+        for (Link link : links) {
+            if (link.address.equals(device.getAddress())) return;
+        }
+        addLink(device);
+        if (liveLinkCount(SystemClock.uptimeMillis()) >= maxLinks) stopScan();
+    }
+
+    /** Links that are ready, or still within their timeout of being added or last ready. */
+    private int liveLinkCount(long nowMs) {
+        int n = 0;
+        for (Link link : links) {
+            if (link.health.isLive(nowMs)) n++;
+        }
+        return n;
+    }
+
+    private void startScan() {
+        if (scanning) return;
+        List<ScanFilter> filters = Collections.singletonList(
+                new ScanFilter.Builder().setServiceUuid(new ParcelUuid(serviceUuid)).build());
+        ScanSettings settings = new ScanSettings.Builder()
+                .setScanMode(ScanSettings.SCAN_MODE_LOW_LATENCY)
+                .build();
+        try {
+            scanner.startScan(filters, settings, scanCb);
+            scanning = true;
+            Log.i(TAG, "Scanning for up to " + (maxLinks - links.size()) + " more Portal(s)");
+        } catch (RuntimeException e) {
+            Log.e(TAG, "BLE scan could not start", e);
+        }
+    }
+
+    private void stopScan() {
+        if (!scanning) return;
+        scanning = false;
+        try { scanner.stopScan(scanCb); } catch (RuntimeException ignored) {}
+    }
+
+    /**
+     * Drops the links that have expired and resumes the scan for their slots, and every
+     * {@link #STATS_LOG_MS} logs each link's statistics.
+     */
+    private void check() {
+        long now = SystemClock.uptimeMillis();
+        for (Link link : links) {
+            link.health.update(link.client.getLinkState() == BleClient.LinkState.READY, now);
+            if (link.health.isLive(now)) continue;
+            Log.i(TAG, "Dropping Portal " + link.address + ", not ready for "
+                    + LinkHealth.UNREADY_TIMEOUT_MS + " ms");
+            link.client.close();
+            links.remove(link);
+        }
+        if (liveLinkCount(now) < maxLinks) startScan();
+        if (now - lastStatsMs >= STATS_LOG_MS) logStats(now);
+        handler.postDelayed(check, CHECK_MS);
+    }
+
+    /** Updates and logs each link's statistics, and remembers the Portals that became ready. */
+    private void logStats(long now) {
+        lastStatsMs = now;
+        Set<String> ready = new HashSet<>();
+        for (Link link : links) {
+            BleClient c = link.client;
+            LinkHealth.Stats stats = link.health.sample(c.getLinkState().name(), c.getSentPacketCount(),
+                    link.lost(), c.getCoalescedPoseCount(), c.getRoundTripMs(), now);
+            Log.i(TAG, stats.toString());
+            if (c.getReadyCount() > 0) ready.add(link.address);
+        }
+        if (!ready.isEmpty()
+                && !ready.equals(prefs.getStringSet(PREF_ADDRESSES, Collections.<String>emptySet()))) {
+            prefs.edit().putStringSet(PREF_ADDRESSES, ready).apply();
+        }
+    }
+
+    /** Each link's statistics as of the last {@link #STATS_LOG_MS} update. */
+    List<LinkHealth.Stats> getLinkStats() {
+        List<LinkHealth.Stats> out = new ArrayList<>();
+        for (Link link : links) {
+            LinkHealth.Stats s = link.health.getStats();
+            if (s != null) out.add(s);
+        }
+        return out;
+    }
+
+    /** Links currently able to write. */
+    public int getReadyLinkCount() {
+        int n = 0;
+        for (Link link : links) {
+            if (link.client.getLinkState() == BleClient.LinkState.READY) n++;
+        }
+        return n;
+    }
+
+    // Scan results arrive on the main thread and are handed to the manager thread
+    private final ScanCallback scanCb = new ScanCallback() {
+        @Override public void onScanResult(int c, ScanResult res) {
+            BluetoothDevice dev = res.getDevice();
+            handler.post(() -> onFound(dev));
+        }
+        @Override public void onScanFailed(int errorCode) {
+            Log.e(TAG, "BLE scan failed with error: " + errorCode);
+            handler.post(() -> scanning = false);
+        }
+    };
+
+    /* ───────── PoseTransport ───────── */
+
+    @Override
+    public void setPoseFormat(byte format) {
+        poseFormat = format;
+        for (Link link : links) link.client.setPoseFormat(format);
+    }
+
+    @Override
+    public void setBatchingEnabled(boolean enabled) {
+        batching = enabled;
+        for (Link link : links) link.client.setBatchingEnabled(enabled);
+    }
+
+    @Override
+    public void setTelemetry(TelemetryRecorder recorder) {
+        telemetry = recorder;
+        for (Link link : links) link.client.setTelemetry(recorder);
+    }
+
+    /** Copies the pose into every link's slot; each link writes it when it is ready for it. */
+    @Override
+    public void publishPose(float[] pos, float[] quat, long sampledAtNs, long capturedAtNs) {
+        for (Link link : links) link.client.publishPose(pos, quat, sampledAtNs, capturedAtNs);
+    }
+
+    /** Detector thread only; encoded once for all links. */
+    @Override
+    public void queueAprilTag(int id, long frameTimestampNs, float[] camPos, float[] camQuat,
+                              float[] pos, float[] rotMat) {
+        if (getReadyLinkCount() == 0) return;
+        byte[] packet = encoder.encodeAprilTag(id, frameTimestampNs, camPos, camQuat, pos, rotMat);
+        for (Link link : links) link.client.offerAprilTagPacket(packet, PacketEncoder.APRILTAG_LENGTH);
+    }
+
+    /** Detector thread only; encoded once for all links. */
+    @Override
+    public void queueTagEstimate(int id, long frameTimestampNs, float[] pos, float[] quat,
+                                 float[] posVar, float rotVar, int samples) {
+        if (getReadyLinkCount() == 0) return;
+        byte[] packet = encoder.encodeTagEstimate(id, frameTimestampNs, pos, quat, posVar, rotVar, samples);
+        for (Link link : links) link.client.offerAprilTagPacket(packet, PacketEncoder.TAG_ESTIMATE_LENGTH);
+    }
+
+    @Override
+    public void flushAprilTags() {
+        for (Link link : links) link.client.flushAprilTags();
+    }
+
+    /** Main thread only. */
+    @Override
+    public void sendCalibrationTrigger() {
+        byte[] packet = encoder.encodeCalibration();
+        for (Link link : links) link.client.offerControlPacket(packet, PacketEncoder.CALIBRATION_LENGTH);
+    }
+
+    /** Main thread only. */
+    @Override
+    public void sendButtonEvent(byte button, boolean pressed) {
+        byte[] packet = encoder.encodeButton(button, pressed);
+        for (Link link : links) link.client.offerControlPacket(packet, PacketEncoder.BUTTON_LENGTH);
+    }
+
+    @Override
+    public long getSentPacketCount() {
+        long n = 0;
+        for (Link link : links) n += link.client.getSentPacketCount();
+        return n;
+    }
+
+    @Override
+    public long getCoalescedPoseCount() {
+        long n = 0;
+        for (Link link : links) n += link.client.getCoalescedPoseCount();
+        return n;
+    }
+
+    @Override
+    public long getDroppedPacketCount() {
+        long n = 0;
+        for (Link link : links) n += link.client.getDroppedPacketCount();
+        return n;
+    }
+
+    /** True if any link still wants AprilTag reports, or no Portal is linked yet. */
+    @Override
+    public boolean isAprilTagReportingEnabled() {
+        if (links.isEmpty()) return true;
+        for (Link link : links) {
+            if (link.client.isAprilTagReportingEnabled()) return true;
+        }
+        return false;
+    }
+
+    /** The slowest link's round trip, or -1 before any link has one. */
+    @Override
+    public double getRoundTripMs() {
+        double worst = -1;
+        for (Link link : links) worst = Math.max(worst, link.client.getRoundTripMs());
+        return worst;
+    }
+
+    /**
+     * The first linked Portal's clock offset. Timed poses are stamped per link with that link's
+     * own offset; this is only for display.
+     */
+    @Override
+    public long getClockOffsetNs() {
+        return links.isEmpty() ? 0 : links.get(0).client.getClockOffsetNs();
+    }
+
+    /** When the first pose went out on any link, or 0 before then. */
+    @Override
+    public long getFirstPoseSentNs() {
+        long first = 0;
+        for (Link link : links) {
+            long ns = link.client.getFirstPoseSentNs();
+            if (ns != 0 && (first == 0 || ns < first)) first = ns;
+        }
+        return first;
+    }
+}
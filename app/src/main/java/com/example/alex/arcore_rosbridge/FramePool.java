@@ -0,0 +1,106 @@
+package com.example.alex.arcore_rosbridge;
+
+import android.media.Image;
+
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Small ring of reusable greyscale frames for the AprilTag detector. Each frame owns a direct
+ * buffer and an OpenCV {@link Mat} that wraps the same memory, so the camera's Y plane is copied
+ * exactly once and the detector reads it in place.
+ *
+ * <p>The GL thread acquires a frame, fills it and hands it to the detector thread, which releases
+ * it when detection finishes. If every frame is still in use the capture is skipped.
+ */
+final class FramePool {
+    /** A pooled frame; owned by whichever thread acquired it until it is released. */
+    static final class PooledFrame {
+        ByteBuffer data;
+        Mat mat;
+        int width;
+        int height;
+        float fx, fy, cx, cy;
+        long captureTimeMs;
+        /** ARCore {@code Frame.getTimestamp()} of the frame the image came from. */
+        long frameTimestampNs;
+        /** Sensor-aligned camera pose ({@code Camera.getPose()}) of the captured image. */
+        final float[] sensorPos = new float[3];
+        final float[] sensorQuat = new float[4];
+        /** Display-oriented camera pose of the same frame, as reported to the runtime. */
+        final float[] displayPos = new float[3];
+        final float[] displayQuat = new float[4];
+
+        private boolean inUse;
+
+        private void allocate(int w, int h) {
+            if (mat != null) mat.release();
+            data = ByteBuffer.allocateDirect(w * h);
+            mat = new Mat(h, w, CvType.CV_8UC1, data);
+            width = w;
+            height = h;
+        }
+
+        /** Copies a Y plane into this frame, dropping any row padding. */
+        void copyLuma(Image.Plane plane) {
+            ByteBuffer src = plane.getBuffer();
+            int rowStride = plane.getRowStride();
+            int base = src.position();
+            data.clear();
+            if (rowStride == width) {
+                src.limit(base + width * height);
+                data.put(src);
+            } else {
+                for (int row = 0; row < height; row++) {
+                    int start = base + row * rowStride;
+                    src.limit(start + width);
+                    src.position(start);
+                    data.put(src);
+                }
+            }
+        }
+    }
+
+    private final PooledFrame[] frames;
+    private boolean closed;
+
+    FramePool(int capacity) {
+        frames = new PooledFrame[capacity];
+        for (int i = 0; i < capacity; i++) frames[i] = new PooledFrame();
+    }
+
+    /** Returns a free frame sized {@code width x height}, or null if all frames are in use. */
+    synchronized PooledFrame acquire(int width, int height) {
+        if (closed) return null;
+        for (PooledFrame f : frames) {
+            if (f.inUse) continue;
+            if (f.mat == null || f.width != width || f.height != height) f.allocate(width, height);
+            f.inUse = true;
+            return f;
+        }
+        return null;
+    }
+
+    synchronized void release(PooledFrame frame) {
+        frame.inUse = false;
+        if (closed) freeNative(frame);
+    }
+
+    /** Frees native memory; frames still in use are freed when they are released. */
+    synchronized void close() {
+        closed = true;
+        for (PooledFrame f : frames) {
+            if (!f.inUse) freeNative(f);
+        }
+    }
+
+    private static void freeNative(PooledFrame f) {
+        if (f.mat != null) {
+            f.mat.release();
+            f.mat = null;
+        }
+        f.data = null;
+    }
+}
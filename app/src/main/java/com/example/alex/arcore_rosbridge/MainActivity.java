@@ -3,10 +3,13 @@ package com.example.alex.arcore_rosbridge;
 import android.Manifest;
 import android.app.Activity;
 import android.app.ActivityManager;
+import android.content.ComponentName;
 import android.content.Context;
-import android.content.pm.PackageManager;
+import android.content.Intent;
+import android.content.ServiceConnection;
 import android.os.Build;
 import android.os.Bundle;
+import android.os.IBinder;
 import android.util.Log;
 import android.view.Gravity;
 import android.view.WindowManager;
@@ -17,131 +20,34 @@ import android.widget.FrameLayout;
 
 import androidx.annotation.NonNull;
 import androidx.core.app.ActivityCompat;
-import androidx.core.content.ContextCompat;
-import android.opengl.GLES11Ext;
-import android.opengl.GLES20;
-import android.opengl.GLSurfaceView;
-import android.media.Image;
-import android.os.SystemClock;
 import android.view.KeyEvent;
-import javax.microedition.khronos.egl.EGLConfig;
-import javax.microedition.khronos.opengles.GL10;
-
-import com.google.ar.core.Config;
-import com.google.ar.core.Frame;
-import com.google.ar.core.Pose;
-import com.google.ar.core.Session;
-import com.google.ar.core.TrackingState;
-import com.google.ar.core.CameraConfig;
-import com.google.ar.core.CameraConfigFilter;
-import com.google.ar.core.exceptions.NotYetAvailableException;
-import android.util.Size;
-
-
-import java.util.UUID;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.nio.ByteBuffer;
-import org.openftc.apriltag.AprilTagDetection;
-import org.openftc.apriltag.AprilTagDetectorJNI;
-import org.opencv.core.CvType;
-import org.opencv.core.Mat;
-import org.opencv.android.OpenCVLoader;
-import org.firstinspires.ftc.robotcore.external.matrices.MatrixF;
-import java.util.ArrayList;
+
 import java.util.Locale;
 import java.text.SimpleDateFormat;
 import java.util.Date;
 
 import androidx.appcompat.app.AppCompatActivity;
 
+/**
+ * Shows the streamed pose and forwards the calibration button and volume keys. Tracking and
+ * streaming run in {@link TrackingService}, which this starts with the launch extras and binds to
+ * while visible; leaving with back stops it, anything else leaves it streaming.
+ */
 public class MainActivity extends AppCompatActivity {
     private static final String TAG = MainActivity.class.getSimpleName();
     private static final double MIN_OPENGL_VERSION = 3.0;
 
-    // Right hand adjustments for Oculus Touch controller pose, when holding phone sideways
-    private static final float ADJUST_X_DEG = 180f;
-    private static final float ADJUST_Z_DEG = -90f;
-
-    private static final Pose ADJUST_POSE;
-    static {
-        float[] q = new float[4];
-        // Convert Euler angles to quaternion
-        double halfX = Math.toRadians(ADJUST_X_DEG) / 2.0;
-        double halfZ = Math.toRadians(ADJUST_Z_DEG) / 2.0;
-        q[0] = (float) Math.sin(halfX); // x
-        q[1] = 0f; // y
-        q[2] = (float) Math.sin(halfZ); // z
-        q[3] = (float) Math.cos(halfX) * (float) Math.cos(halfZ); // w
-
-        ADJUST_POSE = new Pose(new float[] {0f, 0f, 0f}, q);
-    }
-
-    private Session arSession;
     private Button calibration_btn;
 
-    private float[] cam_pos = new float[3];
-    private float[] cam_quat = new float[4];
-
-    private final float[] raw_quat = new float[4];
-
-    private GLSurfaceView glSurfaceView;
-    private android.os.Handler frameHandler = new android.os.Handler();
-    private final Runnable frameUpdate = new Runnable() {
-        @Override public void run() {
-            if (arSession != null) {
-                glSurfaceView.queueEvent(() -> {
-                    try {
-                        Frame frame = arSession.update();
-                        if (frame.getCamera().getTrackingState() == TrackingState.TRACKING) {
-                            Pose pose = frame.getCamera().getDisplayOrientedPose();
-                            pose.getTranslation(cam_pos, 0);
-                            pose.getRotationQuaternion(raw_quat, 0);
-                            Pose adjustedPose = pose.compose(ADJUST_POSE);
-                            adjustedPose.getRotationQuaternion(cam_quat, 0);
-
-                            runOnUiThread(() -> updatePoseViews());
-                        }
-                        captureImageForDetector(frame);
-                    } catch (Exception ex) {
-                        Log.e(TAG, "Error updating AR session", ex);
-                    }
-                });
-                glSurfaceView.requestRender();
-            }
-            frameHandler.postDelayed(this, 33);
-        }
-    };
-
-    private class SimpleRenderer implements GLSurfaceView.Renderer {
-        private int textureId;
+    // Pose text views are a throttled side channel – BLE streaming never waits on the UI thread
+    private final float[] ui_pos = new float[3];
+    private final float[] ui_quat = new float[4];
+    private volatile boolean uiUpdatePending = false;
+    private final Runnable updatePoseViews = this::updatePoseViews;
 
-        @Override
-        public void onSurfaceCreated(GL10 gl, EGLConfig config) {
-            textureId = createCameraTexture();
-            if (arSession != null) {
-                arSession.setCameraTextureName(textureId);
-            }
-        }
-
-        @Override public void onSurfaceChanged(GL10 gl, int w, int h) {}
-
-        @Override public void onDrawFrame(GL10 gl) {
-            GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT | GLES20.GL_DEPTH_BUFFER_BIT);
-        }
-    }
-
-    private int createCameraTexture() {
-        int[] textures = new int[1];
-        GLES20.glGenTextures(1, textures, 0);
-        int texId = textures[0];
-        GLES20.glBindTexture(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, texId);
-        GLES20.glTexParameteri(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_LINEAR);
-        GLES20.glTexParameteri(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_LINEAR);
-        GLES20.glTexParameteri(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, GLES20.GL_TEXTURE_WRAP_S, GLES20.GL_CLAMP_TO_EDGE);
-        GLES20.glTexParameteri(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, GLES20.GL_TEXTURE_WRAP_T, GLES20.GL_CLAMP_TO_EDGE);
-        return texId;
-    }
+    // Launch with `--ez dim_screen true` to keep the display on at minimum brightness while
+    // streaming, which saves thermal headroom
+    private static final String EXTRA_DIM_SCREEN = "dim_screen";
 
     private TextView pos_x_txt;
     private TextView pos_y_txt;
@@ -154,40 +60,55 @@ public class MainActivity extends AppCompatActivity {
     // Timestamp when an AprilTag is detected
     private TextView tagTimeTxt;
 
-    // BLE integration
-    private static final UUID PORTAL_SERVICE_UUID =
-            UUID.fromString("f8b69c7b-3a91-4f2d-8e7a-9c4d35d5f49a");
     private static final int REQ_BLE_PERMS = 0xB1E;
-    private BleClient bleClient;
-    private final ExecutorService detectorExecutor = Executors.newSingleThreadExecutor();
-    private long lastImageTime = 0;
-    private long aprilTagDetectorPtr = 0;
-    private static final double TAG_SIZE_METERS = 0.032;
+    private TrackingService.LocalBinder service;
+
+    private final TrackingService.Listener serviceListener = new TrackingService.Listener() {
+        @Override public void onPose(float[] pos, float[] quat) {
+            if (uiUpdatePending) return;
+            synchronized (ui_pos) {
+                System.arraycopy(pos, 0, ui_pos, 0, 3);
+                System.arraycopy(quat, 0, ui_quat, 0, 4);
+            }
+            uiUpdatePending = true;
+            runOnUiThread(updatePoseViews);
+        }
+
+        @Override public void onAprilTag(long millis) {
+            runOnUiThread(() -> updateTagTimestamp(millis));
+        }
+    };
+
+    private final ServiceConnection connection = new ServiceConnection() {
+        @Override public void onServiceConnected(ComponentName name, IBinder binder) {
+            service = (TrackingService.LocalBinder) binder;
+            service.setListener(serviceListener);
+        }
+
+        @Override public void onServiceDisconnected(ComponentName name) {
+            service = null;
+        }
+    };
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
-        // Load OpenCV native libs early
-        if (!OpenCVLoader.initDebug()) {
-            Log.e(TAG, "❌ OpenCV native library failed to load");
-        } else {
-            Log.i(TAG, "✅ OpenCV loaded");
-        }
         getWindow().addFlags(WindowManager.LayoutParams.FLAG_KEEP_SCREEN_ON);
+        if (getIntent().getBooleanExtra(EXTRA_DIM_SCREEN, false)) {
+            WindowManager.LayoutParams attrs = getWindow().getAttributes();
+            attrs.screenBrightness = WindowManager.LayoutParams.BRIGHTNESS_OVERRIDE_OFF;
+            getWindow().setAttributes(attrs);
+        }
         if (!checkIsSupportedDeviceOrFinish(this)) {
             return;
         }
         setContentView(R.layout.activity_main);
 
-        glSurfaceView = findViewById(R.id.arcore_gl_surface);
-        glSurfaceView.setEGLContextClientVersion(2);
-        glSurfaceView.setRenderer(new SimpleRenderer());
-        glSurfaceView.setRenderMode(GLSurfaceView.RENDERMODE_WHEN_DIRTY);
         calibration_btn = findViewById(R.id.calibration_btn);
 
         calibration_btn.setOnClickListener(v -> {
-            if (bleClient != null) {
-                bleClient.sendCalibrationTrigger();
+            if (service != null) {
+                service.sendCalibrationTrigger();
             }
             Toast.makeText(getApplicationContext(), "Calibration sent", Toast.LENGTH_SHORT).show();
         });
@@ -214,39 +135,10 @@ public class MainActivity extends AppCompatActivity {
         // Add to root view
         ((FrameLayout) findViewById(android.R.id.content)).addView(tagTimeTxt, lp);
 
-        try {
-            arSession = new Session(this);
-            CameraConfigFilter filter = new CameraConfigFilter(arSession);
-            java.util.List<CameraConfig> configs = arSession.getSupportedCameraConfigs(filter);
-            CameraConfig chosen = configs.isEmpty() ? null : configs.get(0);
-            for (CameraConfig cc : configs) {
-                Size sz = cc.getImageSize();
-                if (sz.getWidth() >= 640 && sz.getHeight() >= 480) { chosen = cc; break; }
-            }
-            if (chosen != null) {
-                arSession.setCameraConfig(chosen);
-                Size s = chosen.getImageSize();
-                Log.i(TAG, "Camera config set to " + s.getWidth() + "x" + s.getHeight());
-            }
-            Config config = new Config(arSession);
-            config.setPlaneFindingMode(Config.PlaneFindingMode.DISABLED);
-            config.setCloudAnchorMode(Config.CloudAnchorMode.DISABLED);
-            config.setLightEstimationMode(Config.LightEstimationMode.DISABLED);
-            arSession.configure(config);
-            aprilTagDetectorPtr = AprilTagDetectorJNI.createApriltagDetector(
-                    AprilTagDetectorJNI.TagFamily.TAG_36h11.string, 2.0f, 1);
-        } catch (Exception ex) {
-            Toast toast = Toast.makeText(this, "ARCore unavailable: " + ex.getMessage(), Toast.LENGTH_LONG);
-            toast.setGravity(Gravity.CENTER, 0, 0);
-            toast.show();
-        }
-
-
-        // Start BLE integration
-        if (hasBlePermissions()) {
-            bleClient = new BleClient(this, PORTAL_SERVICE_UUID);
-            bleClient.start();
-        } else {
+        // Streams over UDP or, once it has the permissions, BLE
+        TrackingService.start(this, getIntent());
+        if (getIntent().getStringExtra(TrackingService.EXTRA_UDP_TARGET) == null
+                && !TrackingService.hasBlePermissions(this)) {
             requestBlePermissions();
         }
     }
@@ -281,22 +173,6 @@ public class MainActivity extends AppCompatActivity {
     }
 
     // ───── BLE permission helpers ─────
-    private boolean hasBlePermissions() {
-        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.S) {
-            // For Android 12/13, also require fine location if targetSdk < 31
-            return ContextCompat.checkSelfPermission(this, Manifest.permission.BLUETOOTH_SCAN)
-                == PackageManager.PERMISSION_GRANTED
-                && ContextCompat.checkSelfPermission(this, Manifest.permission.BLUETOOTH_CONNECT)
-                == PackageManager.PERMISSION_GRANTED
-                && ContextCompat.checkSelfPermission(this, Manifest.permission.ACCESS_FINE_LOCATION)
-                == PackageManager.PERMISSION_GRANTED;
-        } else {
-            // For Android 6-11
-            return ContextCompat.checkSelfPermission(this, Manifest.permission.ACCESS_FINE_LOCATION)
-                == PackageManager.PERMISSION_GRANTED;
-        }
-    }
-
     private void requestBlePermissions() {
         if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.S) {
             ActivityCompat.requestPermissions(
@@ -319,134 +195,47 @@ public class MainActivity extends AppCompatActivity {
     }
 
     @Override
-    protected void onResume() {
-        super.onResume();
-        if (arSession != null) {
-            try { arSession.resume(); } catch (Exception ignored) {}
-        }
-        glSurfaceView.onResume();
-        frameHandler.post(frameUpdate);
+    protected void onStart() {
+        super.onStart();
+        bindService(new Intent(this, TrackingService.class), connection, 0);
     }
 
     @Override
-    protected void onPause() {
-        frameHandler.removeCallbacks(frameUpdate);
-        if (arSession != null) {
-            arSession.pause();
-        }
-        glSurfaceView.onPause();
-        super.onPause();
+    protected void onStop() {
+        // Only the views go; the service keeps tracking and streaming
+        if (service != null) service.setListener(null);
+        service = null;
+        unbindService(connection);
+        super.onStop();
     }
 
     private void updatePoseViews() {
-        pos_x_txt.setText(String.format("%.2f", cam_pos[0]));
-        pos_y_txt.setText(String.format("%.2f", cam_pos[1]));
-        pos_z_txt.setText(String.format("%.2f", cam_pos[2]));
-        rot_x_txt.setText(String.format("%.2f", cam_quat[0]));
-        rot_y_txt.setText(String.format("%.2f", cam_quat[1]));
-        rot_z_txt.setText(String.format("%.2f", cam_quat[2]));
-        rot_w_txt.setText(String.format("%.2f", cam_quat[3]));
-
-
-        if (bleClient != null) {
-            bleClient.sendPose(cam_pos, cam_quat);
-        }
-    }
-
-    private void captureImageForDetector(Frame frame) {
-        long now = SystemClock.uptimeMillis();
-        if (now - lastImageTime < 100) return;
-        lastImageTime = now;
-        try {
-            Image img = frame.acquireCameraImage();
-            int w = img.getWidth();
-            int h = img.getHeight();
-            ByteBuffer buf = img.getPlanes()[0].getBuffer();
-            byte[] data = new byte[buf.remaining()];
-            buf.get(data);
-            img.close();
-            float[] fl = frame.getCamera().getImageIntrinsics().getFocalLength();
-            float[] pp = frame.getCamera().getImageIntrinsics().getPrincipalPoint();
-            float fx = fl[0];
-            float fy = fl[1];
-            float cx = pp[0];
-            float cy = pp[1];
-            Log.d(TAG, "Captured image " + w + "x" + h + " at " + now);
-            detectorExecutor.execute(() -> runAprilTagDetector(data, w, h, fx, fy, cx, cy));
-        } catch (NotYetAvailableException e) {
-            // frame not ready; ignore
+        synchronized (ui_pos) {
+            pos_x_txt.setText(String.format("%.2f", ui_pos[0]));
+            pos_y_txt.setText(String.format("%.2f", ui_pos[1]));
+            pos_z_txt.setText(String.format("%.2f", ui_pos[2]));
+            rot_x_txt.setText(String.format("%.2f", ui_quat[0]));
+            rot_y_txt.setText(String.format("%.2f", ui_quat[1]));
+            rot_z_txt.setText(String.format("%.2f", ui_quat[2]));
+            rot_w_txt.setText(String.format("%.2f", ui_quat[3]));
         }
+        uiUpdatePending = false;
     }
 
     @Override
     public void onRequestPermissionsResult(int reqCode, @NonNull String[] perms, @NonNull int[] res) {
         super.onRequestPermissionsResult(reqCode, perms, res);
-        if (reqCode == REQ_BLE_PERMS && hasBlePermissions()) {
-            bleClient = new BleClient(this, PORTAL_SERVICE_UUID);
-            bleClient.start();
+        if (reqCode == REQ_BLE_PERMS && TrackingService.hasBlePermissions(this)) {
+            TrackingService.start(this, null);   // starts the BLE client
         }
     }
 
     @Override
     protected void onDestroy() {
-        if (bleClient != null) bleClient.stop();
-        detectorExecutor.shutdown();
-        if (aprilTagDetectorPtr != 0) {
-            AprilTagDetectorJNI.releaseApriltagDetector(aprilTagDetectorPtr);
-            aprilTagDetectorPtr = 0;
-        }
+        if (isFinishing()) stopService(new Intent(this, TrackingService.class));
         super.onDestroy();
     }
 
-    private void runAprilTagDetector(byte[] data, int width, int height,
-                                     float fx, float fy, float cx, float cy) {
-        if (aprilTagDetectorPtr == 0) return;
-
-        Mat grey = new Mat(height, width, CvType.CV_8UC1);
-        grey.put(0, 0, data);
-
-        ArrayList<AprilTagDetection> detections =
-                AprilTagDetectorJNI.runAprilTagDetectorSimple(
-                        aprilTagDetectorPtr, grey, TAG_SIZE_METERS,
-                        fx, fy, cx, cy);
-
-        grey.release();
-
-        if (!detections.isEmpty()) {
-            AprilTagDetection det = detections.get(0);
-            MatrixF r = det.pose.R;
-            StringBuilder rot = new StringBuilder();
-            for (int i = 0; i < 3; i++) {
-                for (int j = 0; j < 3; j++) {
-                    rot.append(String.format(Locale.US, "%.3f ", r.get(i, j)));
-                }
-            }
-            Log.i(TAG, String.format(Locale.US,
-                    "AprilTag id=%d pos [%.3f %.3f %.3f] rot %s",
-                    det.id, det.pose.x, det.pose.y, det.pose.z,
-                    rot.toString().trim()));
-            float[] pos = {
-                    (float) det.pose.x,
-                    (float) det.pose.y,
-                    (float) det.pose.z
-            };
-            float[] rotMat = new float[9];
-            for (int i = 0; i < 3; i++) {
-                for (int j = 0; j < 3; j++) {
-                    rotMat[i * 3 + j] = (float) r.get(i, j);
-                }
-            }
-            if (bleClient != null) {
-                float[] camPosCopy = cam_pos.clone();
-                float[] camQuatCopy = raw_quat.clone();
-                bleClient.sendAprilTag(det.id, camPosCopy, camQuatCopy, pos, rotMat);
-            }
-
-            // Update timestamp on UI thread
-            runOnUiThread(() -> updateTagTimestamp(System.currentTimeMillis()));
-        }
-    }
-
     /** Formats and displays the given timestamp (milliseconds since epoch). */
     private void updateTagTimestamp(long millis) {
         if (tagTimeTxt == null) return;
@@ -458,10 +247,10 @@ public class MainActivity extends AppCompatActivity {
     @Override
     public boolean onKeyDown(int keyCode, KeyEvent event) {
         if (keyCode == KeyEvent.KEYCODE_VOLUME_UP || keyCode == KeyEvent.KEYCODE_VOLUME_DOWN) {
-            if (bleClient != null) {
+            if (service != null) {
                 byte btn = (keyCode == KeyEvent.KEYCODE_VOLUME_UP)
-                        ? BleClient.BUTTON_VOL_UP : BleClient.BUTTON_VOL_DOWN;
-                bleClient.sendButtonEvent(btn, true);
+                        ? PoseTransport.BUTTON_VOL_UP : PoseTransport.BUTTON_VOL_DOWN;
+                service.sendButtonEvent(btn, true);
             }
             return true;
         }
@@ -471,13 +260,13 @@ public class MainActivity extends AppCompatActivity {
     @Override
     public boolean onKeyUp(int keyCode, KeyEvent event) {
         if (keyCode == KeyEvent.KEYCODE_VOLUME_UP || keyCode == KeyEvent.KEYCODE_VOLUME_DOWN) {
-            if (bleClient != null) {
+            if (service != null) {
                 byte btn = (keyCode == KeyEvent.KEYCODE_VOLUME_UP)
-                        ? BleClient.BUTTON_VOL_UP : BleClient.BUTTON_VOL_DOWN;
-                bleClient.sendButtonEvent(btn, false);
+                        ? PoseTransport.BUTTON_VOL_UP : PoseTransport.BUTTON_VOL_DOWN;
+                service.sendButtonEvent(btn, false);
             }
             return true;
         }
         return super.onKeyUp(keyCode, event);
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,134 @@
+package com.example.alex.arcore_rosbridge;
+
+import android.hardware.Sensor;
+import android.hardware.SensorEvent;
+import android.hardware.SensorEventListener;
+import android.hardware.SensorManager;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.util.Log;
+import android.view.Surface;
+
+/**
+ * Feeds gyroscope and linear-acceleration samples into a {@link PosePredictor} on an "imu"
+ * thread and, at most once per {@code 1 / rateHz}, emits the pose predicted {@code horizon}
+ * ahead of the sample that triggered it. Camera poses come in through {@link #onPose}.
+ */
+final class PosePredictionLoop implements SensorEventListener {
+    private static final String TAG = PosePredictionLoop.class.getSimpleName();
+
+    /** Called on the IMU thread; the arrays are reused after the call returns. */
+    interface Listener {
+        void onPredictedPose(long targetNs, float[] pos, float[] quat);
+    }
+
+    private final SensorManager sensorManager;
+    private final Listener listener;
+    private final PosePredictor predictor = new PosePredictor();
+    private final long intervalNs;
+    private final long horizonNs;
+    private volatile PoseReplay.Recorder recorder;
+    private HandlerThread thread;
+
+    // IMU-thread state
+    private final float[] pos = new float[3];
+    private final float[] quat = new float[4];
+    private long lastEmitNs;
+    private long emitted;
+
+    PosePredictionLoop(SensorManager sensorManager, int rateHz, long horizonMs, Listener listener) {
+        this.sensorManager = sensorManager;
+        this.listener = listener;
+        this.intervalNs = 1_000_000_000L / rateHz;
+        this.horizonNs = horizonMs * 1_000_000L;
+        predictor.setMaxHorizonNs(PosePredictor.DEFAULT_MAX_HORIZON_NS + horizonNs);
+    }
+
+    /** Also logs every sample, for replay with {@link PoseReplay}; null stops recording. */
+    void setRecorder(PoseReplay.Recorder recorder) {
+        this.recorder = recorder;
+    }
+
+    /**
+     * Display-oriented poses turn with the display, the IMU axes stay with the device; pass
+     * {@code Display.getRotation()} so gyro rates land on the pose's axes.
+     */
+    void setDisplayRotation(int rotation) {
+        int degrees;
+        switch (rotation) {
+            case Surface.ROTATION_90:  degrees = 90;  break;
+            case Surface.ROTATION_180: degrees = 180; break;
+            case Surface.ROTATION_270: degrees = 270; break;
+            default:                   degrees = 0;   break;
+        }
+        double half = Math.toRadians(-degrees) / 2.0;
+        predictor.setSensorRotation(new float[] {0f, 0f, (float) Math.sin(half), (float) Math.cos(half)});
+    }
+
+    void start() {
+        Sensor gyro = sensorManager.getDefaultSensor(Sensor.TYPE_GYROSCOPE);
+        if (gyro == null) {
+            Log.w(TAG, "No gyroscope; pose prediction disabled");
+            return;
+        }
+        thread = new HandlerThread("imu", Process.THREAD_PRIORITY_URGENT_DISPLAY);
+        thread.start();
+        Handler handler = new Handler(thread.getLooper());
+        sensorManager.registerListener(this, gyro, SensorManager.SENSOR_DELAY_FASTEST, handler);
+        Sensor accel = sensorManager.getDefaultSensor(Sensor.TYPE_LINEAR_ACCELERATION);
+        if (accel != null) {
+            sensorManager.registerListener(this, accel, SensorManager.SENSOR_DELAY_FASTEST, handler);
+        }
+    }
+
+    void stop() {
+        sensorManager.unregisterListener(this);
+        if (thread != null) {
+            thread.quitSafely();
+            thread = null;
+        }
+        predictor.reset();
+    }
+
+    /**
+     * Called on the GL thread with each tracked camera pose, before the ADJUST rotation. The
+     * timestamp must be on the IMU's clock, CLOCK_BOOTTIME; see {@link FrameClock}.
+     */
+    void onPose(long timestampNs, float[] cameraPos, float[] cameraQuat) {
+        predictor.onPose(timestampNs, cameraPos, cameraQuat);
+        PoseReplay.Recorder r = recorder;
+        if (r != null) r.pose(timestampNs, cameraPos, cameraQuat);
+    }
+
+    /** Called on the GL thread when tracking is lost, so nothing is extrapolated from a stale pose. */
+    void onTrackingLost() {
+        predictor.reset();
+    }
+
+    long getEmittedCount() {
+        return emitted;
+    }
+
+    /* ───────── SensorEventListener ───────── */
+
+    @Override public void onSensorChanged(SensorEvent e) {
+        float[] v = e.values;
+        PoseReplay.Recorder r = recorder;
+        if (e.sensor.getType() == Sensor.TYPE_LINEAR_ACCELERATION) {
+            predictor.onLinearAcceleration(e.timestamp, v[0], v[1], v[2]);
+            if (r != null) r.linearAcceleration(e.timestamp, v[0], v[1], v[2]);
+            return;
+        }
+        predictor.onGyro(e.timestamp, v[0], v[1], v[2]);
+        if (r != null) r.gyro(e.timestamp, v[0], v[1], v[2]);
+        if (e.timestamp - lastEmitNs < intervalNs) return;
+        if (predictor.predict(e.timestamp + horizonNs, pos, quat)) {
+            lastEmitNs = e.timestamp;
+            emitted++;
+            listener.onPredictedPose(e.timestamp + horizonNs, pos, quat);
+        }
+    }
+
+    @Override public void onAccuracyChanged(Sensor sensor, int accuracy) {}
+}
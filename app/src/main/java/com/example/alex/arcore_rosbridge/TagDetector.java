@@ -0,0 +1,231 @@
+package com.example.alex.arcore_rosbridge;
+
+import android.util.Log;
+
+import org.opencv.core.Core;
+import org.opencv.core.CvType;
+import org.opencv.core.Mat;
+import org.opencv.core.Size;
+import org.opencv.imgproc.Imgproc;
+import org.openftc.apriltag.AprilTagDetection;
+import org.openftc.apriltag.AprilTagDetectorJNI;
+
+import java.util.ArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Runs the native AprilTag detector on pooled frames and returns every detection that passes
+ * the decision-margin threshold.
+ *
+ * <p>Frames are searched around the tags seen last time when {@link RoiTracker} can predict
+ * them, otherwise in full. Full-frame searches can optionally be split into overlapping vertical
+ * tiles that run in parallel on a small fixed worker pool, each tile with its own native
+ * detector; tags found in more than one tile are reported once.
+ *
+ * <p>{@link #detect} must always be called from the same (detector) thread.
+ */
+final class TagDetector {
+    private static final String TAG = "TagDetector";
+
+    // Full frames are decimated for speed; cropped regions are searched at full resolution
+    static final float FULL_FRAME_DECIMATION = 2.0f;
+    static final float ROI_DECIMATION = 1.0f;
+    /** Overlap between neighbouring tiles as a fraction of frame width; must exceed a tag's width. */
+    private static final float TILE_OVERLAP = 0.2f;
+
+    private final double tagSize;
+    private final float minDecisionMargin;
+    private final long[] detectors;
+    private final float[] decimations;
+    private final Mat[] tileMats;
+    private final ExecutorService tileWorkers;
+    private final RoiTracker roiTracker;
+    private final int[] roiRect = new int[4];
+    private final ArrayList<AprilTagDetection> results = new ArrayList<>();
+    private long rejected;
+    private volatile float fullFrameDecimation = FULL_FRAME_DECIMATION;
+
+    /**
+     * @param tiles number of tiles for full-frame searches; 1 disables tiling
+     */
+    TagDetector(double tagSizeMetres, float minDecisionMargin, int tiles) {
+        this.tagSize = tagSizeMetres;
+        this.minDecisionMargin = minDecisionMargin;
+        this.roiTracker = new RoiTracker((float) tagSizeMetres);
+        detectors = new long[tiles];
+        decimations = new float[tiles];
+        tileMats = new Mat[tiles];
+        for (int i = 0; i < tiles; i++) {
+            detectors[i] = AprilTagDetectorJNI.createApriltagDetector(
+                    AprilTagDetectorJNI.TagFamily.TAG_36h11.string, FULL_FRAME_DECIMATION, 1);
+            decimations[i] = FULL_FRAME_DECIMATION;
+        }
+        tileWorkers = tiles > 1 ? Executors.newFixedThreadPool(tiles - 1) : null;
+        Log.i(TAG, "AprilTag detector ready with " + tiles + " tile(s)");
+    }
+
+    /**
+     * Detects tags in {@code frame}. The returned list is reused by the next call.
+     */
+    ArrayList<AprilTagDetection> detect(FramePool.PooledFrame frame) {
+        results.clear();
+        if (detectors[0] == 0) return results;
+
+        if (roiTracker.predict(frame.sensorPos, frame.sensorQuat,
+                frame.fx, frame.fy, frame.cx, frame.cy, frame.width, frame.height, roiRect)) {
+            merge(detectRegion(0, frame, roiRect[0], roiRect[1], roiRect[2], roiRect[3],
+                    ROI_DECIMATION));
+        } else if (detectors.length == 1) {
+            merge(detectRegion(0, frame, 0, 0, frame.width, frame.height, fullFrameDecimation));
+        } else {
+            detectTiled(frame);
+        }
+
+        roiTracker.beginUpdate();
+        for (int i = 0; i < results.size(); i++) {
+            AprilTagDetection d = results.get(i);
+            roiTracker.observe((float) d.pose.x, (float) d.pose.y, (float) d.pose.z,
+                    frame.sensorPos, frame.sensorQuat);
+        }
+        return results;
+    }
+
+    private void detectTiled(FramePool.PooledFrame frame) {
+        int tiles = detectors.length;
+        float decimation = fullFrameDecimation;
+        int tileWidth = (frame.width + tiles - 1) / tiles;
+        int halfOverlap = (int) (TILE_OVERLAP * frame.width) / 2;
+        @SuppressWarnings("unchecked")
+        Future<ArrayList<AprilTagDetection>>[] futures = new Future[tiles];
+        for (int i = 1; i < tiles; i++) {
+            final int tile = i;
+            final int x0 = Math.max(0, tile * tileWidth - halfOverlap);
+            final int x1 = Math.min(frame.width, (tile + 1) * tileWidth + halfOverlap);
+            futures[i] = tileWorkers.submit(() -> detectRegion(tile, frame, x0, 0, x1 - x0,
+                    frame.height, decimation));
+        }
+        merge(detectRegion(0, frame, 0, 0, Math.min(frame.width, tileWidth + halfOverlap),
+                frame.height, decimation));
+        for (int i = 1; i < tiles; i++) {
+            try {
+                merge(futures[i].get());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (ExecutionException e) {
+                Log.e(TAG, "Tile " + i + " detection failed", e.getCause());
+            }
+        }
+    }
+
+    /** Runs detector {@code index} on a region of the frame, copying it out if it is a crop. */
+    private ArrayList<AprilTagDetection> detectRegion(int index, FramePool.PooledFrame frame,
+                                                      int x, int y, int w, int h,
+                                                      float decimation) {
+        Mat input = frame.mat;
+        if (w != frame.width || h != frame.height) {
+            Mat view = frame.mat.submat(y, y + h, x, x + w);
+            if (tileMats[index] == null) tileMats[index] = new Mat();
+            view.copyTo(tileMats[index]);   // the detector expects a continuous image
+            view.release();
+            input = tileMats[index];
+        }
+        if (decimations[index] != decimation) {
+            AprilTagDetectorJNI.setApriltagDetectorDecimation(detectors[index], decimation);
+            decimations[index] = decimation;
+        }
+        return AprilTagDetectorJNI.runAprilTagDetectorSimple(detectors[index], input, tagSize,
+                frame.fx, frame.fy, frame.cx - x, frame.cy - y);
+    }
+
+    /** Adds confident detections, keeping the higher-margin one when a tag id repeats. */
+    private void merge(ArrayList<AprilTagDetection> found) {
+        for (int i = 0; i < found.size(); i++) {
+            AprilTagDetection d = found.get(i);
+            if (d.decisionMargin < minDecisionMargin) {
+                rejected++;
+                continue;
+            }
+            int existing = indexOf(d.id);
+            if (existing < 0) {
+                results.add(d);
+            } else if (results.get(existing).decisionMargin < d.decisionMargin) {
+                results.set(existing, d);
+            }
+        }
+    }
+
+    private int indexOf(int id) {
+        for (int i = 0; i < results.size(); i++) {
+            if (results.get(i).id == id) return i;
+        }
+        return -1;
+    }
+
+    /** Decimation for full-frame searches from the next one on; higher is faster but shorter-sighted. */
+    void setFullFrameDecimation(float decimation) {
+        fullFrameDecimation = decimation;
+    }
+
+    /** Detections discarded for a low decision margin. */
+    long getRejectedCount() {
+        return rejected;
+    }
+
+    long getRoiSearchCount() {
+        return roiTracker.getRoiSearchCount();
+    }
+
+    long getFullSearchCount() {
+        return roiTracker.getFullSearchCount();
+    }
+
+    /**
+     * Measures full-frame detection on blurred noise at each of the given image sizes, best of
+     * {@code runs} after a warm-up, and returns the cost in milliseconds per megapixel. Noise
+     * gives the detector more edges than a real scene, so the estimate errs on the slow side.
+     */
+    static float measureCostPerMegapixel(int[] widths, int[] heights, int runs) {
+        long detector = AprilTagDetectorJNI.createApriltagDetector(
+                AprilTagDetectorJNI.TagFamily.TAG_36h11.string, FULL_FRAME_DECIMATION, 1);
+        double totalMs = 0, totalMegapixels = 0;
+        try {
+            for (int i = 0; i < widths.length; i++) {
+                Mat image = new Mat(heights[i], widths[i], CvType.CV_8UC1);
+                Core.randu(image, 0, 255);
+                Imgproc.GaussianBlur(image, image, new Size(5, 5), 0);
+                long best = Long.MAX_VALUE;
+                for (int run = 0; run <= runs; run++) {
+                    long start = System.nanoTime();
+                    AprilTagDetectorJNI.runAprilTagDetectorSimple(detector, image, 0.032,
+                            widths[i], widths[i], widths[i] / 2.0, heights[i] / 2.0);
+                    if (run > 0) best = Math.min(best, System.nanoTime() - start);
+                }
+                image.release();
+                totalMs += best / 1e6;
+                totalMegapixels += widths[i] * (double) heights[i] / 1e6;
+            }
+        } finally {
+            AprilTagDetectorJNI.releaseApriltagDetector(detector);
+        }
+        return (float) (totalMs / totalMegapixels);
+    }
+
+    /** Frees the native detectors; no detection may be running. */
+    void release() {
+        if (tileWorkers != null) tileWorkers.shutdownNow();
+        for (int i = 0; i < detectors.length; i++) {
+            if (detectors[i] != 0) {
+                AprilTagDetectorJNI.releaseApriltagDetector(detectors[i]);
+                detectors[i] = 0;
+            }
+            if (tileMats[i] != null) {
+                tileMats[i].release();
+                tileMats[i] = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,1000 @@
+package com.example.alex.arcore_rosbridge;
+
+import android.Manifest;
+import android.app.Notification;
+import android.app.NotificationChannel;
+import android.app.NotificationManager;
+import android.app.PendingIntent;
+import android.app.Service;
+import android.content.Context;
+import android.content.Intent;
+import android.content.SharedPreferences;
+import android.content.pm.PackageManager;
+import android.content.pm.ServiceInfo;
+import android.hardware.SensorManager;
+import android.media.Image;
+import android.opengl.EGL14;
+import android.opengl.EGLConfig;
+import android.opengl.EGLContext;
+import android.opengl.EGLDisplay;
+import android.opengl.EGLSurface;
+import android.opengl.GLES11Ext;
+import android.opengl.GLES20;
+import android.os.BatteryManager;
+import android.os.Binder;
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.IBinder;
+import android.os.PowerManager;
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+import android.util.Size;
+import android.view.Gravity;
+import android.view.WindowManager;
+import android.widget.Toast;
+
+import androidx.core.app.NotificationCompat;
+import androidx.core.content.ContextCompat;
+
+import com.google.ar.core.CameraConfig;
+import com.google.ar.core.CameraConfigFilter;
+import com.google.ar.core.CameraIntrinsics;
+import com.google.ar.core.Config;
+import com.google.ar.core.Frame;
+import com.google.ar.core.Pose;
+import com.google.ar.core.Session;
+import com.google.ar.core.TrackingState;
+import com.google.ar.core.exceptions.NotYetAvailableException;
+
+import org.firstinspires.ftc.robotcore.external.matrices.MatrixF;
+import org.opencv.android.OpenCVLoader;
+import org.openftc.apriltag.AprilTagDetection;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.UUID;
+
+/**
+ * Foreground service that owns the ARCore session, the AprilTag detector and the transport to the
+ * Portal, so tracking and streaming carry on through overlays, the notification shade, a dimmed
+ * display or the activity going to the background.
+ *
+ * <p>Startup runs three ways at once: the transport starts scanning or connecting on the main
+ * thread, the ARCore session is set up on the session thread, and the OpenCV native libraries
+ * load on the detector thread, which creates the AprilTag detector with the first frame it gets.
+ * Phase timings up to the first pose handed to the link go to the log, the telemetry and
+ * {@link LocalBinder#getStartupTimeline()}.
+ *
+ * <p>The session is updated on its own thread against an offscreen GL context, paced by
+ * {@code pose_hz} instead of the display's vsync. Start it with the launch extras (see
+ * {@link MainActivity}); they are read once, when the service is created. Bind to it for
+ * {@link LocalBinder} to show poses and send buttons; it keeps running until stopped.
+ */
+public class TrackingService extends Service {
+    private static final String TAG = TrackingService.class.getSimpleName();
+
+    // Right hand adjustments for Oculus Touch controller pose, when holding phone sideways
+    private static final float ADJUST_X_DEG = 180f;
+    private static final float ADJUST_Z_DEG = -90f;
+
+    // Applied per frame as a quaternion product; Pose.compose would allocate a Pose every frame
+    private static final float[] ADJUST_QUAT = PoseMath.adjustQuaternion(ADJUST_X_DEG, ADJUST_Z_DEG);
+
+    private static final String NOTIFICATION_CHANNEL = "tracking";
+    private static final int NOTIFICATION_ID = 1;
+
+    /** Receives throttled pose and detection updates for display; called on worker threads. */
+    public interface Listener {
+        /** At most ten times a second, less when throttled; the arrays are only valid during the call. */
+        void onPose(float[] pos, float[] quat);
+
+        /** An AprilTag was detected at {@code millis} (since the epoch). */
+        void onAprilTag(long millis);
+    }
+
+    /** Binder API for the activity. */
+    public class LocalBinder extends Binder {
+        public void setListener(Listener listener) {
+            TrackingService.this.listener = listener;
+        }
+
+        public void sendCalibrationTrigger() {
+            PoseTransport client = transport;
+            if (client != null) client.sendCalibrationTrigger();
+        }
+
+        public void sendButtonEvent(byte button, boolean pressed) {
+            PoseTransport client = transport;
+            if (client != null) client.sendButtonEvent(button, pressed);
+        }
+
+        /** Startup phase timings, measured from process start. */
+        public StartupTimeline getStartupTimeline() {
+            return startup;
+        }
+
+        /** The transport streaming to the Portal, or null until one has started. */
+        public PoseTransport getTransport() {
+            return transport;
+        }
+    }
+
+    private final LocalBinder binder = new LocalBinder();
+    private volatile Listener listener;
+    private volatile long uiRefreshMs = PerformanceGovernor.Tier.FULL.uiRefreshMs;
+    private long lastUiUpdate = 0;
+
+    private Session arSession;
+    private PowerManager.WakeLock wakeLock;
+    private final Handler mainHandler = new Handler(android.os.Looper.getMainLooper());
+    private StartupTimeline startup;
+    private boolean startupComplete = false;   // session thread
+    private CameraConfig cameraConfig;
+
+    // The upper tiers use the selector's pick for the target frame rate, cached per device model
+    // once the detector has been benchmarked on it; the lower tiers the smallest image. The
+    // benchmark stalls detection for a few seconds, so it only runs when asked for
+    private static final String CAMERA_PREFS = "camera_config";
+    private static final String PREF_CHOICE = "choice_";
+    private static final String PREF_DETECTOR_COST = "detector_ms_per_mp_";
+    // Launch with `--ez camera_reselect true` to benchmark the detector and choose again
+    static final String EXTRA_CAMERA_RESELECT = "camera_reselect";
+    private static final int DEFAULT_TARGET_FPS = 60;
+    private static final float DETECTION_BUDGET_MS = 50f;
+    private static final int BENCHMARK_RUNS = 3;
+    private int targetFps = DEFAULT_TARGET_FPS;
+    private boolean reselectCamera = false;
+    private List<CameraConfig> cameraConfigs;   // session thread
+    private CameraConfig selectedCameraConfig;
+    // Handed to the detector thread on a reselect, when there is no measured cost for this model
+    private volatile List<CameraConfigSelector.Candidate> pendingBenchmark;
+    private boolean configured = false;
+
+    // Launch with `--ei pose_hz N` to cap AR updates at N Hz; otherwise they run at DEFAULT_UPDATE_HZ
+    static final String EXTRA_POSE_HZ = "pose_hz";
+    // Launch with `--ez arcore_blocking true` to have update() wait for each camera frame
+    static final String EXTRA_ARCORE_BLOCKING = "arcore_blocking";
+    // The display refresh rate the GLSurfaceView render loop used to poll at
+    private static final int DEFAULT_UPDATE_HZ = 60;
+    private boolean blockingUpdates = false;
+    private long updateIntervalNs = 1_000_000_000L / DEFAULT_UPDATE_HZ;
+
+    // Session thread state
+    private final HandlerThread sessionThread = new HandlerThread("ar-session");
+    private Handler sessionHandler;
+    private final Runnable updateSession = this::updateSession;
+    private boolean sessionResumed = false;
+    private long nextUpdateNs = 0;
+    private long lastFrameTimestamp = 0;
+    private EGLDisplay eglDisplay = EGL14.EGL_NO_DISPLAY;
+    private EGLContext eglContext = EGL14.EGL_NO_CONTEXT;
+    private EGLSurface eglSurface = EGL14.EGL_NO_SURFACE;
+    private final float[] cam_pos = new float[3];
+    private final float[] cam_quat = new float[4];
+    private final float[] raw_quat = new float[4];
+
+    // Launch with `--ei predict_hz N` to stream IMU-predicted poses at up to N Hz instead of
+    // camera poses, `--ei predict_horizon_ms M` to aim them M ms ahead (default 20), and
+    // `--ez record_pose_log true` to log poses and IMU samples for PoseReplay
+    static final String EXTRA_PREDICT_HZ = "predict_hz";
+    static final String EXTRA_PREDICT_HORIZON_MS = "predict_horizon_ms";
+    static final String EXTRA_RECORD_POSE_LOG = "record_pose_log";
+    private static final int DEFAULT_PREDICT_HORIZON_MS = 20;
+    private PosePredictionLoop predictionLoop;
+    private PoseReplay.Recorder poseRecorder;
+    private final float[] pred_quat = new float[4];   // IMU thread
+
+    // Launch with `--ei pose_heartbeat_ms N` to send a pose only every N ms while the controller
+    // lies still; `--ef pose_deadband_mps` and `--ef pose_deadband_dps` set what counts as still
+    static final String EXTRA_POSE_HEARTBEAT_MS = "pose_heartbeat_ms";
+    static final String EXTRA_POSE_DEADBAND_MPS = "pose_deadband_mps";
+    static final String EXTRA_POSE_DEADBAND_DPS = "pose_deadband_dps";
+    private static final long POSE_RATE_LOG_MS = 10_000;
+    // Used on the thread that publishes poses: the session thread, or the IMU thread when predicting
+    private PoseRateController poseRate;
+    private long lastPoseRateLog = 0;
+
+    // Launch with `--ez record_telemetry true` to log frames, detections and BLE writes for
+    // TelemetryReader
+    static final String EXTRA_RECORD_TELEMETRY = "record_telemetry";
+    private static final int TELEMETRY_RING_RECORDS = 8192;
+    private volatile TelemetryRecorder telemetry;
+
+    // BLE integration
+    private static final UUID PORTAL_SERVICE_UUID =
+            UUID.fromString("f8b69c7b-3a91-4f2d-8e7a-9c4d35d5f49a");
+    // Launch with `--es pose_format compact` to stream quantised poses, or `timed` to stamp each
+    // pose with its capture time on the Portal's clock
+    static final String EXTRA_POSE_FORMAT = "pose_format";
+    // Launch with `--es udp host[:port]` to stream over UDP (Wi-Fi, USB tethering) instead of BLE
+    static final String EXTRA_UDP_TARGET = "udp";
+    // Launch with `--ei portal_links N` to feed up to N Portals over BLE at once
+    static final String EXTRA_PORTAL_LINKS = "portal_links";
+    private volatile PoseTransport transport;
+    private String poseFormat;
+    private String udpTarget;
+    private int portalLinks = 1;
+
+    // Detection paced to a share of a core set by the governor's tier, more for two seconds
+    // after a tag was seen
+    private static final long DETECTOR_STATS_LOG_MS = 5000;
+    private final DetectionScheduler<FramePool.PooledFrame> detectionScheduler = new DetectionScheduler<>(
+            PerformanceGovernor.Tier.FULL.detectionBudget, PerformanceGovernor.Tier.FULL.boostedBudget,
+            33, 500, 2000);
+    private final Thread detectorThread = new Thread(this::detectorLoop, "apriltag-detector");
+    private long lastDetectorStatsLog = 0;
+    // One frame being filled, one queued, one in detection
+    private final FramePool framePool = new FramePool(3);
+    private final float[] focalLength = new float[2];
+    private final float[] principalPoint = new float[2];
+    private static final double TAG_SIZE_METERS = 0.032;
+
+    // Detections below this margin are usually false positives or badly blurred tags
+    private static final float MIN_DECISION_MARGIN = 20f;
+    // Split full-frame searches across cores on phones that have plenty of them
+    private static final int TILED_DETECTION_MIN_CORES = 6;
+    private static final int DETECTION_TILES = 2;
+    private volatile TagDetector tagDetector;
+    // Set by the detector thread once OpenCV is loaded; frames are only captured after that
+    private volatile boolean nativeReady = false;
+
+    // Detector-thread scratch arrays, reused for every detection sent over BLE
+    private final float[] det_pos = new float[3];
+    private final float[] det_rot = new float[9];
+
+    // Launch with `--ez tag_filter true` to register tags in world space on the phone and send
+    // settled estimates instead of every detection; set before the detector thread starts
+    static final String EXTRA_TAG_FILTER = "tag_filter";
+    private TagRegistrationFilter tagFilter;
+
+    // Steps detection, camera resolution and UI refresh down as the phone heats up; session thread
+    private static final long GOVERNOR_INTERVAL_MS = 1000;
+    private final PerformanceGovernor governor = new PerformanceGovernor();
+    // Which clock ARCore frame timestamps count on; they are mapped onto the IMU's for prediction
+    // and onto System.nanoTime() for capture times
+    private final FrameClock frameClock = new FrameClock();
+    private final Runnable governPerformance = this::governPerformance;
+    private volatile PerformanceGovernor.Tier appliedTier = PerformanceGovernor.Tier.FULL;
+
+    /** Starts (or re-applies permissions to) the service with the given launch extras. */
+    public static void start(Context context, Intent extras) {
+        Intent intent = new Intent(context, TrackingService.class);
+        if (extras != null) intent.putExtras(extras);
+        ContextCompat.startForegroundService(context, intent);
+    }
+
+    static boolean hasBlePermissions(Context context) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.S) {
+            // For Android 12/13, also require fine location if targetSdk < 31
+            return ContextCompat.checkSelfPermission(context, Manifest.permission.BLUETOOTH_SCAN)
+                == PackageManager.PERMISSION_GRANTED
+                && ContextCompat.checkSelfPermission(context, Manifest.permission.BLUETOOTH_CONNECT)
+                == PackageManager.PERMISSION_GRANTED
+                && ContextCompat.checkSelfPermission(context, Manifest.permission.ACCESS_FINE_LOCATION)
+                == PackageManager.PERMISSION_GRANTED;
+        } else {
+            // For Android 6-11
+            return ContextCompat.checkSelfPermission(context, Manifest.permission.ACCESS_FINE_LOCATION)
+                == PackageManager.PERMISSION_GRANTED;
+        }
+    }
+
+    /* ───────── Lifecycle ───────── */
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        long sinceProcessStartMs = SystemClock.uptimeMillis() - Process.getStartUptimeMillis();
+        startup = new StartupTimeline(System.nanoTime() - sinceProcessStartMs * 1_000_000L);
+        startForeground();
+        PowerManager pm = (PowerManager) getSystemService(Context.POWER_SERVICE);
+        wakeLock = pm.newWakeLock(PowerManager.PARTIAL_WAKE_LOCK, "portal:tracking");
+        wakeLock.acquire();
+        sessionThread.start();
+        sessionHandler = new Handler(sessionThread.getLooper());
+    }
+
+    @Override
+    public int onStartCommand(Intent intent, int flags, int startId) {
+        if (!configured && intent != null) {
+            configured = true;
+            configure(intent);
+        }
+        // Called again once the activity has been granted BLE permissions
+        if (transport == null) {
+            if (udpTarget != null) {
+                startTransport(UdpTransport.forTarget(udpTarget));
+                Log.i(TAG, "Streaming over UDP to " + udpTarget);
+            } else if (hasBlePermissions(this)) {
+                startTransport(portalLinks > 1 ? new BleLinkManager(this, PORTAL_SERVICE_UUID, portalLinks)
+                        : new BleClient(this, PORTAL_SERVICE_UUID));
+            }
+        }
+        // Tracking needs the camera, which only a service started from the foreground may open
+        return START_NOT_STICKY;
+    }
+
+    @Override
+    public IBinder onBind(Intent intent) {
+        return binder;
+    }
+
+    @Override
+    public boolean onUnbind(Intent intent) {
+        listener = null;
+        return false;
+    }
+
+    private void startForeground() {
+        NotificationManager nm = (NotificationManager) getSystemService(Context.NOTIFICATION_SERVICE);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            nm.createNotificationChannel(new NotificationChannel(
+                    NOTIFICATION_CHANNEL, "Tracking", NotificationManager.IMPORTANCE_LOW));
+        }
+        PendingIntent open = PendingIntent.getActivity(this, 0,
+                new Intent(this, MainActivity.class), PendingIntent.FLAG_IMMUTABLE);
+        Notification notification = new NotificationCompat.Builder(this, NOTIFICATION_CHANNEL)
+                .setContentTitle(getString(R.string.app_name))
+                .setContentText("Streaming pose to the Portal")
+                .setSmallIcon(R.mipmap.ic_launcher)
+                .setOngoing(true)
+                .setContentIntent(open)
+                .setPriority(NotificationCompat.PRIORITY_LOW)
+                .build();
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.R) {
+            startForeground(NOTIFICATION_ID, notification, ServiceInfo.FOREGROUND_SERVICE_TYPE_CAMERA
+                    | ServiceInfo.FOREGROUND_SERVICE_TYPE_CONNECTED_DEVICE);
+        } else {
+            startForeground(NOTIFICATION_ID, notification);
+        }
+    }
+
+    private void configure(Intent intent) {
+        int poseHz = intent.getIntExtra(EXTRA_POSE_HZ, 0);
+        updateIntervalNs = 1_000_000_000L / (poseHz > 0 ? poseHz : DEFAULT_UPDATE_HZ);
+        targetFps = poseHz > 0 ? poseHz : DEFAULT_TARGET_FPS;
+        reselectCamera = intent.getBooleanExtra(EXTRA_CAMERA_RESELECT, false);
+        blockingUpdates = intent.getBooleanExtra(EXTRA_ARCORE_BLOCKING, false);
+        poseFormat = intent.getStringExtra(EXTRA_POSE_FORMAT);
+        udpTarget = intent.getStringExtra(EXTRA_UDP_TARGET);
+        portalLinks = intent.getIntExtra(EXTRA_PORTAL_LINKS, 1);
+        if (intent.getBooleanExtra(EXTRA_TAG_FILTER, false)) tagFilter = new TagRegistrationFilter();
+        int heartbeatMs = intent.getIntExtra(EXTRA_POSE_HEARTBEAT_MS, 0);
+        if (heartbeatMs > 0) {
+            poseRate = new PoseRateController(
+                    intent.getFloatExtra(EXTRA_POSE_DEADBAND_MPS, PoseRateController.DEFAULT_LINEAR_DEADBAND_MPS),
+                    intent.getFloatExtra(EXTRA_POSE_DEADBAND_DPS, PoseRateController.DEFAULT_ANGULAR_DEADBAND_DPS),
+                    heartbeatMs);
+        }
+        setUpPosePrediction(intent);
+        if (intent.getBooleanExtra(EXTRA_RECORD_TELEMETRY, false)) {
+            File file = new File(getExternalFilesDir(null), "telemetry_" + System.currentTimeMillis() + ".bin");
+            try {
+                telemetry = new TelemetryRecorder(file, TELEMETRY_RING_RECORDS);
+                Log.i(TAG, "Recording telemetry to " + file);
+            } catch (IOException e) {
+                Log.e(TAG, "Cannot record telemetry", e);
+            }
+        }
+        governor.setTelemetry(telemetry);
+        startup.setTelemetry(telemetry);
+
+        // The transport starts from onStartCommand once this returns
+        sessionHandler.post(this::setUpSession);
+        detectorThread.start();
+        if (predictionLoop != null) {
+            WindowManager wm = (WindowManager) getSystemService(Context.WINDOW_SERVICE);
+            predictionLoop.setDisplayRotation(wm.getDefaultDisplay().getRotation());
+            predictionLoop.start();
+        }
+    }
+
+    private void setUpPosePrediction(Intent intent) {
+        int predictHz = intent.getIntExtra(EXTRA_PREDICT_HZ, 0);
+        if (predictHz <= 0) return;
+        int horizonMs = intent.getIntExtra(EXTRA_PREDICT_HORIZON_MS, DEFAULT_PREDICT_HORIZON_MS);
+        PosePredictionLoop loop = new PosePredictionLoop(
+                (SensorManager) getSystemService(Context.SENSOR_SERVICE), predictHz, horizonMs,
+                this::onPredictedPose);
+        if (intent.getBooleanExtra(EXTRA_RECORD_POSE_LOG, false)) {
+            File log = new File(getExternalFilesDir(null), "pose_log_" + System.currentTimeMillis() + ".csv");
+            try {
+                poseRecorder = new PoseReplay.Recorder(new BufferedWriter(new FileWriter(log), 1 << 16));
+                loop.setRecorder(poseRecorder);
+                Log.i(TAG, "Recording poses and IMU samples to " + log);
+            } catch (IOException e) {
+                Log.e(TAG, "Cannot record pose log", e);
+            }
+        }
+        predictionLoop = loop;
+        Log.i(TAG, "Predicting poses at up to " + predictHz + " Hz, " + horizonMs + " ms ahead");
+    }
+
+    private void startTransport(PoseTransport client) {
+        long start = System.nanoTime();
+        if ("compact".equals(poseFormat)) {
+            client.setPoseFormat(PoseTransport.POSE_FORMAT_COMPACT);
+        } else if ("timed".equals(poseFormat)) {
+            client.setPoseFormat(PoseTransport.POSE_FORMAT_TIMED);
+        }
+        client.setTelemetry(telemetry);
+        client.start();
+        transport = client;
+        startup.phase(StartupTimeline.Phase.TRANSPORT_START, start, System.nanoTime());
+    }
+
+    @Override
+    public void onDestroy() {
+        listener = null;
+        if (predictionLoop != null) predictionLoop.stop();
+        // Pause and free the session on its own thread, after any update in progress
+        sessionHandler.post(this::releaseSession);
+        sessionThread.quitSafely();
+        try {
+            sessionThread.join(500);
+        } catch (InterruptedException ignored) {}
+        if (transport != null) transport.close();
+        if (poseRecorder != null) {
+            try { poseRecorder.close(); } catch (IOException ignored) {}
+        }
+        if (telemetry != null) {
+            try { telemetry.close(); } catch (IOException e) { Log.w(TAG, "Telemetry not saved", e); }
+        }
+        detectorThread.interrupt();
+        try {
+            detectorThread.join(500);   // let a running detection finish before freeing the detector
+        } catch (InterruptedException ignored) {}
+        FramePool.PooledFrame queued = detectionScheduler.drain();
+        if (queued != null) framePool.release(queued);
+        framePool.close();
+        if (tagDetector != null) {
+            tagDetector.release();
+            tagDetector = null;
+        }
+        if (wakeLock.isHeld()) wakeLock.release();
+        super.onDestroy();
+    }
+
+    /* ───────── Session thread ───────── */
+
+    /** Creates, configures and resumes the session, then starts updating it. */
+    private void setUpSession() {
+        long start = System.nanoTime();
+        try {
+            arSession = new Session(this);
+            long created = System.nanoTime();
+            startup.phase(StartupTimeline.Phase.SESSION_CREATE, start, created);
+            selectedCameraConfig = selectCameraConfig();
+            setCameraConfig(chooseCameraConfig(PerformanceGovernor.Tier.FULL));
+            long chosen = System.nanoTime();
+            startup.phase(StartupTimeline.Phase.CAMERA_CONFIG, created, chosen);
+            Config config = new Config(arSession);
+            config.setPlaneFindingMode(Config.PlaneFindingMode.DISABLED);
+            config.setCloudAnchorMode(Config.CloudAnchorMode.DISABLED);
+            config.setLightEstimationMode(Config.LightEstimationMode.DISABLED);
+            config.setUpdateMode(blockingUpdates
+                    ? Config.UpdateMode.BLOCKING : Config.UpdateMode.LATEST_CAMERA_IMAGE);
+            arSession.configure(config);
+            startup.phase(StartupTimeline.Phase.SESSION_CONFIGURE, chosen, System.nanoTime());
+        } catch (Exception ex) {
+            Log.e(TAG, "ARCore unavailable", ex);
+            arSession = null;
+            mainHandler.post(() -> {
+                Toast toast = Toast.makeText(this, "ARCore unavailable: " + ex.getMessage(), Toast.LENGTH_LONG);
+                toast.setGravity(Gravity.CENTER, 0, 0);
+                toast.show();
+            });
+            return;
+        }
+
+        long glStart = System.nanoTime();
+        if (!createGlContext()) return;
+        arSession.setCameraTextureName(createCameraTexture());
+        long glReady = System.nanoTime();
+        startup.phase(StartupTimeline.Phase.GL_CONTEXT, glStart, glReady);
+        try {
+            arSession.resume();
+            sessionResumed = true;
+        } catch (Exception ex) {
+            Log.e(TAG, "Cannot resume AR session", ex);
+            return;
+        }
+        startup.phase(StartupTimeline.Phase.SESSION_RESUME, glReady, System.nanoTime());
+        nextUpdateNs = System.nanoTime();
+        sessionHandler.post(updateSession);
+        sessionHandler.postDelayed(governPerformance, GOVERNOR_INTERVAL_MS);
+    }
+
+    private void releaseSession() {
+        sessionHandler.removeCallbacks(updateSession);
+        sessionHandler.removeCallbacks(governPerformance);
+        if (arSession != null) {
+            if (sessionResumed) arSession.pause();
+            sessionResumed = false;
+            arSession.close();
+            arSession = null;
+        }
+        releaseGlContext();
+    }
+
+    /**
+     * Updates the session and reschedules itself: straight away when blocking, since update()
+     * then waits for the camera, otherwise at the next tick of the update interval.
+     */
+    private void updateSession() {
+        if (!sessionResumed) return;
+        long now = System.nanoTime();
+        try {
+            onArFrame(arSession.update(), now);
+        } catch (Exception ex) {
+            Log.e(TAG, "Error updating AR session", ex);
+        }
+        if (blockingUpdates) {
+            sessionHandler.post(updateSession);
+            return;
+        }
+        nextUpdateNs += updateIntervalNs;
+        long delayNs = nextUpdateNs - System.nanoTime();
+        if (delayNs < 0) {
+            nextUpdateNs = System.nanoTime();   // overran; don't try to catch up
+            delayNs = 0;
+        }
+        sessionHandler.postAtTime(updateSession, SystemClock.uptimeMillis() + delayNs / 1_000_000L);
+    }
+
+    /**
+     * Called on the session thread with each frame returned by {@code arSession.update()}, which
+     * was called at {@code updateStartNs}.
+     */
+    private void onArFrame(Frame frame, long updateStartNs) {
+        long timestamp = frame.getTimestamp();
+        if (timestamp == lastFrameTimestamp) return;   // no new camera image since the last update
+        lastFrameTimestamp = timestamp;
+        if (frameClock.update(timestamp, SystemClock.elapsedRealtimeNanos(), System.nanoTime())) {
+            Log.i(TAG, "ARCore frame timestamps follow " + frameClock.getTimebase());
+        }
+        governor.onFrame(timestamp);
+        boolean tracking = frame.getCamera().getTrackingState() == TrackingState.TRACKING;
+        if (!startupComplete) recordStartup(tracking);
+
+        PosePredictionLoop prediction = predictionLoop;
+        if (tracking) {
+            Pose pose = frame.getCamera().getDisplayOrientedPose();
+            pose.getTranslation(cam_pos, 0);
+            pose.getRotationQuaternion(raw_quat, 0);
+            PoseMath.multiply(raw_quat, ADJUST_QUAT, cam_quat);
+
+            if (prediction != null) {
+                // The IMU thread publishes predicted poses; ADJUST is applied after prediction
+                prediction.onPose(frameClock.frameToBoottime(timestamp), cam_pos, raw_quat);
+            } else {
+                sendPose(cam_pos, cam_quat, updateStartNs, frameClock.frameToMonotonic(timestamp));
+            }
+            notifyPose();
+        } else if (prediction != null) {
+            prediction.onTrackingLost();
+        }
+        TelemetryRecorder t = telemetry;
+        if (t != null) t.frame(updateStartNs, System.nanoTime(), timestamp, tracking, cam_pos, cam_quat);
+        captureImageForDetector(frame);
+    }
+
+    /** Records the first frame, tracking frame and pose sent, and logs the timeline after that. */
+    private void recordStartup(boolean tracking) {
+        long now = System.nanoTime();
+        startup.milestone(StartupTimeline.Phase.FIRST_FRAME, now);
+        if (tracking) startup.milestone(StartupTimeline.Phase.FIRST_TRACKING, now);
+        PoseTransport client = transport;
+        long firstPoseNs = client != null ? client.getFirstPoseSentNs() : 0L;
+        if (firstPoseNs == 0) return;
+        startup.milestone(StartupTimeline.Phase.FIRST_POSE, firstPoseNs);
+        startupComplete = true;
+        Log.i(TAG, String.format(Locale.US, "Time to first pose %.0f ms, %s",
+                startup.getTimeToFirstPoseMs(), startup));
+    }
+
+    /** Passes the pose to a bound listener at most once per uiRefreshMs. */
+    private void notifyPose() {
+        Listener l = listener;
+        if (l == null) return;
+        long now = SystemClock.uptimeMillis();
+        if (now - lastUiUpdate < uiRefreshMs) return;
+        lastUiUpdate = now;
+        l.onPose(cam_pos, cam_quat);
+    }
+
+    /** Called on the IMU thread with each pose {@link PosePredictionLoop} emits. */
+    private void onPredictedPose(long targetNs, float[] pos, float[] quat) {
+        PoseMath.multiply(quat, ADJUST_QUAT, pred_quat);
+        sendPose(pos, pred_quat, System.nanoTime(), frameClock.boottimeToMonotonic(targetNs));
+    }
+
+    /** Hands a pose to the link unless the rate controller holds it back while still. */
+    private void sendPose(float[] pos, float[] quat, long sampledAtNs, long capturedAtNs) {
+        PoseRateController rate = poseRate;
+        if (rate != null) {
+            boolean send = rate.shouldSend(pos, quat, capturedAtNs);
+            long now = SystemClock.uptimeMillis();
+            if (now - lastPoseRateLog >= POSE_RATE_LOG_MS) {
+                lastPoseRateLog = now;
+                Log.i(TAG, String.format(Locale.US,
+                        "Pose rate: sent %d (%d heartbeats), saved %d (%.0f%%), motion onsets %d%s",
+                        rate.getSentCount(), rate.getHeartbeatCount(), rate.getSavedCount(),
+                        100 * rate.getSavedFraction(), rate.getMotionOnsetCount(),
+                        rate.isStill() ? ", still" : ""));
+            }
+            if (!send) return;
+        }
+        PoseTransport client = transport;
+        if (client != null) client.publishPose(pos, quat, sampledAtNs, capturedAtNs);
+    }
+
+    /* ───────── Performance governor ───────── */
+
+    /** Feeds the governor the thermal status, battery and detector latency, and applies its tier. */
+    private void governPerformance() {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+            governor.setThermalStatus(((PowerManager) getSystemService(Context.POWER_SERVICE))
+                    .getCurrentThermalStatus());
+        }
+        BatteryManager battery = (BatteryManager) getSystemService(Context.BATTERY_SERVICE);
+        governor.setBattery(battery.getIntProperty(BatteryManager.BATTERY_PROPERTY_CAPACITY),
+                battery.isCharging());
+        PerformanceGovernor.Tier tier = governor.update(SystemClock.uptimeMillis(),
+                detectionScheduler.getLatencyMs());
+        if (tier != appliedTier) applyTier(tier);
+        sessionHandler.postDelayed(governPerformance, GOVERNOR_INTERVAL_MS);
+    }
+
+    private void applyTier(PerformanceGovernor.Tier tier) {
+        Log.i(TAG, "Performance tier " + appliedTier + " -> " + tier + ", frame period "
+                + String.format(Locale.US, "%.1f", governor.getFramePeriodMs()) + " ms");
+        appliedTier = tier;
+        detectionScheduler.setCpuBudget(tier.detectionBudget, tier.boostedBudget);
+        TagDetector detector = tagDetector;
+        if (detector != null) detector.setFullFrameDecimation(tier.decimation);
+        uiRefreshMs = tier.uiRefreshMs;
+
+        // A new camera config needs the session paused; tracking resumes where it was
+        CameraConfig config = chooseCameraConfig(tier);
+        if (config == null || !sessionResumed
+                || cameraConfig != null && candidate(config).key().equals(candidate(cameraConfig).key())) {
+            return;
+        }
+        arSession.pause();
+        setCameraConfig(config);
+        try {
+            arSession.resume();
+        } catch (Exception ex) {
+            Log.e(TAG, "Cannot resume AR session", ex);
+            sessionResumed = false;
+        }
+    }
+
+    /** The selected config for tiers with a minimum image size, else the smallest image. */
+    private CameraConfig chooseCameraConfig(PerformanceGovernor.Tier tier) {
+        if (tier.minImageWidth > 0 && selectedCameraConfig != null) return selectedCameraConfig;
+        CameraConfig chosen = null;
+        long chosenPixels = Long.MAX_VALUE;
+        for (CameraConfig cc : cameraConfigs) {
+            Size sz = cc.getImageSize();
+            long pixels = (long) sz.getWidth() * sz.getHeight();
+            if (pixels < chosenPixels) {
+                chosen = cc;
+                chosenPixels = pixels;
+            }
+        }
+        return chosen;
+    }
+
+    private void setCameraConfig(CameraConfig config) {
+        if (config == null) return;
+        arSession.setCameraConfig(config);
+        cameraConfig = config;
+        Log.i(TAG, "Camera config set to " + candidate(config));
+    }
+
+    /* ───────── Camera config selection ───────── */
+
+    /**
+     * Lists the configs that can reach the target frame rate without a depth sensor (all of them
+     * if none can), and picks one: the cached choice for this model, else the selector's best.
+     */
+    private CameraConfig selectCameraConfig() {
+        CameraConfigFilter filter = new CameraConfigFilter(arSession)
+                .setTargetFps(targetFps > 30
+                        ? EnumSet.of(CameraConfig.TargetFps.TARGET_FPS_30, CameraConfig.TargetFps.TARGET_FPS_60)
+                        : EnumSet.of(CameraConfig.TargetFps.TARGET_FPS_30))
+                .setDepthSensorUsage(EnumSet.of(CameraConfig.DepthSensorUsage.DO_NOT_USE));
+        cameraConfigs = arSession.getSupportedCameraConfigs(filter);
+        if (cameraConfigs.isEmpty()) {
+            cameraConfigs = arSession.getSupportedCameraConfigs(new CameraConfigFilter(arSession));
+        }
+        List<CameraConfigSelector.Candidate> candidates = new ArrayList<>();
+        for (CameraConfig cc : cameraConfigs) candidates.add(candidate(cc));
+
+        SharedPreferences prefs = getSharedPreferences(CAMERA_PREFS, Context.MODE_PRIVATE);
+        if (reselectCamera) {
+            prefs.edit().remove(PREF_CHOICE + Build.MODEL).remove(PREF_DETECTOR_COST + Build.MODEL).apply();
+        }
+        String cached = prefs.getString(PREF_CHOICE + Build.MODEL, null);
+        for (int i = 0; i < candidates.size(); i++) {
+            if (candidates.get(i).key().equals(cached)) {
+                Log.i(TAG, "Using the camera config chosen earlier on this " + Build.MODEL);
+                return cameraConfigs.get(i);
+            }
+        }
+
+        CameraConfigSelector selector = newCameraSelector();
+        float cost = prefs.getFloat(PREF_DETECTOR_COST + Build.MODEL, 0f);
+        if (cost > 0) {
+            selector.setDetectorCost(cost);
+        } else if (reselectCamera) {
+            pendingBenchmark = candidates;
+        }
+        int best = selector.select(candidates);
+        Log.i(TAG, "Camera configs for " + targetFps + " fps, detector ~"
+                + String.format(Locale.US, "%.0f", selector.getDetectorCost()) + " ms/MP:"
+                + selector.describe(candidates));
+        if (best < 0) return null;
+        if (cost > 0) prefs.edit().putString(PREF_CHOICE + Build.MODEL, candidates.get(best).key()).apply();
+        return cameraConfigs.get(best);
+    }
+
+    private CameraConfigSelector newCameraSelector() {
+        return new CameraConfigSelector(targetFps, DETECTION_BUDGET_MS,
+                PerformanceGovernor.Tier.FULL.minImageWidth, PerformanceGovernor.Tier.FULL.minImageHeight);
+    }
+
+    private static CameraConfigSelector.Candidate candidate(CameraConfig cc) {
+        Size sz = cc.getImageSize();
+        return new CameraConfigSelector.Candidate(sz.getWidth(), sz.getHeight(),
+                cc.getFpsRange().getLower(), cc.getFpsRange().getUpper(),
+                cc.getDepthSensorUsage() == CameraConfig.DepthSensorUsage.REQUIRE_AND_USE);
+    }
+
+    /**
+     * Detector thread, on a reselect: measures the detector on each candidate image size and
+     * caches the cost and the choice it leads to, which applies from the next start.
+     */
+    private void benchmarkDetector(List<CameraConfigSelector.Candidate> candidates) {
+        int[] widths = new int[candidates.size()];
+        int[] heights = new int[candidates.size()];
+        for (int i = 0; i < candidates.size(); i++) {
+            widths[i] = candidates.get(i).width;
+            heights[i] = candidates.get(i).height;
+        }
+        float cost = TagDetector.measureCostPerMegapixel(widths, heights, BENCHMARK_RUNS);
+        CameraConfigSelector selector = newCameraSelector();
+        selector.setDetectorCost(cost);
+        int best = selector.select(candidates);
+        SharedPreferences.Editor edit = getSharedPreferences(CAMERA_PREFS, Context.MODE_PRIVATE).edit()
+                .putFloat(PREF_DETECTOR_COST + Build.MODEL, cost);
+        if (best >= 0) edit.putString(PREF_CHOICE + Build.MODEL, candidates.get(best).key());
+        edit.apply();
+        Log.i(TAG, String.format(Locale.US, "Detector benchmark %.0f ms/MP, camera config %s from the next start",
+                cost, best >= 0 ? candidates.get(best) : "unchanged"));
+    }
+
+    /* ───────── Offscreen GL ───────── */
+
+    /** Makes a 1x1 pbuffer context current, which is all ARCore needs to fill the camera texture. */
+    private boolean createGlContext() {
+        eglDisplay = EGL14.eglGetDisplay(EGL14.EGL_DEFAULT_DISPLAY);
+        int[] version = new int[2];
+        if (!EGL14.eglInitialize(eglDisplay, version, 0, version, 1)) {
+            Log.e(TAG, "eglInitialize failed");
+            return false;
+        }
+        int[] attribs = {
+                EGL14.EGL_RENDERABLE_TYPE, EGL14.EGL_OPENGL_ES2_BIT,
+                EGL14.EGL_SURFACE_TYPE, EGL14.EGL_PBUFFER_BIT,
+                EGL14.EGL_NONE };
+        EGLConfig[] configs = new EGLConfig[1];
+        int[] numConfigs = new int[1];
+        if (!EGL14.eglChooseConfig(eglDisplay, attribs, 0, configs, 0, 1, numConfigs, 0)
+                || numConfigs[0] == 0) {
+            Log.e(TAG, "No pbuffer EGL config");
+            return false;
+        }
+        eglContext = EGL14.eglCreateContext(eglDisplay, configs[0], EGL14.EGL_NO_CONTEXT,
+                new int[] { EGL14.EGL_CONTEXT_CLIENT_VERSION, 2, EGL14.EGL_NONE }, 0);
+        eglSurface = EGL14.eglCreatePbufferSurface(eglDisplay, configs[0],
+                new int[] { EGL14.EGL_WIDTH, 1, EGL14.EGL_HEIGHT, 1, EGL14.EGL_NONE }, 0);
+        if (!EGL14.eglMakeCurrent(eglDisplay, eglSurface, eglSurface, eglContext)) {
+            Log.e(TAG, "eglMakeCurrent failed");
+            return false;
+        }
+        return true;
+    }
+
+    private void releaseGlContext() {
+        if (eglDisplay == EGL14.EGL_NO_DISPLAY) return;
+        EGL14.eglMakeCurrent(eglDisplay, EGL14.EGL_NO_SURFACE, EGL14.EGL_NO_SURFACE, EGL14.EGL_NO_CONTEXT);
+        if (eglSurface != EGL14.EGL_NO_SURFACE) EGL14.eglDestroySurface(eglDisplay, eglSurface);
+        if (eglContext != EGL14.EGL_NO_CONTEXT) EGL14.eglDestroyContext(eglDisplay, eglContext);
+        EGL14.eglTerminate(eglDisplay);
+        eglDisplay = EGL14.EGL_NO_DISPLAY;
+        eglContext = EGL14.EGL_NO_CONTEXT;
+        eglSurface = EGL14.EGL_NO_SURFACE;
+    }
+
+    private int createCameraTexture() {
+        int[] textures = new int[1];
+        GLES20.glGenTextures(1, textures, 0);
+        int texId = textures[0];
+        GLES20.glBindTexture(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, texId);
+        GLES20.glTexParameteri(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, GLES20.GL_TEXTURE_MIN_FILTER, GLES20.GL_LINEAR);
+        GLES20.glTexParameteri(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, GLES20.GL_TEXTURE_MAG_FILTER, GLES20.GL_LINEAR);
+        GLES20.glTexParameteri(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, GLES20.GL_TEXTURE_WRAP_S, GLES20.GL_CLAMP_TO_EDGE);
+        GLES20.glTexParameteri(GLES11Ext.GL_TEXTURE_EXTERNAL_OES, GLES20.GL_TEXTURE_WRAP_T, GLES20.GL_CLAMP_TO_EDGE);
+        return texId;
+    }
+
+    /* ───────── AprilTag detection ───────── */
+
+    private void captureImageForDetector(Frame frame) {
+        if (!nativeReady) return;   // pooled frames are OpenCV Mats
+        PoseTransport client = transport;
+        if (client != null && !client.isAprilTagReportingEnabled()) return;   // Portal asked for none
+        long now = SystemClock.uptimeMillis();
+        if (!detectionScheduler.shouldCapture(now)) return;
+        Image img;
+        try {
+            img = frame.acquireCameraImage();
+        } catch (NotYetAvailableException e) {
+            return;  // frame not ready; ignore
+        }
+        FramePool.PooledFrame pooled;
+        try {
+            pooled = framePool.acquire(img.getWidth(), img.getHeight());
+            if (pooled == null) return;   // every pooled frame is queued or being detected
+            pooled.copyLuma(img.getPlanes()[0]);
+        } finally {
+            img.close();
+        }
+        CameraIntrinsics intrinsics = frame.getCamera().getImageIntrinsics();
+        intrinsics.getFocalLength(focalLength, 0);
+        intrinsics.getPrincipalPoint(principalPoint, 0);
+        pooled.fx = focalLength[0];
+        pooled.fy = focalLength[1];
+        pooled.cx = principalPoint[0];
+        pooled.cy = principalPoint[1];
+        pooled.captureTimeMs = now;
+        pooled.frameTimestampNs = frame.getTimestamp();
+        // Poses of this very frame, so detections are not paired with a later camera pose
+        Pose sensorPose = frame.getCamera().getPose();
+        sensorPose.getTranslation(pooled.sensorPos, 0);
+        sensorPose.getRotationQuaternion(pooled.sensorQuat, 0);
+        Pose displayPose = frame.getCamera().getDisplayOrientedPose();
+        displayPose.getTranslation(pooled.displayPos, 0);
+        displayPose.getRotationQuaternion(pooled.displayQuat, 0);
+        FramePool.PooledFrame displaced = detectionScheduler.offer(pooled, now);
+        if (displaced != null) framePool.release(displaced);
+    }
+
+    /**
+     * Detector thread: loads OpenCV, then runs the newest captured frame, one at a time. The
+     * detector itself is created with the first frame.
+     */
+    private void detectorLoop() {
+        long loadStart = System.nanoTime();
+        if (!OpenCVLoader.initDebug()) {
+            Log.e(TAG, "❌ OpenCV native library failed to load");
+            return;
+        }
+        Log.i(TAG, "✅ OpenCV loaded");
+        startup.phase(StartupTimeline.Phase.NATIVE_LOAD, loadStart, System.nanoTime());
+        nativeReady = true;
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                FramePool.PooledFrame frame = detectionScheduler.take();
+                List<CameraConfigSelector.Candidate> benchmark = pendingBenchmark;
+                if (benchmark != null) {
+                    pendingBenchmark = null;
+                    benchmarkDetector(benchmark);
+                }
+                long start = SystemClock.uptimeMillis();
+                long startNs = System.nanoTime();
+                long frameTimestampNs = frame.frameTimestampNs;
+                detectionScheduler.onDetectionStarted(frame.captureTimeMs, start);
+                int tags;
+                try {
+                    tags = runAprilTagDetector(frame);
+                } finally {
+                    framePool.release(frame);
+                }
+                long end = SystemClock.uptimeMillis();
+                detectionScheduler.onDetectionFinished(start, end, tags > 0);
+                TelemetryRecorder t = telemetry;
+                if (t != null) t.detection(startNs, System.nanoTime(), frameTimestampNs, tags);
+                if (end - lastDetectorStatsLog >= DETECTOR_STATS_LOG_MS) {
+                    lastDetectorStatsLog = end;
+                    Log.i(TAG, String.format(Locale.US,
+                            "Detector %.1f Hz, latency %.0f ms, queue age %.0f ms, interval %d ms, dropped %d",
+                            detectionScheduler.getEffectiveHz(), detectionScheduler.getLatencyMs(),
+                            detectionScheduler.getQueueAgeMs(), detectionScheduler.currentIntervalMs(end),
+                            detectionScheduler.getDroppedCount()));
+                    TagDetector detector = tagDetector;
+                    if (detector != null) {
+                        Log.i(TAG, "Detector roi/full searches " + detector.getRoiSearchCount()
+                                + "/" + detector.getFullSearchCount()
+                                + ", low-margin detections " + detector.getRejectedCount());
+                    }
+                    if (tagFilter != null) {
+                        Log.i(TAG, "Tag filter observations " + tagFilter.getObservationCount()
+                                + ", outliers " + tagFilter.getRejectedCount()
+                                + ", resets " + tagFilter.getResetCount()
+                                + ", reports " + tagFilter.getReportCount());
+                    }
+                }
+            }
+        } catch (InterruptedException ignored) {
+            // shutting down
+        }
+    }
+
+    /** Runs detection on one frame and reports every tag found; returns how many were. */
+    private int runAprilTagDetector(FramePool.PooledFrame frame) {
+        TagDetector detector = tagDetector;
+        if (detector == null) {
+            long start = System.nanoTime();
+            int tiles = Runtime.getRuntime().availableProcessors() >= TILED_DETECTION_MIN_CORES
+                    ? DETECTION_TILES : 1;
+            detector = new TagDetector(TAG_SIZE_METERS, MIN_DECISION_MARGIN, tiles);
+            detector.setFullFrameDecimation(appliedTier.decimation);
+            tagDetector = detector;
+            startup.phase(StartupTimeline.Phase.DETECTOR_CREATE, start, System.nanoTime());
+        }
+
+        ArrayList<AprilTagDetection> detections = detector.detect(frame);
+        if (detections.isEmpty()) return 0;
+
+        PoseTransport client = transport;
+        for (int n = 0; n < detections.size(); n++) {
+            AprilTagDetection det = detections.get(n);
+            MatrixF r = det.pose.R;
+            if (Log.isLoggable(TAG, Log.DEBUG)) {
+                StringBuilder rot = new StringBuilder();
+                for (int i = 0; i < 3; i++) {
+                    for (int j = 0; j < 3; j++) {
+                        rot.append(String.format(Locale.US, "%.3f ", r.get(i, j)));
+                    }
+                }
+                Log.d(TAG, String.format(Locale.US,
+                        "AprilTag id=%d margin %.1f pos [%.3f %.3f %.3f] rot %s",
+                        det.id, det.decisionMargin, det.pose.x, det.pose.y, det.pose.z,
+                        rot.toString().trim()));
+            }
+            det_pos[0] = (float) det.pose.x;
+            det_pos[1] = (float) det.pose.y;
+            det_pos[2] = (float) det.pose.z;
+            PoseMath.flatten(r::get, det_rot);
+            if (tagFilter != null) {
+                // The image is sensor-aligned, so the sensor pose takes it into world space
+                TagRegistrationFilter.Estimate e = tagFilter.update(det.id, frame.frameTimestampNs,
+                        frame.sensorPos, frame.sensorQuat, det_pos, det_rot);
+                if (e != null && client != null) {
+                    client.queueTagEstimate(e.id, e.frameTimestampNs, e.pos, e.quat, e.posVar, e.rotVar, e.samples);
+                }
+            } else if (client != null) {
+                client.queueAprilTag(det.id, frame.frameTimestampNs,
+                        frame.displayPos, frame.displayQuat, det_pos, det_rot);
+            }
+        }
+        // Queue every tag first so they can share one batched write
+        if (client != null) client.flushAprilTags();
+
+        Listener l = listener;
+        if (l != null) l.onAprilTag(System.currentTimeMillis());
+        return detections.size();
+    }
+}
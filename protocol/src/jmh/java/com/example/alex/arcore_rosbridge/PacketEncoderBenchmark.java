@@ -0,0 +1,80 @@
+package com.example.alex.arcore_rosbridge;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/** Cost of encoding each packet type, as done once per frame or detection on the phone. */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+public class PacketEncoderBenchmark {
+    private final PacketEncoder encoder = new PacketEncoder();
+    private final float[] pos = { 0.123f, -1.456f, 2.789f };
+    private final float[] quat = { 0.1826f, 0.3651f, 0.5477f, 0.7303f };
+    private final float[] tagPos = { 0.05f, -0.02f, 0.4f };
+    private final float[] tagRot = { 1f, 0f, 0f, 0f, 0.8660f, -0.5f, 0f, 0.5f, 0.8660f };
+    private final float[] unpacked = new float[4];
+    private int packed;
+    private long frameTimestampNs = 123_456_789_000L;
+
+    @Setup
+    public void setUp() {
+        packed = PacketEncoder.packQuaternion(quat);
+    }
+
+    @Benchmark
+    public byte[] pose() {
+        return encoder.encodePose(pos, quat);
+    }
+
+    /** Steady state of the compact stream: mostly deltas, a keyframe every KEYFRAME_INTERVAL. */
+    @Benchmark
+    public byte[] compactPose() {
+        pos[0] += 0.0001f;
+        return encoder.encodeCompactPose(pos, quat);
+    }
+
+    @Benchmark
+    public byte[] compactPoseKeyframe() {
+        encoder.requestKeyframe();
+        return encoder.encodeCompactPose(pos, quat);
+    }
+
+    @Benchmark
+    public byte[] aprilTag() {
+        return encoder.encodeAprilTag(7, frameTimestampNs++, pos, quat, tagPos, tagRot);
+    }
+
+    @Benchmark
+    public byte[] button() {
+        return encoder.encodeButton((byte) 1, true);
+    }
+
+    @Benchmark
+    public byte[] calibration() {
+        return encoder.encodeCalibration();
+    }
+
+    @Benchmark
+    public byte[] hello() {
+        return encoder.encodeHello(PacketEncoder.POSE_FORMAT_COMPACT);
+    }
+
+    @Benchmark
+    public int packQuaternion() {
+        return PacketEncoder.packQuaternion(quat);
+    }
+
+    @Benchmark
+    public float[] unpackQuaternion() {
+        PacketEncoder.unpackQuaternion(packed, unpacked);
+        return unpacked;
+    }
+}
@@ -0,0 +1,78 @@
+package com.example.alex.arcore_rosbridge;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/** Per-frame pose math: the controller adjustment, rotations and detector matrix flattening. */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+public class PoseMathBenchmark {
+    private static final float[] ADJUST_QUAT = PoseMath.adjustQuaternion(180f, -90f);
+
+    /** Stands in for the detector's MatrixF: a checked get(row, col) over a backing array. */
+    private static final class CheckedMatrix implements PoseMath.Matrix3 {
+        private final float[] data = { 1f, 0f, 0f, 0f, 0.8660f, -0.5f, 0f, 0.5f, 0.8660f };
+
+        @Override public float get(int row, int col) {
+            if (row < 0 || row >= 3 || col < 0 || col >= 3) throw new IndexOutOfBoundsException();
+            return data[row * 3 + col];
+        }
+    }
+
+    private final float[] quat = { 0.1826f, 0.3651f, 0.5477f, 0.7303f };
+    private final float[] vec = { 0.05f, -0.02f, 0.4f };
+    private final float[] outQuat = new float[4];
+    private final float[] outVec = new float[3];
+    private final float[] flat = new float[9];
+    private final CheckedMatrix matrix = new CheckedMatrix();
+    private final PosePredictor predictor = new PosePredictor();
+    private final float[] predPos = new float[3];
+    private final float[] predQuat = new float[4];
+
+    @Setup
+    public void setUp() {
+        // 30 ms of 400 Hz gyro after the last pose, as between two camera frames
+        predictor.onPose(0L, vec, quat);
+        for (int i = 0; i < 12; i++) {
+            predictor.onGyro(i * 2_500_000L, 0.3f, 1.8f, -0.2f);
+        }
+    }
+
+    @Benchmark
+    public float[] adjustCompose() {
+        PoseMath.multiply(quat, ADJUST_QUAT, outQuat);
+        return outQuat;
+    }
+
+    @Benchmark
+    public float[] rotate() {
+        PoseMath.rotate(quat, vec, outVec);
+        return outVec;
+    }
+
+    @Benchmark
+    public float[] inverseRotate() {
+        PoseMath.inverseRotate(quat, vec, outVec);
+        return outVec;
+    }
+
+    @Benchmark
+    public float[] flattenRotation() {
+        PoseMath.flatten(matrix, flat);
+        return flat;
+    }
+
+    @Benchmark
+    public float[] predictPose() {
+        predictor.predict(50_000_000L, predPos, predQuat);
+        return predQuat;
+    }
+}
@@ -0,0 +1,65 @@
+package com.example.alex.arcore_rosbridge;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One transmit-thread cycle: a new pose and two detections are offered, the scheduler packs and
+ * writes them, and the write completes.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+public class WriteSchedulerBenchmark {
+    @Param({"raw", "compact"})
+    public String poseFormat;
+
+    @Param({"true", "false"})
+    public boolean batching;
+
+    private final float[] pos = { 0.123f, -1.456f, 2.789f };
+    private final float[] quat = { 0.1826f, 0.3651f, 0.5477f, 0.7303f };
+    private final float[] tagPos = { 0.05f, -0.02f, 0.4f };
+    private final float[] tagRot = { 1f, 0f, 0f, 0f, 0.8660f, -0.5f, 0f, 0.5f, 0.8660f };
+    private final PoseSlot poses = new PoseSlot();
+    private final PacketEncoder encoder = new PacketEncoder();
+    private final PacketEncoder tagEncoder = new PacketEncoder();
+    private long written;
+    private final WriteScheduler scheduler = new WriteScheduler(poses, encoder, (packet, length) -> {
+        written += length;
+        return true;
+    });
+    private long now;
+
+    @Setup
+    public void setUp() {
+        scheduler.setMaxWriteLength(PacketEncoder.MAX_WRITE_LENGTH);
+        scheduler.setBatchingEnabled(batching);
+        scheduler.setPoseFormat("compact".equals(poseFormat)
+                ? PacketEncoder.POSE_FORMAT_COMPACT : PacketEncoder.POSE_FORMAT_RAW);
+    }
+
+    @Benchmark
+    public long cycle() {
+        pos[0] += 0.0001f;
+        poses.put(pos, quat, now);
+        for (int id = 0; id < 2; id++) {
+            byte[] tag = tagEncoder.encodeAprilTag(id, now, pos, quat, tagPos, tagRot);
+            scheduler.offerAprilTag(tag, tag.length);
+        }
+        // Unbatched, the three messages take three writes
+        while (scheduler.pump(now) != -1) {
+            scheduler.onWriteComplete(true);
+        }
+        now++;
+        return written;
+    }
+}
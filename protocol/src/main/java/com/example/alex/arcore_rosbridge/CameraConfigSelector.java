@@ -0,0 +1,121 @@
+package com.example.alex.arcore_rosbridge;
+
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Scores camera configurations against the pose rate we want and the time the AprilTag detector
+ * may spend on a full frame, and picks the best.
+ *
+ * <p>Reaching the target frame rate counts most, since tracking rate sets pose latency. Next is
+ * keeping a full-frame detection within budget, estimated from the detector's cost per megapixel
+ * (a default, or measured on the device by {@link #setDetectorCost}), then a small bonus for
+ * resolution up to four times the minimum. Configs that use a depth sensor are penalised for the
+ * power it draws, and configs below the minimum image size are never picked if any other is.
+ */
+final class CameraConfigSelector {
+    /** A camera configuration as far as scoring is concerned. */
+    static final class Candidate {
+        final int width;
+        final int height;
+        final int minFps;
+        final int maxFps;
+        final boolean depth;
+
+        Candidate(int width, int height, int minFps, int maxFps, boolean depth) {
+            this.width = width;
+            this.height = height;
+            this.minFps = minFps;
+            this.maxFps = maxFps;
+            this.depth = depth;
+        }
+
+        /** Stable key for caching a choice, e.g. {@code 640x480@30-60}. */
+        String key() {
+            return width + "x" + height + "@" + minFps + "-" + maxFps + (depth ? "+depth" : "");
+        }
+
+        @Override public String toString() {
+            return key();
+        }
+    }
+
+    /** Full-frame detection at decimation 2 on a mid-range phone. */
+    static final float DEFAULT_DETECTOR_MS_PER_MEGAPIXEL = 60f;
+
+    private static final float RATE_WEIGHT = 2f;
+    private static final float DETECTION_WEIGHT = 1f;
+    private static final float RESOLUTION_WEIGHT = 0.25f;
+    private static final float DEPTH_PENALTY = 0.5f;
+
+    private final int targetFps;
+    private final float detectionBudgetMs;
+    private final int minWidth;
+    private final int minHeight;
+    private float detectorMsPerMegapixel = DEFAULT_DETECTOR_MS_PER_MEGAPIXEL;
+
+    CameraConfigSelector(int targetFps, float detectionBudgetMs, int minWidth, int minHeight) {
+        this.targetFps = targetFps;
+        this.detectionBudgetMs = detectionBudgetMs;
+        this.minWidth = minWidth;
+        this.minHeight = minHeight;
+    }
+
+    /** Sets the detector's measured full-frame cost. */
+    void setDetectorCost(float msPerMegapixel) {
+        detectorMsPerMegapixel = msPerMegapixel;
+    }
+
+    float getDetectorCost() {
+        return detectorMsPerMegapixel;
+    }
+
+    /** Estimated full-frame detection time for an image of this size. */
+    float estimateDetectionMs(int width, int height) {
+        return detectorMsPerMegapixel * width * (float) height / 1e6f;
+    }
+
+    float score(Candidate c) {
+        float rate = Math.min(c.maxFps, targetFps) / (float) targetFps;
+        float detectionMs = estimateDetectionMs(c.width, c.height);
+        float detection = detectionMs <= detectionBudgetMs ? 1f : detectionBudgetMs / detectionMs;
+        float resolution = Math.min(1f, c.width * (float) c.height / (4f * minWidth * minHeight));
+        float score = RATE_WEIGHT * rate + DETECTION_WEIGHT * detection + RESOLUTION_WEIGHT * resolution;
+        if (c.depth) score -= DEPTH_PENALTY;
+        return score;
+    }
+
+    private boolean meetsMinimum(Candidate c) {
+        return c.width >= minWidth && c.height >= minHeight;
+    }
+
+    /** Index of the best candidate, or -1 if there are none; the first wins a tie. */
+    int select(List<Candidate> candidates) {
+        boolean anyLargeEnough = false;
+        for (int i = 0; i < candidates.size(); i++) {
+            if (meetsMinimum(candidates.get(i))) anyLargeEnough = true;
+        }
+        int best = -1;
+        float bestScore = Float.NEGATIVE_INFINITY;
+        for (int i = 0; i < candidates.size(); i++) {
+            Candidate c = candidates.get(i);
+            if (anyLargeEnough && !meetsMinimum(c)) continue;
+            float s = score(c);
+            if (s > bestScore) {
+                best = i;
+                bestScore = s;
+            }
+        }
+        return best;
+    }
+
+    /** One line per candidate with its score, for the log. */
+    String describe(List<Candidate> candidates) {
+        StringBuilder sb = new StringBuilder();
+        for (Candidate c : candidates) {
+            sb.append(String.format(Locale.US, "%n  %-22s score %.2f, detection ~%.0f ms",
+                    c.key(), score(c), estimateDetectionMs(c.width, c.height)));
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,156 @@
+package com.example.alex.arcore_rosbridge;
+
+/**
+ * Estimates the Portal's clock from NTP-style ping exchanges: offset and drift relative to
+ * {@code System.nanoTime()}.
+ *
+ * <p>Each exchange gives an offset sample that is off by at most half its round trip, and
+ * queueing on either side only ever makes the round trip longer. So only the fastest exchange
+ * of every {@link #BUCKET} is kept, in a ring of the last {@link #WINDOW} (about four minutes at
+ * one ping a second). Drift is the least-squares slope of their offsets over time, once they
+ * span {@link #MIN_DRIFT_SPAN_NS}, leaving out exchanges much slower than the fastest; before
+ * that the offset of the fastest exchange is used as is.
+ *
+ * <p>{@link #addSample} and {@link #reset} must be called from one thread; {@link #toRemote}
+ * and the getters may be called from any thread and see a consistent estimate.
+ */
+final class ClockSync {
+    static final int BUCKET = 8;
+    static final int WINDOW = 32;
+    /** Samples needed before {@link #isSynced()}. */
+    static final int MIN_SAMPLES = 3;
+    static final long MIN_DRIFT_SPAN_NS = 30_000_000_000L;
+    /** Drift beyond this is a bad fit rather than a real crystal, and is clamped. */
+    static final double MAX_DRIFT = 500e-6;
+
+    /** Immutable estimate: remote = local + offsetNs + drift * (local - refNs). */
+    private static final class Estimate {
+        final long refNs;
+        final long offsetNs;
+        final double drift;
+        final long roundTripNs;
+
+        Estimate(long refNs, long offsetNs, double drift, long roundTripNs) {
+            this.refNs = refNs;
+            this.offsetNs = offsetNs;
+            this.drift = drift;
+            this.roundTripNs = roundTripNs;
+        }
+    }
+
+    // Fastest exchange of each completed bucket, then the current bucket's – sampling thread only
+    private final long[] localNs = new long[WINDOW + 1];
+    private final long[] offsets = new long[WINDOW + 1];
+    private final long[] roundTrips = new long[WINDOW + 1];
+    private int count;
+    private int next;
+    private int inBucket;
+
+    private volatile Estimate estimate;
+    private volatile long samples;
+
+    /**
+     * Adds one exchange: our send time, the Portal's receive and send times, and our receive time.
+     * Returns false if the times are inconsistent and the sample was ignored.
+     */
+    boolean addSample(long sentNs, long remoteReceivedNs, long remoteSentNs, long receivedNs) {
+        long rtt = (receivedNs - sentNs) - (remoteSentNs - remoteReceivedNs);
+        if (rtt < 0 || remoteSentNs < remoteReceivedNs) return false;
+        if (inBucket == 0 || rtt <= roundTrips[WINDOW]) {
+            localNs[WINDOW] = sentNs + (receivedNs - sentNs) / 2;
+            offsets[WINDOW] = ((remoteReceivedNs - sentNs) + (remoteSentNs - receivedNs)) / 2;
+            roundTrips[WINDOW] = rtt;
+        }
+        samples++;
+        estimate = fit();
+        if (++inBucket == BUCKET) {
+            localNs[next] = localNs[WINDOW];
+            offsets[next] = offsets[WINDOW];
+            roundTrips[next] = roundTrips[WINDOW];
+            next = (next + 1) % WINDOW;
+            if (count < WINDOW) count++;
+            inBucket = 0;
+        }
+        return true;
+    }
+
+    /** Forgets every sample, e.g. when the link goes to another Portal. */
+    void reset() {
+        count = 0;
+        next = 0;
+        inBucket = 0;
+        samples = 0;
+        estimate = null;
+    }
+
+    /** Fits the completed buckets plus the current one, which sits at index WINDOW. */
+    private Estimate fit() {
+        int best = WINDOW;
+        for (int i = 0; i < count; i++) {
+            if (roundTrips[i] < roundTrips[best]) best = i;
+        }
+        // Exchanges this much slower than the fastest would skew the fit more than they inform it
+        long limit = 2 * roundTrips[best] + 1_000_000L;
+        int used = 0;
+        long first = Long.MAX_VALUE, last = Long.MIN_VALUE;
+        for (int i = 0; i <= WINDOW; i++) {
+            if (i < WINDOW && i >= count || roundTrips[i] > limit) continue;
+            used++;
+            first = Math.min(first, localNs[i]);
+            last = Math.max(last, localNs[i]);
+        }
+        if (used < 3 || last - first < MIN_DRIFT_SPAN_NS) {
+            return new Estimate(localNs[best], offsets[best], 0.0, roundTrips[best]);
+        }
+
+        // Least squares around the newest exchange, so the intercept is the offset there
+        double st = 0, so = 0, stt = 0, sto = 0;
+        for (int i = 0; i <= WINDOW; i++) {
+            if (i < WINDOW && i >= count || roundTrips[i] > limit) continue;
+            double t = localNs[i] - last;
+            double o = offsets[i] - offsets[best];
+            st += t;
+            so += o;
+            stt += t * t;
+            sto += t * o;
+        }
+        double denominator = used * stt - st * st;
+        double drift = denominator > 0 ? (used * sto - st * so) / denominator : 0.0;
+        drift = Math.max(-MAX_DRIFT, Math.min(MAX_DRIFT, drift));
+        double intercept = (so - drift * st) / used;
+        return new Estimate(last, offsets[best] + Math.round(intercept), drift, roundTrips[best]);
+    }
+
+    boolean isSynced() {
+        return samples >= MIN_SAMPLES;
+    }
+
+    long getSampleCount() {
+        return samples;
+    }
+
+    /** Translates a {@code System.nanoTime()} value to the Portal's clock; 0 before any sample. */
+    long toRemote(long local) {
+        Estimate e = estimate;
+        if (e == null) return 0L;
+        return local + e.offsetNs + Math.round(e.drift * (local - e.refNs));
+    }
+
+    /** Portal clock minus ours at {@code local}. */
+    long getOffsetNs(long local) {
+        Estimate e = estimate;
+        return e == null ? 0L : e.offsetNs + Math.round(e.drift * (local - e.refNs));
+    }
+
+    /** Portal clock rate relative to ours, minus one; 1e-6 is one ppm. */
+    double getDrift() {
+        Estimate e = estimate;
+        return e == null ? 0.0 : e.drift;
+    }
+
+    /** Round trip of the sample the estimate is anchored to, or -1 before any sample. */
+    long getBestRoundTripNs() {
+        Estimate e = estimate;
+        return e == null ? -1L : e.roundTripNs;
+    }
+}
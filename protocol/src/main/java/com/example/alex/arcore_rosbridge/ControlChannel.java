@@ -0,0 +1,145 @@
+package com.example.alex.arcore_rosbridge;
+
+/**
+ * Phone side of the Portal's back channel. Applies the pose rate, AprilTag reporting and pose
+ * format the Portal asks for, answers its pings, and pings it once a second to measure the round
+ * trip and, through {@link ClockSync}, the offset and drift between the two clocks.
+ *
+ * <p>What the Portal sends is passed to {@link #onReceived} from one thread, and {@link #poll}
+ * runs on the transmit thread; the settings and estimates may be read from any thread. Replies
+ * go into the scheduler's control queue, after which {@code wake} asks the transport to pump.
+ */
+final class ControlChannel implements PacketDecoder.Listener {
+    /** Time between pings while the link is up. */
+    static final long PING_INTERVAL_NS = 1_000_000_000L;
+
+    private final WriteScheduler scheduler;
+    private final PacketEncoder encoder;
+    private final Runnable wake;
+    private final PacketDecoder decoder = new PacketDecoder(this);
+    private final ClockSync clock = new ClockSync();
+
+    private volatile byte defaultPoseFormat = PacketEncoder.POSE_FORMAT_RAW;
+    private volatile boolean aprilTags = true;
+    private volatile int poseRateHz;
+
+    // Transmit thread
+    private int pingSeq;
+    private long nextPingNs;
+
+    // Receiving thread writes, anyone reads
+    private volatile long lastRoundTripNs = -1;
+
+    ControlChannel(WriteScheduler scheduler, PacketEncoder encoder, Runnable wake) {
+        this.scheduler = scheduler;
+        this.encoder = encoder;
+        this.wake = wake;
+        scheduler.setClock(clock);
+    }
+
+    /** The format to use until the Portal asks for another one, and again after {@link #reset}. */
+    void setDefaultPoseFormat(byte format) {
+        defaultPoseFormat = format;
+        scheduler.setPoseFormat(format);
+    }
+
+    /** Decodes one notification or datagram from the Portal. */
+    void onReceived(byte[] data, int offset, int length) {
+        decoder.decode(data, offset, length);
+    }
+
+    /**
+     * Queues a ping if one is due; transmit thread only.
+     *
+     * @return milliseconds until the next ping is due
+     */
+    long poll(long nowNs) {
+        if (nowNs - nextPingNs >= 0) {
+            if (scheduler.offerControl(encoder.encodePing(pingSeq, nowNs), PacketEncoder.PING_LENGTH)) {
+                pingSeq = (pingSeq + 1) & 0xFFFF;
+            }
+            nextPingNs = nowNs + PING_INTERVAL_NS;
+        }
+        return (nextPingNs - nowNs + 999_999L) / 1_000_000L;
+    }
+
+    /**
+     * Forgets what the Portal asked for when the link drops; a new link starts at the defaults
+     * and pings straight away. The clock estimate is kept. Transmit thread only.
+     */
+    void reset() {
+        aprilTags = true;
+        poseRateHz = 0;
+        scheduler.setMinPoseIntervalMs(0);
+        scheduler.setPoseFormat(defaultPoseFormat);
+        nextPingNs = System.nanoTime();
+    }
+
+    /* ───────── PacketDecoder.Listener ───────── */
+
+    @Override public void onPing(int seq, long sentNs) {
+        long received = System.nanoTime();
+        byte[] pong = encoder.encodePong(seq, sentNs, received, System.nanoTime());
+        if (scheduler.offerControl(pong, PacketEncoder.PONG_LENGTH)) wake.run();
+    }
+
+    @Override public void onPong(int seq, long pingSentNs, long receivedNs, long sentNs) {
+        long now = System.nanoTime();
+        if (clock.addSample(pingSentNs, receivedNs, sentNs, now)) {
+            lastRoundTripNs = (now - pingSentNs) - (sentNs - receivedNs);
+        }
+    }
+
+    @Override public void onSetPoseRate(int hz) {
+        poseRateHz = hz;
+        scheduler.setMinPoseIntervalMs(hz > 0 ? 1000L / hz : 0L);
+        wake.run();
+    }
+
+    @Override public void onSetAprilTags(boolean enabled) {
+        aprilTags = enabled;
+    }
+
+    @Override public void onSetPoseFormat(int poseFormat) {
+        if (poseFormat != PacketEncoder.POSE_FORMAT_RAW && poseFormat != PacketEncoder.POSE_FORMAT_COMPACT
+                && poseFormat != PacketEncoder.POSE_FORMAT_TIMED) {
+            return;
+        }
+        scheduler.setPoseFormat((byte) poseFormat);
+        // Confirm the switch; the next pose starts with a keyframe
+        if (scheduler.offerControl(encoder.encodeHello((byte) poseFormat), PacketEncoder.HELLO_LENGTH)) {
+            wake.run();
+        }
+    }
+
+    /* ───────── Settings and estimates (any thread) ───────── */
+
+    boolean isAprilTagReportingEnabled() {
+        return aprilTags;
+    }
+
+    /** Pose rate the Portal asked for, or 0 for as fast as the link allows. */
+    int getRequestedPoseRateHz() {
+        return poseRateHz;
+    }
+
+    /** The Portal's clock as estimated from ping exchanges. */
+    ClockSync getClock() {
+        return clock;
+    }
+
+    long getPongCount() {
+        return clock.getSampleCount();
+    }
+
+    /** Round trip of the last ping, excluding the Portal's turnaround, or -1 before the first. */
+    double getRoundTripMs() {
+        long rtt = lastRoundTripNs;
+        return rtt < 0 ? -1 : rtt / 1e6;
+    }
+
+    /** Portal clock minus ours, now. */
+    long getClockOffsetNs() {
+        return clock.getOffsetNs(System.nanoTime());
+    }
+}
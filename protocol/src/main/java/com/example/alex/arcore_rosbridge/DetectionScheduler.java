@@ -0,0 +1,128 @@
+package com.example.alex.arcore_rosbridge;
+
+/**
+ * Paces AprilTag detection and hands frames from the GL thread to the detector thread.
+ *
+ * <p>Handoff is latest-frame-wins: at most one frame waits for the detector, and offering a new
+ * one displaces it. The capture interval adapts to the measured detector latency so that
+ * detection uses roughly {@code cpuBudget} of one core, and uses the larger
+ * {@code boostedBudget} for a while after tags were seen. All times are in milliseconds on a
+ * monotonic clock supplied by the caller.
+ */
+final class DetectionScheduler<T> {
+    private static final float EMA_ALPHA = 0.2f;
+
+    private final long minIntervalMs;
+    private final long maxIntervalMs;
+    private final long tagMemoryMs;
+    private volatile float cpuBudget;
+    private volatile float boostedBudget;
+
+    private T pending;
+    private long lastCaptureMs = Long.MIN_VALUE / 2;
+    private long lastTagSeenMs = Long.MIN_VALUE / 2;
+    private long lastFinishMs = -1;
+    private float latencyEmaMs = -1f;
+    private float periodEmaMs = -1f;
+    private float queueAgeEmaMs = 0f;
+    private long dropped;
+    private long completed;
+
+    DetectionScheduler(float cpuBudget, float boostedBudget,
+                       long minIntervalMs, long maxIntervalMs, long tagMemoryMs) {
+        this.cpuBudget = cpuBudget;
+        this.boostedBudget = boostedBudget;
+        this.minIntervalMs = minIntervalMs;
+        this.maxIntervalMs = maxIntervalMs;
+        this.tagMemoryMs = tagMemoryMs;
+    }
+
+    /** Sets the share of one core detection may use normally and right after tags were seen. */
+    void setCpuBudget(float budget, float boosted) {
+        cpuBudget = budget;
+        boostedBudget = boosted;
+    }
+
+    /** GL thread: whether a camera image should be captured for detection now. */
+    synchronized boolean shouldCapture(long nowMs) {
+        return nowMs - lastCaptureMs >= currentIntervalMs(nowMs);
+    }
+
+    /**
+     * GL thread: hands a captured frame to the detector. Returns the frame it displaced, which
+     * the caller must recycle, or null.
+     */
+    synchronized T offer(T frame, long nowMs) {
+        lastCaptureMs = nowMs;
+        T displaced = pending;
+        if (displaced != null) dropped++;
+        pending = frame;
+        notifyAll();
+        return displaced;
+    }
+
+    /** Detector thread: blocks until a frame is available. */
+    synchronized T take() throws InterruptedException {
+        while (pending == null) wait();
+        T frame = pending;
+        pending = null;
+        return frame;
+    }
+
+    /** Removes a frame that was never taken, e.g. on shutdown; returns it or null. */
+    synchronized T drain() {
+        T frame = pending;
+        pending = null;
+        return frame;
+    }
+
+    /** Detector thread: records how long a frame waited between capture and detection. */
+    synchronized void onDetectionStarted(long captureMs, long nowMs) {
+        queueAgeEmaMs += EMA_ALPHA * ((nowMs - captureMs) - queueAgeEmaMs);
+    }
+
+    /** Detector thread: records detector latency and whether any tag was found. */
+    synchronized void onDetectionFinished(long startMs, long nowMs, boolean tagsFound) {
+        long latency = nowMs - startMs;
+        latencyEmaMs = latencyEmaMs < 0 ? latency : latencyEmaMs + EMA_ALPHA * (latency - latencyEmaMs);
+        if (lastFinishMs >= 0) {
+            long period = nowMs - lastFinishMs;
+            periodEmaMs = periodEmaMs < 0 ? period : periodEmaMs + EMA_ALPHA * (period - periodEmaMs);
+        }
+        lastFinishMs = nowMs;
+        if (tagsFound) lastTagSeenMs = nowMs;
+        completed++;
+    }
+
+    /** Capture interval implied by the measured latency and the active CPU budget. */
+    synchronized long currentIntervalMs(long nowMs) {
+        if (latencyEmaMs < 0) return minIntervalMs;
+        float budget = nowMs - lastTagSeenMs < tagMemoryMs ? boostedBudget : cpuBudget;
+        long interval = (long) (latencyEmaMs / Math.max(budget, 0.01f));
+        return Math.max(minIntervalMs, Math.min(maxIntervalMs, interval));
+    }
+
+    /** Completed detections per second, smoothed. */
+    synchronized float getEffectiveHz() {
+        return periodEmaMs > 0 ? 1000f / periodEmaMs : 0f;
+    }
+
+    /** Smoothed time frames spent waiting for the detector. */
+    synchronized float getQueueAgeMs() {
+        return queueAgeEmaMs;
+    }
+
+    /** Smoothed detector run time. */
+    synchronized float getLatencyMs() {
+        return Math.max(latencyEmaMs, 0f);
+    }
+
+    /** Frames displaced by a newer frame before the detector got to them. */
+    synchronized long getDroppedCount() {
+        return dropped;
+    }
+
+    synchronized long getCompletedCount() {
+        return completed;
+    }
+}
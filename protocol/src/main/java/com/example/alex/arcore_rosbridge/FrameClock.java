@@ -0,0 +1,59 @@
+package com.example.alex.arcore_rosbridge;
+
+/**
+ * Works out which clock ARCore's frame timestamps count on, and maps them onto the others.
+ *
+ * <p>ARCore leaves the timebase of {@code Frame.getTimestamp()} undefined: depending on the
+ * camera HAL it follows CLOCK_BOOTTIME ({@code SystemClock.elapsedRealtimeNanos()}, which
+ * {@code SensorEvent.timestamp} uses too) or CLOCK_MONOTONIC ({@code System.nanoTime()}). The
+ * two differ by the time the phone has spent suspended since boot. A frame is only a few tens of
+ * milliseconds old when it is delivered, so whichever clock reads closer to its timestamp is the
+ * one it follows. Once the clocks are {@link #SETTLE_GAP_NS} apart that choice cannot be wrong
+ * and is kept; before that it is made again with every frame, and either answer is close.
+ *
+ * <p>{@link #update} must be called from one thread; the conversions may be called from any.
+ */
+final class FrameClock {
+    enum Timebase { UNKNOWN, BOOTTIME, MONOTONIC }
+
+    /** Far more than any frame's age when it is delivered. */
+    static final long SETTLE_GAP_NS = 1_000_000_000L;
+
+    private volatile Timebase timebase = Timebase.UNKNOWN;
+    private volatile boolean frameOnBoottime = true;
+    private volatile long bootMinusMonoNs;
+
+    /**
+     * Records a frame timestamp together with both clocks read right after it was delivered.
+     * Returns true the one time the timebase becomes settled.
+     */
+    boolean update(long frameNs, long bootNowNs, long monoNowNs) {
+        bootMinusMonoNs = bootNowNs - monoNowNs;
+        if (timebase != Timebase.UNKNOWN) return false;
+        boolean boot = Math.abs(bootNowNs - frameNs) <= Math.abs(monoNowNs - frameNs);
+        frameOnBoottime = boot;
+        if (bootNowNs - monoNowNs < SETTLE_GAP_NS) return false;
+        timebase = boot ? Timebase.BOOTTIME : Timebase.MONOTONIC;
+        return true;
+    }
+
+    /** The settled timebase, or UNKNOWN while the clocks are too close to tell apart. */
+    Timebase getTimebase() {
+        return timebase;
+    }
+
+    /** A frame timestamp on CLOCK_BOOTTIME, the IMU's clock. */
+    long frameToBoottime(long frameNs) {
+        return frameOnBoottime ? frameNs : frameNs + bootMinusMonoNs;
+    }
+
+    /** A frame timestamp on {@code System.nanoTime()}. */
+    long frameToMonotonic(long frameNs) {
+        return frameOnBoottime ? frameNs - bootMinusMonoNs : frameNs;
+    }
+
+    /** A CLOCK_BOOTTIME time, such as an IMU sample's, on {@code System.nanoTime()}. */
+    long boottimeToMonotonic(long bootNs) {
+        return bootNs - bootMinusMonoNs;
+    }
+}
@@ -0,0 +1,99 @@
+package com.example.alex.arcore_rosbridge;
+
+import java.util.Locale;
+
+/**
+ * Tracks one link of a multi-Portal session: its throughput and loss over each sampling
+ * interval, and whether it still deserves a place among the links.
+ *
+ * <p>A link is live while it is ready, and for {@link #UNREADY_TIMEOUT_MS} after it was added or
+ * last seen ready, which covers connecting and a short dropout. A link unready for longer has
+ * expired: its Portal is switched off or out of range, and the slot should go to another one.
+ *
+ * <p>Not thread-safe, except for {@link #getStats}; call from the one thread that manages the
+ * links.
+ */
+final class LinkHealth {
+    static final long UNREADY_TIMEOUT_MS = 15_000;
+
+    /** One link's counters, with rates over the last sampling interval. */
+    static final class Stats {
+        final String address;
+        final String state;
+        final long sentPackets;
+        final double packetsPerSecond;
+        /** Writes that failed or timed out, and packets dropped from full queues. */
+        final long lostPackets;
+        final double lossPercent;
+        final long coalescedPoses;
+        final double roundTripMs;
+
+        Stats(String address, String state, long sentPackets, double packetsPerSecond,
+              long lostPackets, double lossPercent, long coalescedPoses, double roundTripMs) {
+            this.address = address;
+            this.state = state;
+            this.sentPackets = sentPackets;
+            this.packetsPerSecond = packetsPerSecond;
+            this.lostPackets = lostPackets;
+            this.lossPercent = lossPercent;
+            this.coalescedPoses = coalescedPoses;
+            this.roundTripMs = roundTripMs;
+        }
+
+        @Override public String toString() {
+            return String.format(Locale.US,
+                    "%s %s: %d sent @ %.1f/s, lost %d (%.1f%%), coalesced %d, rtt %.1f ms",
+                    address, state, sentPackets, packetsPerSecond, lostPackets, lossPercent,
+                    coalescedPoses, roundTripMs);
+        }
+    }
+
+    final String address;
+    private long unreadySinceMs;
+    private long lastSampleMs;
+    private long lastSent;
+    private long lastLost;
+    private volatile Stats stats;
+
+    LinkHealth(String address, long nowMs) {
+        this.address = address;
+        unreadySinceMs = nowMs;
+        lastSampleMs = nowMs;
+    }
+
+    /** Records whether the link can write at {@code nowMs}. */
+    void update(boolean ready, long nowMs) {
+        if (ready) {
+            unreadySinceMs = -1;
+        } else if (unreadySinceMs < 0) {
+            unreadySinceMs = nowMs;
+        }
+    }
+
+    /** True while the link is ready or has not been unready for longer than the timeout. */
+    boolean isLive(long nowMs) {
+        return unreadySinceMs < 0 || nowMs - unreadySinceMs < UNREADY_TIMEOUT_MS;
+    }
+
+    /**
+     * Takes the link's cumulative counters at {@code nowMs} and returns its statistics since the
+     * previous sample. Loss is the share of this interval's packets that were lost.
+     */
+    Stats sample(String state, long sent, long lost, long coalesced, double roundTripMs, long nowMs) {
+        double seconds = Math.max(1, nowMs - lastSampleMs) / 1000.0;
+        long sentDelta = sent - lastSent;
+        long lostDelta = lost - lastLost;
+        lastSampleMs = nowMs;
+        lastSent = sent;
+        lastLost = lost;
+        stats = new Stats(address, state, sent, sentDelta / seconds, lost,
+                sentDelta + lostDelta == 0 ? 0 : 100.0 * lostDelta / (sentDelta + lostDelta),
+                coalesced, roundTripMs);
+        return stats;
+    }
+
+    /** Statistics from the last {@link #sample}, or null before the first. */
+    Stats getStats() {
+        return stats;
+    }
+}
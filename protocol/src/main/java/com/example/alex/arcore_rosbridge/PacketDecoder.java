@@ -0,0 +1,210 @@
+package com.example.alex.arcore_rosbridge;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Receiver-side counterpart of {@link PacketEncoder}: unpacks batches, rebuilds compact poses
+ * from their keyframes and hands each message to a {@link Listener}. Used by the JVM stand-in
+ * for the Portal runtime, and by the transports for what the Portal sends back; not
+ * thread-safe, and the arrays passed to the listener are reused.
+ */
+final class PacketDecoder {
+    /** Receives decoded messages; every method defaults to ignoring the message. */
+    interface Listener {
+        default void onHello(int version, int poseFormat) {}
+        default void onPose(float[] pos, float[] quat) {}
+        /** A pose with its capture time on the receiver's clock, 0 if unknown. */
+        default void onTimedPose(float[] pos, float[] quat, long capturedNs) {
+            onPose(pos, quat);
+        }
+        default void onAprilTag(int id, long frameTimestampNs, float[] camPos, float[] camQuat,
+                                float[] tagPos, float[] rotMat) {}
+        /** A tag's world-space pose from the phone's registration filter. */
+        default void onTagEstimate(int id, long frameTimestampNs, float[] pos, float[] quat,
+                                   float[] posVar, float rotVar, int samples) {}
+        default void onButton(int button, boolean pressed) {}
+        default void onCalibration() {}
+        default void onPing(int seq, long sentNs) {}
+        default void onPong(int seq, long pingSentNs, long receivedNs, long sentNs) {}
+        default void onSetPoseRate(int hz) {}
+        default void onSetAprilTags(boolean enabled) {}
+        default void onSetPoseFormat(int poseFormat) {}
+    }
+
+    private final Listener listener;
+    private final float[] pos = new float[3];
+    private final float[] quat = new float[4];
+    private final float[] camPos = new float[3];
+    private final float[] camQuat = new float[4];
+    private final float[] rot = new float[9];
+    private final float[] posVar = new float[3];
+
+    // Compact pose stream state
+    private final int[] keyMm = new int[3];
+    private int keySeq = -1;
+
+    private long messages;
+    private long malformed;
+    private long orphanedDeltas;
+
+    PacketDecoder(Listener listener) {
+        this.listener = listener;
+    }
+
+    /** Decodes one write or datagram payload, which may be a batch; returns the messages found. */
+    int decode(byte[] data, int offset, int length) {
+        if (length <= 0) return 0;
+        if (data[offset] != PacketEncoder.PACKET_BATCH) {
+            return decodeMessage(data, offset, length) ? 1 : 0;
+        }
+        if (length < PacketEncoder.BATCH_HEADER_LENGTH) {
+            malformed++;
+            return 0;
+        }
+        int count = data[offset + 1] & 0xFF;
+        int at = offset + PacketEncoder.BATCH_HEADER_LENGTH;
+        int end = offset + length;
+        int decoded = 0;
+        for (int i = 0; i < count; i++) {
+            if (at >= end) {
+                malformed++;
+                break;
+            }
+            int len = data[at] & 0xFF;
+            if (len == 0 || at + 1 + len > end) {
+                malformed++;
+                break;
+            }
+            if (decodeMessage(data, at + 1, len)) decoded++;
+            at += 1 + len;
+        }
+        return decoded;
+    }
+
+    private boolean decodeMessage(byte[] data, int offset, int length) {
+        if (length < 1) {
+            malformed++;
+            return false;
+        }
+        ByteBuffer bb = ByteBuffer.wrap(data, offset, length).order(ByteOrder.LITTLE_ENDIAN);
+        byte type = bb.get();
+        switch (type) {
+            case PacketEncoder.PACKET_POSE:
+                if (length != PacketEncoder.POSE_LENGTH) break;
+                readFloats(bb, pos, 3);
+                readFloats(bb, quat, 4);
+                listener.onPose(pos, quat);
+                return counted();
+            case PacketEncoder.PACKET_POSE_TIMED:
+                if (length != PacketEncoder.POSE_TIMED_LENGTH) break;
+                readFloats(bb, pos, 3);
+                readFloats(bb, quat, 4);
+                listener.onTimedPose(pos, quat, bb.getLong());
+                return counted();
+            case PacketEncoder.PACKET_POSE_KEY: {
+                if (length != PacketEncoder.POSE_KEY_LENGTH) break;
+                keySeq = bb.get() & 0xFF;
+                for (int i = 0; i < 3; i++) keyMm[i] = bb.getInt();
+                for (int i = 0; i < 3; i++) pos[i] = keyMm[i] / 1000f;
+                PacketEncoder.unpackQuaternion(bb.getInt(), quat);
+                listener.onPose(pos, quat);
+                return counted();
+            }
+            case PacketEncoder.PACKET_POSE_DELTA: {
+                if (length != PacketEncoder.POSE_DELTA_LENGTH) break;
+                bb.get();   // own sequence number; only the keyframe's matters here
+                int ref = bb.get() & 0xFF;
+                if (ref != keySeq) {
+                    orphanedDeltas++;   // its keyframe was lost; wait for the next one
+                    return false;
+                }
+                for (int i = 0; i < 3; i++) pos[i] = (keyMm[i] + bb.getShort()) / 1000f;
+                PacketEncoder.unpackQuaternion(bb.getInt(), quat);
+                listener.onPose(pos, quat);
+                return counted();
+            }
+            case PacketEncoder.PACKET_APRILTAG: {
+                if (length != PacketEncoder.APRILTAG_LENGTH) break;
+                int id = bb.getInt();
+                readFloats(bb, camPos, 3);
+                readFloats(bb, camQuat, 4);
+                readFloats(bb, pos, 3);
+                readFloats(bb, rot, 9);
+                listener.onAprilTag(id, bb.getLong(), camPos, camQuat, pos, rot);
+                return counted();
+            }
+            case PacketEncoder.PACKET_TAG_ESTIMATE: {
+                if (length != PacketEncoder.TAG_ESTIMATE_LENGTH) break;
+                int id = bb.getInt();
+                readFloats(bb, pos, 3);
+                readFloats(bb, quat, 4);
+                readFloats(bb, posVar, 3);
+                float rotVar = bb.getFloat();
+                int samples = bb.getShort() & 0xFFFF;
+                listener.onTagEstimate(id, bb.getLong(), pos, quat, posVar, rotVar, samples);
+                return counted();
+            }
+            case PacketEncoder.PACKET_BUTTON:
+                if (length != PacketEncoder.BUTTON_LENGTH) break;
+                listener.onButton(bb.get() & 0xFF, bb.get() != 0);
+                return counted();
+            case PacketEncoder.PACKET_CALIBRATION:
+                if (length != PacketEncoder.CALIBRATION_LENGTH) break;
+                listener.onCalibration();
+                return counted();
+            case PacketEncoder.PACKET_HELLO:
+                if (length != PacketEncoder.HELLO_LENGTH) break;
+                int version = bb.get() & 0xFF;
+                int format = bb.get() & 0xFF;
+                keySeq = -1;   // a new stream starts with a keyframe
+                listener.onHello(version, format);
+                return counted();
+            case PacketEncoder.PACKET_PING:
+                if (length != PacketEncoder.PING_LENGTH) break;
+                listener.onPing(bb.getShort() & 0xFFFF, bb.getLong());
+                return counted();
+            case PacketEncoder.PACKET_PONG:
+                if (length != PacketEncoder.PONG_LENGTH) break;
+                listener.onPong(bb.getShort() & 0xFFFF, bb.getLong(), bb.getLong(), bb.getLong());
+                return counted();
+            case PacketEncoder.PACKET_SET_POSE_RATE:
+                if (length != PacketEncoder.SET_POSE_RATE_LENGTH) break;
+                listener.onSetPoseRate(bb.getShort() & 0xFFFF);
+                return counted();
+            case PacketEncoder.PACKET_SET_APRILTAGS:
+                if (length != PacketEncoder.SET_APRILTAGS_LENGTH) break;
+                listener.onSetAprilTags(bb.get() != 0);
+                return counted();
+            case PacketEncoder.PACKET_SET_POSE_FORMAT:
+                if (length != PacketEncoder.SET_POSE_FORMAT_LENGTH) break;
+                listener.onSetPoseFormat(bb.get() & 0xFF);
+                return counted();
+        }
+        malformed++;
+        return false;
+    }
+
+    private boolean counted() {
+        messages++;
+        return true;
+    }
+
+    private static void readFloats(ByteBuffer bb, float[] out, int n) {
+        for (int i = 0; i < n; i++) out[i] = bb.getFloat();
+    }
+
+    long getMessageCount() {
+        return messages;
+    }
+
+    /** Messages with an unknown type or the wrong length for their type. */
+    long getMalformedCount() {
+        return malformed;
+    }
+
+    /** Compact deltas dropped because the keyframe they refer to never arrived. */
+    long getOrphanedDeltaCount() {
+        return orphanedDeltas;
+    }
+}
@@ -0,0 +1,363 @@
+package com.example.alex.arcore_rosbridge;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Encodes Portal packets into preallocated, per-packet-type byte arrays so the steady-state
+ * send path allocates nothing.
+ *
+ * <p>Thread ownership: each packet type has its own buffer, and the array returned by an
+ * {@code encode*} call is only valid until the next call for the same type. A packet type must
+ * therefore only ever be encoded from one thread. The transports encode poses, the hello
+ * packet, pings and pongs on their transmit thread, which also handles the link's callbacks (UDP
+ * encodes its first hello just before that thread starts). AprilTag detections and tag
+ * estimates are encoded on the detector thread, button and calibration events on the main
+ * thread.
+ *
+ * <p>Poses can be sent in two formats, announced to the receiver in the hello packet:
+ * {@link #POSE_FORMAT_RAW} (seven floats) or {@link #POSE_FORMAT_COMPACT}, which sends a
+ * keyframe with absolute millimetre position every {@link #KEYFRAME_INTERVAL} poses and deltas
+ * against that keyframe in between. Both compact variants carry the rotation as a
+ * smallest-three quaternion packed into 32 bits, and a sequence number so the receiver can tell
+ * which keyframe a delta refers to. {@link #POSE_FORMAT_TIMED} is the raw pose plus the time it
+ * was captured, on the Portal's clock as estimated by {@link ClockSync}.
+ *
+ * <p>The Portal talks back with notifications on its TX characteristic (or datagrams on the UDP
+ * socket): pings and pongs, which either side may send, and requests for a pose rate, AprilTag
+ * reporting and pose format, which {@link ControlChannel} applies. A ping carries its sender's
+ * clock; the pong echoes it with the receiver's receive and send times, so the sender gets the
+ * round-trip time and the clock offset from one exchange.
+ *
+ * <p>With the on-phone {@link TagRegistrationFilter}, tags are reported as world-space estimates
+ * (packet type 0x0B) when they settle or move, instead of one AprilTag packet per detection.
+ */
+final class PacketEncoder {
+    static final byte PACKET_POSE        = 0x00;
+    static final byte PACKET_CALIBRATION = 0x01;
+    static final byte PACKET_APRILTAG    = 0x02;
+    static final byte PACKET_BUTTON      = 0x03;
+    static final byte PACKET_BATCH       = 0x04;
+    static final byte PACKET_HELLO       = 0x05;
+    static final byte PACKET_POSE_KEY    = 0x06;
+    static final byte PACKET_POSE_DELTA  = 0x07;
+    static final byte PACKET_PING        = 0x08;
+    static final byte PACKET_PONG        = 0x09;
+    static final byte PACKET_POSE_TIMED  = 0x0A;
+    static final byte PACKET_TAG_ESTIMATE = 0x0B;
+    // Portal → phone only
+    static final byte PACKET_SET_POSE_RATE   = 0x10;
+    static final byte PACKET_SET_APRILTAGS   = 0x11;
+    static final byte PACKET_SET_POSE_FORMAT = 0x12;
+
+    // 2: pings, pongs and Portal → phone requests; 3: tag estimates
+    static final byte PROTOCOL_VERSION = 3;
+
+    static final byte POSE_FORMAT_RAW     = 0;
+    static final byte POSE_FORMAT_COMPACT = 1;
+    static final byte POSE_FORMAT_TIMED   = 2;
+
+    static final int POSE_LENGTH        = 1 + 4 * 7;
+    static final int CALIBRATION_LENGTH = 1;
+    static final int APRILTAG_LENGTH    = 1 + 4 + 4 * (3 + 4 + 3 + 9) + 8;
+    static final int BUTTON_LENGTH      = 3;
+    static final int HELLO_LENGTH       = 3;
+    static final int POSE_KEY_LENGTH    = 1 + 1 + 4 * 3 + 4;
+    static final int POSE_DELTA_LENGTH  = 1 + 1 + 1 + 2 * 3 + 4;
+    static final int PING_LENGTH        = 1 + 2 + 8;
+    static final int PONG_LENGTH        = 1 + 2 + 8 * 3;
+    static final int POSE_TIMED_LENGTH  = POSE_LENGTH + 8;
+    static final int TAG_ESTIMATE_LENGTH = 1 + 4 + 4 * (3 + 4 + 3 + 1) + 2 + 8;
+    static final int SET_POSE_RATE_LENGTH   = 3;
+    static final int SET_APRILTAGS_LENGTH   = 2;
+    static final int SET_POSE_FORMAT_LENGTH = 2;
+
+    /** Compact poses between two keyframes, including the keyframe itself. */
+    static final int KEYFRAME_INTERVAL = 30;
+
+    /** Largest pose packet, in any format. */
+    static final int MAX_POSE_LENGTH = POSE_TIMED_LENGTH;
+
+    /** Largest packet this encoder produces. */
+    static final int MAX_PACKET_LENGTH = APRILTAG_LENGTH;
+
+    /**
+     * Batch packet: [hdr][count] followed by {@code count} sub-messages, each a one-byte length
+     * prefix and then an ordinary packet starting with its own header byte.
+     */
+    static final int BATCH_HEADER_LENGTH = 2;
+    /** Largest value a single characteristic write can carry (ATT attribute limit). */
+    static final int MAX_WRITE_LENGTH = 512;
+
+    private final byte[] poseBytes = new byte[POSE_LENGTH];
+    private final ByteBuffer pose = wrap(poseBytes);
+    private final byte[] timedPoseBytes = new byte[POSE_TIMED_LENGTH];
+    private final ByteBuffer timedPose = wrap(timedPoseBytes);
+
+    private final byte[] aprilTagBytes = new byte[APRILTAG_LENGTH];
+    private final ByteBuffer aprilTag = wrap(aprilTagBytes);
+    private final byte[] tagEstimateBytes = new byte[TAG_ESTIMATE_LENGTH];
+    private final ByteBuffer tagEstimate = wrap(tagEstimateBytes);
+
+    private final byte[] buttonBytes = new byte[BUTTON_LENGTH];
+
+    private final byte[] calibrationBytes = { PACKET_CALIBRATION };
+
+    private final byte[] helloBytes = new byte[HELLO_LENGTH];
+
+    private final byte[] pingBytes = new byte[PING_LENGTH];
+    private final ByteBuffer ping = wrap(pingBytes);
+    private final byte[] pongBytes = new byte[PONG_LENGTH];
+    private final ByteBuffer pong = wrap(pongBytes);
+    private final byte[] requestBytes = new byte[SET_POSE_RATE_LENGTH];
+
+    // Compact pose stream state – transmit thread, like the raw pose buffer
+    private final byte[] poseKeyBytes = new byte[POSE_KEY_LENGTH];
+    private final ByteBuffer poseKey = wrap(poseKeyBytes);
+    private final byte[] poseDeltaBytes = new byte[POSE_DELTA_LENGTH];
+    private final ByteBuffer poseDelta = wrap(poseDeltaBytes);
+    private final int[] keyMm = new int[3];
+    private int poseSeq;
+    private int keySeq;
+    private int sinceKey = KEYFRAME_INTERVAL;
+
+    private static ByteBuffer wrap(byte[] bytes) {
+        return ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /** Packet: [hdr][pos(3f)][quat(4f)] */
+    byte[] encodePose(float[] pos, float[] quat) {
+        ByteBuffer bb = pose;
+        bb.clear();
+        bb.put(PACKET_POSE);
+        bb.putFloat(pos[0]).putFloat(pos[1]).putFloat(pos[2])
+          .putFloat(quat[0]).putFloat(quat[1]).putFloat(quat[2]).putFloat(quat[3]);
+        return poseBytes;
+    }
+
+    /**
+     * Packet: [hdr][pos(3f)][quat(4f)][capturedNs(i64)] – capture time on the Portal's clock, or 0
+     * while the clocks are not synchronised yet.
+     */
+    byte[] encodeTimedPose(float[] pos, float[] quat, long capturedNs) {
+        ByteBuffer bb = timedPose;
+        bb.clear();
+        bb.put(PACKET_POSE_TIMED);
+        bb.putFloat(pos[0]).putFloat(pos[1]).putFloat(pos[2])
+          .putFloat(quat[0]).putFloat(quat[1]).putFloat(quat[2]).putFloat(quat[3]);
+        bb.putLong(capturedNs);
+        return timedPoseBytes;
+    }
+
+    /**
+     * Compact pose: a keyframe [hdr][seq][pos(3 x i32 mm)][quat(u32)] or a delta
+     * [hdr][seq][keySeq][pos - keyPos(3 x i16 mm)][quat(u32)]. A keyframe is emitted every
+     * {@link #KEYFRAME_INTERVAL} poses, after {@link #requestKeyframe}, or whenever the
+     * position has moved too far from the keyframe for a 16-bit delta.
+     */
+    byte[] encodeCompactPose(float[] pos, float[] quat) {
+        int seq = poseSeq;
+        poseSeq = (poseSeq + 1) & 0xFF;
+        int dx = 0, dy = 0, dz = 0;
+        boolean key = sinceKey >= KEYFRAME_INTERVAL;
+        if (!key) {
+            dx = toMm(pos[0]) - keyMm[0];
+            dy = toMm(pos[1]) - keyMm[1];
+            dz = toMm(pos[2]) - keyMm[2];
+            key = !fitsShort(dx) || !fitsShort(dy) || !fitsShort(dz);
+        }
+        if (key) {
+            keyMm[0] = toMm(pos[0]);
+            keyMm[1] = toMm(pos[1]);
+            keyMm[2] = toMm(pos[2]);
+            keySeq = seq;
+            sinceKey = 1;
+            ByteBuffer bb = poseKey;
+            bb.clear();
+            bb.put(PACKET_POSE_KEY);
+            bb.put((byte) seq);
+            bb.putInt(keyMm[0]).putInt(keyMm[1]).putInt(keyMm[2]);
+            bb.putInt(packQuaternion(quat));
+            return poseKeyBytes;
+        }
+        sinceKey++;
+        ByteBuffer bb = poseDelta;
+        bb.clear();
+        bb.put(PACKET_POSE_DELTA);
+        bb.put((byte) seq);
+        bb.put((byte) keySeq);
+        bb.putShort((short) dx).putShort((short) dy).putShort((short) dz);
+        bb.putInt(packQuaternion(quat));
+        return poseDeltaBytes;
+    }
+
+    /**
+     * Length of the next pose in {@code format}. For compact poses this assumes a delta unless a
+     * keyframe is due; a delta too far from its keyframe still comes out as a keyframe.
+     */
+    int nextPoseLength(byte format) {
+        if (format == POSE_FORMAT_COMPACT) {
+            return sinceKey >= KEYFRAME_INTERVAL ? POSE_KEY_LENGTH : POSE_DELTA_LENGTH;
+        }
+        return format == POSE_FORMAT_TIMED ? POSE_TIMED_LENGTH : POSE_LENGTH;
+    }
+
+    /** Makes the next compact pose a keyframe, e.g. after a reconnect or a lost write. */
+    void requestKeyframe() {
+        sinceKey = KEYFRAME_INTERVAL;
+    }
+
+    /** Packet: [hdr][protocol version][pose format] */
+    byte[] encodeHello(byte poseFormat) {
+        helloBytes[0] = PACKET_HELLO;
+        helloBytes[1] = PROTOCOL_VERSION;
+        helloBytes[2] = poseFormat;
+        return helloBytes;
+    }
+
+    /**
+     * Packet: [hdr][id][camPos(3f)][camQuat(4f)][tagPos(3f)][rot(9f)][frameTimestampNs(i64)]
+     * – the camera pose and timestamp are those of the frame the tag was detected in.
+     */
+    byte[] encodeAprilTag(int id, long frameTimestampNs,
+                          float[] camPos, float[] camQuat, float[] pos, float[] rotMat) {
+        ByteBuffer bb = aprilTag;
+        bb.clear();
+        bb.put(PACKET_APRILTAG);
+        bb.putInt(id);
+        for (int i = 0; i < 3; i++) bb.putFloat(camPos[i]);
+        for (int i = 0; i < 4; i++) bb.putFloat(camQuat[i]);
+        for (int i = 0; i < 3; i++) bb.putFloat(pos[i]);
+        for (int i = 0; i < 9; i++) bb.putFloat(rotMat[i]);
+        bb.putLong(frameTimestampNs);
+        return aprilTagBytes;
+    }
+
+    /**
+     * Packet: [hdr][id][pos(3f)][quat(4f)][posVar(3f)][rotVar(f)][samples(u16)][frameTimestampNs(i64)]
+     * – a tag's pose in ARCore world space with the variance of the observations behind it (m²
+     * per axis, rad²), and the timestamp of the last frame it was seen in. Detector thread, like
+     * AprilTag packets.
+     */
+    byte[] encodeTagEstimate(int id, long frameTimestampNs, float[] pos, float[] quat,
+                             float[] posVar, float rotVar, int samples) {
+        ByteBuffer bb = tagEstimate;
+        bb.clear();
+        bb.put(PACKET_TAG_ESTIMATE);
+        bb.putInt(id);
+        for (int i = 0; i < 3; i++) bb.putFloat(pos[i]);
+        for (int i = 0; i < 4; i++) bb.putFloat(quat[i]);
+        for (int i = 0; i < 3; i++) bb.putFloat(posVar[i]);
+        bb.putFloat(rotVar);
+        bb.putShort((short) Math.min(samples, 0xFFFF));
+        bb.putLong(frameTimestampNs);
+        return tagEstimateBytes;
+    }
+
+    /** Packet: [hdr] */
+    byte[] encodeCalibration() {
+        return calibrationBytes;
+    }
+
+    /** Packet: [hdr][button][pressed] */
+    byte[] encodeButton(byte button, boolean pressed) {
+        buttonBytes[0] = PACKET_BUTTON;
+        buttonBytes[1] = button;
+        buttonBytes[2] = (byte) (pressed ? 1 : 0);
+        return buttonBytes;
+    }
+
+    /** Packet: [hdr][seq(u16)][sentNs(i64)] – the time is on the sender's clock. */
+    byte[] encodePing(int seq, long sentNs) {
+        ByteBuffer bb = ping;
+        bb.clear();
+        bb.put(PACKET_PING);
+        bb.putShort((short) seq);
+        bb.putLong(sentNs);
+        return pingBytes;
+    }
+
+    /**
+     * Packet: [hdr][seq(u16)][pingSentNs(i64)][receivedNs(i64)][sentNs(i64)] – the ping's
+     * sequence number and time echoed back, then the receive and send times on this side's clock.
+     */
+    byte[] encodePong(int seq, long pingSentNs, long receivedNs, long sentNs) {
+        ByteBuffer bb = pong;
+        bb.clear();
+        bb.put(PACKET_PONG);
+        bb.putShort((short) seq);
+        bb.putLong(pingSentNs).putLong(receivedNs).putLong(sentNs);
+        return pongBytes;
+    }
+
+    /** Packet: [hdr][hz(u16)], 0 for as fast as the link allows. Portal side. */
+    byte[] encodeSetPoseRate(int hz) {
+        requestBytes[0] = PACKET_SET_POSE_RATE;
+        requestBytes[1] = (byte) hz;
+        requestBytes[2] = (byte) (hz >>> 8);
+        return requestBytes;
+    }
+
+    /** Packet: [hdr][enabled]. Portal side. */
+    byte[] encodeSetAprilTags(boolean enabled) {
+        requestBytes[0] = PACKET_SET_APRILTAGS;
+        requestBytes[1] = (byte) (enabled ? 1 : 0);
+        return requestBytes;
+    }
+
+    /** Packet: [hdr][pose format]. Portal side. */
+    byte[] encodeSetPoseFormat(byte poseFormat) {
+        requestBytes[0] = PACKET_SET_POSE_FORMAT;
+        requestBytes[1] = poseFormat;
+        return requestBytes;
+    }
+
+    private static int toMm(float metres) {
+        return Math.round(metres * 1000f);
+    }
+
+    private static boolean fitsShort(int v) {
+        return v >= Short.MIN_VALUE && v <= Short.MAX_VALUE;
+    }
+
+    private static final float SMALLEST_THREE_RANGE = (float) (1.0 / Math.sqrt(2.0));
+    private static final int SMALLEST_THREE_MAX = (1 << 10) - 1;
+
+    /**
+     * Packs a unit quaternion (x, y, z, w) as: the index of its largest component in the top two
+     * bits, then the other three components in order, each quantised to 10 bits over
+     * [-1/sqrt(2), 1/sqrt(2)]. The quaternion is negated if needed so the dropped component is
+     * positive and can be rebuilt as sqrt(1 - a² - b² - c²).
+     */
+    static int packQuaternion(float[] q) {
+        int largest = 0;
+        for (int i = 1; i < 4; i++) {
+            if (Math.abs(q[i]) > Math.abs(q[largest])) largest = i;
+        }
+        float sign = q[largest] < 0 ? -1f : 1f;
+        int packed = largest;
+        for (int i = 0; i < 4; i++) {
+            if (i == largest) continue;
+            float v = sign * q[i] / SMALLEST_THREE_RANGE;   // [-1, 1]
+            int quantised = Math.round((v + 1f) * 0.5f * SMALLEST_THREE_MAX);
+            packed = (packed << 10) | Math.max(0, Math.min(SMALLEST_THREE_MAX, quantised));
+        }
+        return packed;
+    }
+
+    /** Inverse of {@link #packQuaternion}; writes x, y, z, w into {@code out}. */
+    static void unpackQuaternion(int packed, float[] out) {
+        int largest = packed >>> 30;
+        float sumSq = 0f;
+        int shift = 20;
+        for (int i = 0; i < 4; i++) {
+            if (i == largest) continue;
+            int quantised = (packed >>> shift) & SMALLEST_THREE_MAX;
+            float v = (quantised / (float) SMALLEST_THREE_MAX * 2f - 1f) * SMALLEST_THREE_RANGE;
+            out[i] = v;
+            sumSq += v * v;
+            shift -= 10;
+        }
+        out[largest] = (float) Math.sqrt(Math.max(0f, 1f - sumSq));
+    }
+}
@@ -0,0 +1,78 @@
+package com.example.alex.arcore_rosbridge;
+
+/**
+ * Bounded FIFO of encoded packets backed by preallocated slots. Producers copy their packet in
+ * with {@link #offer}; the transmit thread copies it back out with {@link #poll}. Neither side
+ * allocates.
+ *
+ * <p>When full, the queue either rejects the new packet or evicts the oldest one, depending on
+ * whether stale entries are still worth sending. Both cases count as dropped.
+ */
+final class PacketQueue {
+    private final byte[][] slots;
+    private final int[] lengths;
+    private final boolean evictOldest;
+    private int head;
+    private int size;
+    private long dropped;
+
+    PacketQueue(int capacity, int maxPacketLength) {
+        this(capacity, maxPacketLength, false);
+    }
+
+    PacketQueue(int capacity, int maxPacketLength, boolean evictOldest) {
+        slots = new byte[capacity][maxPacketLength];
+        lengths = new int[capacity];
+        this.evictOldest = evictOldest;
+    }
+
+    /**
+     * Copies {@code length} bytes of {@code packet} into the queue. Returns false if the queue was
+     * full and the packet was rejected; an eviction of the oldest entry still returns true.
+     */
+    synchronized boolean offer(byte[] packet, int length) {
+        if (size == slots.length) {
+            dropped++;
+            if (!evictOldest) return false;
+            head = (head + 1) % slots.length;
+            size--;
+        }
+        int tail = (head + size) % slots.length;
+        System.arraycopy(packet, 0, slots[tail], 0, length);
+        lengths[tail] = length;
+        size++;
+        return true;
+    }
+
+    /** Copies the oldest packet into {@code dst} and returns its length, or 0 if empty. */
+    synchronized int poll(byte[] dst) {
+        return poll(dst, 0, dst.length);
+    }
+
+    /**
+     * Copies the oldest packet into {@code dst} at {@code offset} if it is at most
+     * {@code maxLength} bytes long. Returns its length, or 0 if the queue is empty or the oldest
+     * packet does not fit (in which case it stays queued).
+     */
+    synchronized int poll(byte[] dst, int offset, int maxLength) {
+        if (size == 0 || lengths[head] > maxLength) return 0;
+        int length = lengths[head];
+        System.arraycopy(slots[head], 0, dst, offset, length);
+        head = (head + 1) % slots.length;
+        size--;
+        return length;
+    }
+
+    synchronized boolean isEmpty() {
+        return size == 0;
+    }
+
+    synchronized void clear() {
+        head = 0;
+        size = 0;
+    }
+
+    synchronized long getDroppedCount() {
+        return dropped;
+    }
+}
@@ -0,0 +1,184 @@
+package com.example.alex.arcore_rosbridge;
+
+/**
+ * Steps detection, camera resolution and UI refresh down through fixed {@link Tier}s as the
+ * phone heats up, its battery runs low or ARCore and the detector fall behind, and back up as
+ * conditions improve.
+ *
+ * <p>Each input maps to the tier it calls for: the thermal status (as
+ * {@code PowerManager.THERMAL_STATUS_*}) and the battery level directly, measured timings one
+ * tier further down for every {@link #DEGRADE_HOLD_MS} they stay over their limits. The governor
+ * moves down to the worst of these at once, but moves up only one tier per
+ * {@link #RESTORE_HOLD_MS} of them all allowing it, so it does not flap at a threshold. Each
+ * change is written to the telemetry.
+ *
+ * <p>{@link #onFrame} and {@link #update} must be called from one thread; thermal and battery
+ * readings may be set from any thread.
+ */
+final class PerformanceGovernor {
+    enum Tier {
+        //       detection budget, boosted, full-frame decimation, min camera image, UI refresh
+        FULL(0.3f, 0.6f, 2f, 640, 480, 100),
+        REDUCED(0.2f, 0.4f, 2f, 640, 480, 250),
+        LOW(0.1f, 0.2f, 3f, 0, 0, 500),
+        MINIMAL(0.05f, 0.1f, 4f, 0, 0, 1000);
+
+        final float detectionBudget;
+        final float boostedBudget;
+        final float decimation;
+        /** Minimum for the selected camera config; 0 takes the smallest image there is. */
+        final int minImageWidth;
+        final int minImageHeight;
+        final long uiRefreshMs;
+
+        Tier(float detectionBudget, float boostedBudget, float decimation,
+             int minImageWidth, int minImageHeight, long uiRefreshMs) {
+            this.detectionBudget = detectionBudget;
+            this.boostedBudget = boostedBudget;
+            this.decimation = decimation;
+            this.minImageWidth = minImageWidth;
+            this.minImageHeight = minImageHeight;
+            this.uiRefreshMs = uiRefreshMs;
+        }
+    }
+
+    private static final Tier[] TIERS = Tier.values();
+
+    // PowerManager.THERMAL_STATUS_* values
+    static final int THERMAL_NONE = 0;
+    static final int THERMAL_MODERATE = 2;
+    static final int THERMAL_SEVERE = 3;
+    static final int THERMAL_CRITICAL = 4;
+
+    /** Unplugged at or below these levels, step down to REDUCED and LOW. */
+    static final int BATTERY_LOW_PERCENT = 20;
+    static final int BATTERY_CRITICAL_PERCENT = 10;
+
+    /** ARCore delivers 30 fps; frames this far apart on average mean it is being throttled. */
+    static final float FRAME_PERIOD_LIMIT_MS = 50f;
+    static final float DETECTION_LATENCY_LIMIT_MS = 150f;
+
+    static final long DEGRADE_HOLD_MS = 5_000;
+    static final long RESTORE_HOLD_MS = 30_000;
+
+    private static final float EMA_ALPHA = 0.1f;
+
+    private volatile int thermalStatus = THERMAL_NONE;
+    private volatile int batteryPercent = 100;
+    private volatile boolean charging = true;
+    private volatile TelemetryRecorder telemetry;
+
+    // Governing thread
+    private volatile Tier tier = Tier.FULL;
+    private int timingTier;
+    private long lastFrameNs;
+    private float framePeriodEmaMs = -1f;
+    private long overLimitSinceMs = -1;
+    private long healthySinceMs = -1;
+    private long restoreSinceMs = -1;
+    private long changes;
+
+    void setTelemetry(TelemetryRecorder telemetry) {
+        this.telemetry = telemetry;
+    }
+
+    void setThermalStatus(int status) {
+        thermalStatus = status;
+    }
+
+    void setBattery(int percent, boolean charging) {
+        batteryPercent = percent;
+        this.charging = charging;
+    }
+
+    /** Governing thread: a new camera frame with this timestamp arrived. */
+    void onFrame(long frameTimestampNs) {
+        if (lastFrameNs != 0) {
+            float period = (frameTimestampNs - lastFrameNs) / 1e6f;
+            framePeriodEmaMs = framePeriodEmaMs < 0 ? period
+                    : framePeriodEmaMs + EMA_ALPHA * (period - framePeriodEmaMs);
+        }
+        lastFrameNs = frameTimestampNs;
+    }
+
+    /**
+     * Re-evaluates the tier; call about once a second.
+     *
+     * @param detectionLatencyMs smoothed detector run time, 0 before the first detection
+     * @return the tier to run at
+     */
+    Tier update(long nowMs, float detectionLatencyMs) {
+        boolean overLimit = framePeriodEmaMs > FRAME_PERIOD_LIMIT_MS
+                || detectionLatencyMs > DETECTION_LATENCY_LIMIT_MS;
+        if (overLimit) {
+            healthySinceMs = -1;
+            if (overLimitSinceMs < 0) overLimitSinceMs = nowMs;
+            if (nowMs - overLimitSinceMs >= DEGRADE_HOLD_MS && timingTier < TIERS.length - 1) {
+                timingTier++;
+                overLimitSinceMs = nowMs;
+            }
+        } else {
+            overLimitSinceMs = -1;
+            if (healthySinceMs < 0) healthySinceMs = nowMs;
+            if (nowMs - healthySinceMs >= RESTORE_HOLD_MS && timingTier > 0) {
+                timingTier--;
+                healthySinceMs = nowMs;
+            }
+        }
+
+        int target = Math.max(timingTier, Math.max(thermalTier(), batteryTier()));
+        Tier current = tier;
+        if (target > current.ordinal()) {
+            restoreSinceMs = -1;
+            change(current, TIERS[target], detectionLatencyMs);
+        } else if (target < current.ordinal()) {
+            if (restoreSinceMs < 0) restoreSinceMs = nowMs;
+            if (nowMs - restoreSinceMs >= RESTORE_HOLD_MS) {
+                restoreSinceMs = nowMs;
+                change(current, TIERS[current.ordinal() - 1], detectionLatencyMs);
+            }
+        } else {
+            restoreSinceMs = -1;
+        }
+        return tier;
+    }
+
+    private int thermalTier() {
+        int status = thermalStatus;
+        if (status >= THERMAL_CRITICAL) return Tier.MINIMAL.ordinal();
+        if (status >= THERMAL_SEVERE) return Tier.LOW.ordinal();
+        if (status >= THERMAL_MODERATE) return Tier.REDUCED.ordinal();
+        return Tier.FULL.ordinal();
+    }
+
+    private int batteryTier() {
+        if (charging) return Tier.FULL.ordinal();
+        int percent = batteryPercent;
+        if (percent <= BATTERY_CRITICAL_PERCENT) return Tier.LOW.ordinal();
+        if (percent <= BATTERY_LOW_PERCENT) return Tier.REDUCED.ordinal();
+        return Tier.FULL.ordinal();
+    }
+
+    private void change(Tier from, Tier to, float detectionLatencyMs) {
+        tier = to;
+        changes++;
+        TelemetryRecorder t = telemetry;
+        if (t != null) {
+            t.tier(System.nanoTime(), from.ordinal(), to.ordinal(), thermalStatus, batteryPercent,
+                    charging, Math.max(framePeriodEmaMs, 0f), detectionLatencyMs);
+        }
+    }
+
+    Tier getTier() {
+        return tier;
+    }
+
+    /** Smoothed time between camera frames, or -1 before the second frame. */
+    float getFramePeriodMs() {
+        return framePeriodEmaMs;
+    }
+
+    long getChangeCount() {
+        return changes;
+    }
+}
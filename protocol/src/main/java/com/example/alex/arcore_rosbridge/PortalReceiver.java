@@ -0,0 +1,292 @@
+package com.example.alex.arcore_rosbridge;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.util.Locale;
+
+/**
+ * Desktop stand-in for the Portal runtime: receives {@link UdpTransport} datagrams, decodes them
+ * with {@link PacketDecoder} and keeps rate, jitter and loss statistics. Automated tests bind it
+ * to an ephemeral loopback port and inspect {@link #snapshot()} or pass their own listener.
+ * Pings are answered, and requests for a pose rate, AprilTag reporting or pose format go back
+ * to whoever sent the last datagram.
+ *
+ * Usage: {@code PortalReceiver [port]} prints statistics once a second.
+ */
+final class PortalReceiver implements Closeable, PacketDecoder.Listener {
+    /** Statistics at one point in time. */
+    static final class Stats {
+        long datagrams;
+        long lost;
+        long outOfOrder;
+        long messages;
+        long malformed;
+        long poses;
+        long aprilTags;
+        long tagEstimates;
+        long buttons;
+        long calibrations;
+        long hellos;
+        long pings;
+        int poseFormat = -1;
+        final float[] lastPos = new float[3];
+        final float[] lastQuat = new float[4];
+        double poseRateHz;
+        double meanIntervalMs;
+        // Standard deviation of the time between consecutive poses
+        double jitterMs;
+        // Receive time minus capture time, for timed poses with a capture time
+        long timedPoses;
+        double meanPoseAgeMs;
+        double maxPoseAgeMs;
+
+        @Override public String toString() {
+            return String.format(Locale.US,
+                    "poses %d @ %.1f Hz (interval %.2f ms, jitter %.2f ms, age %.1f ms, max %.1f ms), "
+                    + "tags %d, tag estimates %d, buttons %d, calibrations %d; "
+                    + "datagrams %d, lost %d, out of order %d, malformed %d",
+                    poses, poseRateHz, meanIntervalMs, jitterMs, meanPoseAgeMs, maxPoseAgeMs,
+                    aprilTags, tagEstimates, buttons, calibrations, datagrams, lost, outOfOrder, malformed);
+        }
+    }
+
+    private static final int RECEIVE_TIMEOUT_MS = 200;
+
+    private final DatagramSocket socket;
+    private final PacketDecoder decoder = new PacketDecoder(this);
+    private final PacketDecoder.Listener delegate;
+    private final PacketEncoder encoder = new PacketEncoder();
+    private final byte[] reply = new byte[UdpTransport.HEADER_LENGTH + PacketEncoder.MAX_PACKET_LENGTH];
+    private final DatagramPacket replyPacket = new DatagramPacket(reply, reply.length);
+    private final Thread thread = new Thread(this::receiveLoop, "portal-rx");
+    private volatile boolean running;
+
+    // Guarded by this
+    private final Stats stats = new Stats();
+    private int lastSeq = -1;
+    private SocketAddress sender;
+    private int replySeq;
+    private long firstPoseNs;
+    private long lastPoseNs;
+    // Welford's running mean and variance of pose intervals, in ns
+    private long intervals;
+    private double intervalMean;
+    private double intervalM2;
+    private double poseAgeSumNs;
+
+    /** Binds {@code port} on all interfaces; 0 picks a free port. */
+    PortalReceiver(int port) throws SocketException {
+        this(new InetSocketAddress(port), null);
+    }
+
+    /** Binds {@code address}; every decoded message is also passed to {@code delegate}, if any. */
+    PortalReceiver(InetSocketAddress address, PacketDecoder.Listener delegate) throws SocketException {
+        this.socket = new DatagramSocket(address);
+        this.delegate = delegate;
+        socket.setSoTimeout(RECEIVE_TIMEOUT_MS);
+    }
+
+    int getPort() {
+        return socket.getLocalPort();
+    }
+
+    void start() {
+        running = true;
+        thread.start();
+    }
+
+    @Override public void close() {
+        running = false;
+        socket.close();
+        try {
+            thread.join(1000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    synchronized Stats snapshot() {
+        Stats s = new Stats();
+        s.datagrams = stats.datagrams;
+        s.lost = stats.lost;
+        s.outOfOrder = stats.outOfOrder;
+        s.messages = decoder.getMessageCount();
+        s.malformed = stats.malformed + decoder.getMalformedCount();
+        s.poses = stats.poses;
+        s.aprilTags = stats.aprilTags;
+        s.tagEstimates = stats.tagEstimates;
+        s.buttons = stats.buttons;
+        s.calibrations = stats.calibrations;
+        s.hellos = stats.hellos;
+        s.pings = stats.pings;
+        s.poseFormat = stats.poseFormat;
+        System.arraycopy(stats.lastPos, 0, s.lastPos, 0, 3);
+        System.arraycopy(stats.lastQuat, 0, s.lastQuat, 0, 4);
+        if (stats.poses > 1 && lastPoseNs > firstPoseNs) {
+            s.poseRateHz = (stats.poses - 1) * 1e9 / (lastPoseNs - firstPoseNs);
+        }
+        s.meanIntervalMs = intervalMean / 1e6;
+        if (intervals > 1) s.jitterMs = Math.sqrt(intervalM2 / (intervals - 1)) / 1e6;
+        s.timedPoses = stats.timedPoses;
+        if (stats.timedPoses > 0) s.meanPoseAgeMs = poseAgeSumNs / 1e6 / stats.timedPoses;
+        s.maxPoseAgeMs = stats.maxPoseAgeMs;
+        return s;
+    }
+
+    private void receiveLoop() {
+        byte[] buffer = new byte[UdpTransport.HEADER_LENGTH + PacketEncoder.MAX_WRITE_LENGTH];
+        DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+        while (running) {
+            try {
+                packet.setLength(buffer.length);
+                socket.receive(packet);
+            } catch (SocketTimeoutException e) {
+                continue;
+            } catch (IOException e) {
+                break;   // socket closed
+            }
+            onDatagram(packet.getSocketAddress(), buffer, packet.getLength());
+        }
+    }
+
+    private synchronized void onDatagram(SocketAddress from, byte[] data, int length) {
+        if (length < UdpTransport.HEADER_LENGTH) {
+            stats.malformed++;
+            return;
+        }
+        sender = from;
+        stats.datagrams++;
+        int seq = (data[0] & 0xFF) | (data[1] & 0xFF) << 8;
+        if (lastSeq >= 0) {
+            int gap = (seq - lastSeq - 1) & 0xFFFF;
+            if (gap >= 0x8000) {
+                stats.outOfOrder++;   // late or duplicated; its loss was already counted
+            } else {
+                stats.lost += gap;
+                lastSeq = seq;
+            }
+        } else {
+            lastSeq = seq;
+        }
+        decoder.decode(data, UdpTransport.HEADER_LENGTH, length - UdpTransport.HEADER_LENGTH);
+    }
+
+    /** Asks the phone for at most {@code hz} poses a second; 0 lifts the limit. */
+    synchronized boolean sendSetPoseRate(int hz) {
+        return send(encoder.encodeSetPoseRate(hz), PacketEncoder.SET_POSE_RATE_LENGTH);
+    }
+
+    synchronized boolean sendSetAprilTags(boolean enabled) {
+        return send(encoder.encodeSetAprilTags(enabled), PacketEncoder.SET_APRILTAGS_LENGTH);
+    }
+
+    synchronized boolean sendSetPoseFormat(byte poseFormat) {
+        return send(encoder.encodeSetPoseFormat(poseFormat), PacketEncoder.SET_POSE_FORMAT_LENGTH);
+    }
+
+    /** Sends one packet to the last sender; false if nobody has sent anything yet. */
+    private boolean send(byte[] payload, int length) {
+        if (sender == null) return false;
+        reply[0] = (byte) replySeq;
+        reply[1] = (byte) (replySeq >>> 8);
+        System.arraycopy(payload, 0, reply, UdpTransport.HEADER_LENGTH, length);
+        replyPacket.setLength(UdpTransport.HEADER_LENGTH + length);
+        replyPacket.setSocketAddress(sender);
+        try {
+            socket.send(replyPacket);
+        } catch (IOException e) {
+            return false;
+        }
+        replySeq = (replySeq + 1) & 0xFFFF;
+        return true;
+    }
+
+    /* ───────── PacketDecoder.Listener (called with this locked) ───────── */
+
+    @Override public void onHello(int version, int poseFormat) {
+        stats.hellos++;
+        stats.poseFormat = poseFormat;
+        if (delegate != null) delegate.onHello(version, poseFormat);
+    }
+
+    @Override public void onPose(float[] pos, float[] quat) {
+        recordPose(System.nanoTime(), pos, quat);
+        if (delegate != null) delegate.onPose(pos, quat);
+    }
+
+    /** The pinged clock is this process's {@code System.nanoTime()}, so age is a subtraction. */
+    @Override public void onTimedPose(float[] pos, float[] quat, long capturedNs) {
+        long now = System.nanoTime();
+        if (capturedNs != 0) {
+            double age = now - capturedNs;
+            stats.timedPoses++;
+            poseAgeSumNs += age;
+            stats.maxPoseAgeMs = Math.max(stats.maxPoseAgeMs, age / 1e6);
+        }
+        recordPose(now, pos, quat);
+        if (delegate != null) delegate.onTimedPose(pos, quat, capturedNs);
+    }
+
+    private void recordPose(long now, float[] pos, float[] quat) {
+        if (stats.poses == 0) {
+            firstPoseNs = now;
+        } else {
+            double interval = now - lastPoseNs;
+            intervals++;
+            double d = interval - intervalMean;
+            intervalMean += d / intervals;
+            intervalM2 += d * (interval - intervalMean);
+        }
+        lastPoseNs = now;
+        stats.poses++;
+        System.arraycopy(pos, 0, stats.lastPos, 0, 3);
+        System.arraycopy(quat, 0, stats.lastQuat, 0, 4);
+    }
+
+    @Override public void onAprilTag(int id, long frameTimestampNs, float[] camPos, float[] camQuat,
+                                     float[] tagPos, float[] rotMat) {
+        stats.aprilTags++;
+        if (delegate != null) delegate.onAprilTag(id, frameTimestampNs, camPos, camQuat, tagPos, rotMat);
+    }
+
+    @Override public void onTagEstimate(int id, long frameTimestampNs, float[] pos, float[] quat,
+                                        float[] posVar, float rotVar, int samples) {
+        stats.tagEstimates++;
+        if (delegate != null) delegate.onTagEstimate(id, frameTimestampNs, pos, quat, posVar, rotVar, samples);
+    }
+
+    @Override public void onButton(int button, boolean pressed) {
+        stats.buttons++;
+        if (delegate != null) delegate.onButton(button, pressed);
+    }
+
+    @Override public void onCalibration() {
+        stats.calibrations++;
+        if (delegate != null) delegate.onCalibration();
+    }
+
+    @Override public void onPing(int seq, long sentNs) {
+        long received = System.nanoTime();
+        stats.pings++;
+        send(encoder.encodePong(seq, sentNs, received, System.nanoTime()), PacketEncoder.PONG_LENGTH);
+        if (delegate != null) delegate.onPing(seq, sentNs);
+    }
+
+    public static void main(String[] args) throws Exception {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : UdpTransport.DEFAULT_PORT;
+        try (PortalReceiver receiver = new PortalReceiver(port)) {
+            receiver.start();
+            System.out.println("Listening on UDP port " + receiver.getPort());
+            while (true) {
+                Thread.sleep(1000);
+                System.out.println(receiver.snapshot());
+            }
+        }
+    }
+}
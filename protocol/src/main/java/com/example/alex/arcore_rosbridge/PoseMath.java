@@ -0,0 +1,123 @@
+package com.example.alex.arcore_rosbridge;
+
+/**
+ * Allocation-free quaternion helpers on float arrays. Quaternions are stored as (x, y, z, w),
+ * matching ARCore's {@code Pose.getRotationQuaternion}.
+ */
+final class PoseMath {
+    private PoseMath() {}
+
+    /** Read access to a 3×3 matrix, e.g. a detector's rotation, without copying it first. */
+    interface Matrix3 {
+        float get(int row, int col);
+    }
+
+    /**
+     * Builds the controller adjustment quaternion from rotations about X and Z, in degrees,
+     * combined the way the app has always combined them, then scaled to unit length so it can
+     * be composed with poses and packed.
+     */
+    static float[] adjustQuaternion(float xDeg, float zDeg) {
+        double halfX = Math.toRadians(xDeg) / 2.0;
+        double halfZ = Math.toRadians(zDeg) / 2.0;
+        float[] q = {
+                (float) Math.sin(halfX),
+                0f,
+                (float) Math.sin(halfZ),
+                (float) Math.cos(halfX) * (float) Math.cos(halfZ),
+        };
+        normalize(q);
+        return q;
+    }
+
+    /** Copies {@code m} into {@code out} in row-major order. */
+    static void flatten(Matrix3 m, float[] out) {
+        for (int i = 0; i < 3; i++) {
+            for (int j = 0; j < 3; j++) {
+                out[i * 3 + j] = m.get(i, j);
+            }
+        }
+    }
+
+    /** Rotates {@code v} by unit quaternion {@code q}; {@code out} may alias {@code v}. */
+    static void rotate(float[] q, float[] v, float[] out) {
+        float qx = q[0], qy = q[1], qz = q[2], qw = q[3];
+        float vx = v[0], vy = v[1], vz = v[2];
+        // t = 2 * cross(q.xyz, v); v' = v + w * t + cross(q.xyz, t)
+        float tx = 2f * (qy * vz - qz * vy);
+        float ty = 2f * (qz * vx - qx * vz);
+        float tz = 2f * (qx * vy - qy * vx);
+        out[0] = vx + qw * tx + (qy * tz - qz * ty);
+        out[1] = vy + qw * ty + (qz * tx - qx * tz);
+        out[2] = vz + qw * tz + (qx * ty - qy * tx);
+    }
+
+    /** Rotates {@code v} by the inverse of unit quaternion {@code q}. */
+    static void inverseRotate(float[] q, float[] v, float[] out) {
+        float qx = q[0], qy = q[1], qz = q[2], qw = q[3];
+        float vx = v[0], vy = v[1], vz = v[2];
+        float tx = 2f * (-qy * vz + qz * vy);
+        float ty = 2f * (-qz * vx + qx * vz);
+        float tz = 2f * (-qx * vy + qy * vx);
+        out[0] = vx + qw * tx + (-qy * tz + qz * ty);
+        out[1] = vy + qw * ty + (-qz * tx + qx * tz);
+        out[2] = vz + qw * tz + (-qx * ty + qy * tx);
+    }
+
+    /** Hamilton product {@code a * b}; {@code out} may alias either input. */
+    static void multiply(float[] a, float[] b, float[] out) {
+        float ax = a[0], ay = a[1], az = a[2], aw = a[3];
+        float bx = b[0], by = b[1], bz = b[2], bw = b[3];
+        out[0] = aw * bx + ax * bw + ay * bz - az * by;
+        out[1] = aw * by - ax * bz + ay * bw + az * bx;
+        out[2] = aw * bz + ax * by - ay * bx + az * bw;
+        out[3] = aw * bw - ax * bx - ay * by - az * bz;
+    }
+
+    /** Scales {@code q} to unit length in place. */
+    static void normalize(float[] q) {
+        float n = (float) Math.sqrt(q[0] * q[0] + q[1] * q[1] + q[2] * q[2] + q[3] * q[3]);
+        if (n == 0f) return;
+        q[0] /= n;
+        q[1] /= n;
+        q[2] /= n;
+        q[3] /= n;
+    }
+
+    /** Unit quaternion of the rotation matrix {@code m}, given row-major. */
+    static void fromMatrix(float[] m, float[] out) {
+        float trace = m[0] + m[4] + m[8];
+        if (trace > 0f) {
+            float s = 2f * (float) Math.sqrt(trace + 1f);
+            out[3] = 0.25f * s;
+            out[0] = (m[7] - m[5]) / s;
+            out[1] = (m[2] - m[6]) / s;
+            out[2] = (m[3] - m[1]) / s;
+        } else if (m[0] > m[4] && m[0] > m[8]) {
+            float s = 2f * (float) Math.sqrt(1f + m[0] - m[4] - m[8]);
+            out[3] = (m[7] - m[5]) / s;
+            out[0] = 0.25f * s;
+            out[1] = (m[1] + m[3]) / s;
+            out[2] = (m[2] + m[6]) / s;
+        } else if (m[4] > m[8]) {
+            float s = 2f * (float) Math.sqrt(1f + m[4] - m[0] - m[8]);
+            out[3] = (m[2] - m[6]) / s;
+            out[0] = (m[1] + m[3]) / s;
+            out[1] = 0.25f * s;
+            out[2] = (m[5] + m[7]) / s;
+        } else {
+            float s = 2f * (float) Math.sqrt(1f + m[8] - m[0] - m[4]);
+            out[3] = (m[3] - m[1]) / s;
+            out[0] = (m[2] + m[6]) / s;
+            out[1] = (m[5] + m[7]) / s;
+            out[2] = 0.25f * s;
+        }
+        normalize(out);
+    }
+
+    /** Angle in radians of the rotation between unit quaternions {@code a} and {@code b}. */
+    static float angleBetween(float[] a, float[] b) {
+        float dot = Math.abs(a[0] * b[0] + a[1] * b[1] + a[2] * b[2] + a[3] * b[3]);
+        return 2f * (float) Math.acos(Math.min(1f, dot));
+    }
+}
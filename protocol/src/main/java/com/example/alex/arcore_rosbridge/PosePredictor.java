@@ -0,0 +1,162 @@
+package com.example.alex.arcore_rosbridge;
+
+/**
+ * Extrapolates the last camera pose forward in time. Orientation is integrated from gyroscope
+ * samples that arrived after the pose, position from a velocity differenced over successive
+ * poses plus, optionally, linear acceleration. Pure Java so it can be replayed on the JVM.
+ *
+ * Poses and IMU samples must share one nanosecond clock. {@code SensorEvent.timestamp} is
+ * CLOCK_BOOTTIME, while ARCore frame timestamps may be either that or CLOCK_MONOTONIC, so they
+ * are mapped with {@link FrameClock} first. Thread-safe.
+ */
+final class PosePredictor {
+    static final long DEFAULT_MAX_HORIZON_NS = 100_000_000L;
+
+    // ~300 ms of 400 Hz gyro: covers camera latency plus the longest horizon
+    private static final int GYRO_HISTORY = 128;
+    // Differenced 30 Hz positions are noisy, so the velocity is smoothed
+    private static final float VELOCITY_SMOOTHING = 0.5f;
+    // A longer gap between poses means tracking was lost; start the velocity over
+    private static final long MAX_POSE_GAP_NS = 200_000_000L;
+    private static final long MAX_ACCEL_AGE_NS = 50_000_000L;
+
+    private final long[] gyroTime = new long[GYRO_HISTORY];
+    private final float[] gyroRate = new float[GYRO_HISTORY * 3];
+    private int gyroNext;
+    private int gyroCount;
+
+    private final float[] sensorToPose = {0f, 0f, 0f, 1f};
+    private final float[] posePos = new float[3];
+    private final float[] poseQuat = {0f, 0f, 0f, 1f};
+    private final float[] velocity = new float[3];
+    private final float[] accel = new float[3];
+    private final float[] vec = new float[3];
+    private final float[] delta = new float[4];
+    private long poseTime;
+    private long accelTime;
+    private boolean hasPose;
+
+    private long maxHorizonNs = DEFAULT_MAX_HORIZON_NS;
+    private float accelWeight;
+
+    /** Predictions never extrapolate further than this past the last pose. */
+    synchronized void setMaxHorizonNs(long ns) {
+        maxHorizonNs = ns;
+    }
+
+    /** Weight of the ½·a·t² term; 0 (the default) ignores the accelerometer. */
+    synchronized void setAccelerationWeight(float weight) {
+        accelWeight = weight;
+    }
+
+    /** Rotation from the IMU's device axes into the pose's body axes, as (x, y, z, w). */
+    synchronized void setSensorRotation(float[] q) {
+        System.arraycopy(q, 0, sensorToPose, 0, 4);
+    }
+
+    /** Records a camera pose; orientation is body-to-world, as ARCore reports it. */
+    synchronized void onPose(long timestampNs, float[] pos, float[] quat) {
+        long dt = timestampNs - poseTime;
+        if (hasPose && dt <= 0) return;
+        if (hasPose && dt < MAX_POSE_GAP_NS) {
+            float inv = 1e9f / dt;
+            for (int i = 0; i < 3; i++) {
+                float v = (pos[i] - posePos[i]) * inv;
+                velocity[i] += VELOCITY_SMOOTHING * (v - velocity[i]);
+            }
+        } else {
+            velocity[0] = velocity[1] = velocity[2] = 0f;
+        }
+        System.arraycopy(pos, 0, posePos, 0, 3);
+        System.arraycopy(quat, 0, poseQuat, 0, 4);
+        poseTime = timestampNs;
+        hasPose = true;
+    }
+
+    /** Records an angular velocity in rad/s on the device axes. */
+    synchronized void onGyro(long timestampNs, float x, float y, float z) {
+        vec[0] = x;
+        vec[1] = y;
+        vec[2] = z;
+        PoseMath.rotate(sensorToPose, vec, vec);
+        int i = gyroNext;
+        gyroTime[i] = timestampNs;
+        gyroRate[i * 3] = vec[0];
+        gyroRate[i * 3 + 1] = vec[1];
+        gyroRate[i * 3 + 2] = vec[2];
+        gyroNext = (i + 1) % GYRO_HISTORY;
+        if (gyroCount < GYRO_HISTORY) gyroCount++;
+    }
+
+    /** Records a gravity-free acceleration in m/s² on the device axes. */
+    synchronized void onLinearAcceleration(long timestampNs, float x, float y, float z) {
+        accel[0] = x;
+        accel[1] = y;
+        accel[2] = z;
+        PoseMath.rotate(sensorToPose, accel, accel);
+        accelTime = timestampNs;
+    }
+
+    /** Forgets the last pose, e.g. when tracking is lost; gyro history is kept. */
+    synchronized void reset() {
+        hasPose = false;
+        velocity[0] = velocity[1] = velocity[2] = 0f;
+    }
+
+    /**
+     * Writes the pose predicted for {@code targetNs} into {@code pos}/{@code quat}. Returns false
+     * if no pose has been recorded since the last reset.
+     */
+    synchronized boolean predict(long targetNs, float[] pos, float[] quat) {
+        if (!hasPose) return false;
+        long target = Math.min(Math.max(targetNs, poseTime), poseTime + maxHorizonNs);
+        System.arraycopy(poseQuat, 0, quat, 0, 4);
+
+        // Zero-order hold: each gyro rate applies until the next sample, the newest until target
+        long from = poseTime;
+        float wx = 0f, wy = 0f, wz = 0f;
+        boolean haveRate = false;
+        int oldest = (gyroNext - gyroCount + GYRO_HISTORY) % GYRO_HISTORY;
+        for (int n = 0; n < gyroCount; n++) {
+            int i = (oldest + n) % GYRO_HISTORY;
+            long t = gyroTime[i];
+            if (t >= target) break;
+            if (t > from) {
+                if (haveRate) integrate(quat, wx, wy, wz, t - from);
+                from = t;
+            }
+            wx = gyroRate[i * 3];
+            wy = gyroRate[i * 3 + 1];
+            wz = gyroRate[i * 3 + 2];
+            haveRate = true;
+        }
+        if (haveRate) integrate(quat, wx, wy, wz, target - from);
+        PoseMath.normalize(quat);
+
+        float dt = (target - poseTime) * 1e-9f;
+        for (int i = 0; i < 3; i++) {
+            pos[i] = posePos[i] + velocity[i] * dt;
+        }
+        if (accelWeight > 0f && poseTime - accelTime < MAX_ACCEL_AGE_NS) {
+            PoseMath.rotate(poseQuat, accel, vec);
+            float k = 0.5f * accelWeight * dt * dt;
+            for (int i = 0; i < 3; i++) {
+                pos[i] += vec[i] * k;
+            }
+        }
+        return true;
+    }
+
+    /** Applies a body-frame rotation at rate (wx, wy, wz) for {@code dtNs} to {@code q}. */
+    private void integrate(float[] q, float wx, float wy, float wz, long dtNs) {
+        double rate = Math.sqrt(wx * wx + wy * wy + wz * wz);
+        double half = rate * dtNs * 0.5e-9;
+        if (half < 1e-9) return;
+        double s = Math.sin(half) / rate;
+        delta[0] = (float) (wx * s);
+        delta[1] = (float) (wy * s);
+        delta[2] = (float) (wz * s);
+        delta[3] = (float) Math.cos(half);
+        PoseMath.multiply(q, delta, q);
+    }
+}
@@ -0,0 +1,157 @@
+package com.example.alex.arcore_rosbridge;
+
+/**
+ * Decides which poses to hand to the link, so a controller lying still is streamed at a
+ * heartbeat rate instead of every frame.
+ *
+ * <p>Linear and angular velocity are measured from successive poses and smoothed as vectors, so
+ * tracking jitter averages out instead of adding up. While either speed is above its deadband,
+ * or the pose has moved more than the deadband allows since the last pose sent, every pose is
+ * sent. After {@link #SETTLE_NS} below the deadband only one pose per heartbeat interval is
+ * sent, which bounds how stale the receiver's pose can get; the first pose that moves again goes
+ * out at once.
+ *
+ * <p>Not thread-safe; call from the one thread that publishes poses.
+ */
+final class PoseRateController {
+    static final float DEFAULT_LINEAR_DEADBAND_MPS = 0.02f;
+    static final float DEFAULT_ANGULAR_DEADBAND_DPS = 3f;
+    static final long DEFAULT_HEARTBEAT_MS = 100;
+    /** Still for this long before dropping to the heartbeat, so slow motion is not chopped. */
+    static final long SETTLE_NS = 300_000_000L;
+
+    /** Velocity smoothing time constant, so the result does not depend on the pose rate. */
+    private static final float VELOCITY_TAU_S = 0.1f;
+
+    private final float linearDeadband;
+    private final float angularDeadband;
+    private final long heartbeatNs;
+
+    private final float[] lastPos = new float[3];
+    private final float[] lastQuat = new float[4];
+    private final float[] sentPos = new float[3];
+    private final float[] sentQuat = new float[4];
+    private final float[] velocity = new float[3];
+    private final float[] angularVelocity = new float[3];
+    private final float[] delta = new float[4];
+    private long lastNs;
+    private long sentNs;
+    private boolean started;
+    private long stillSinceNs = -1;
+
+    private long sent;
+    private long saved;
+    private long heartbeats;
+    private long motionOnsets;
+
+    /**
+     * @param linearDeadbandMps  speed below which the controller counts as still, in m/s
+     * @param angularDeadbandDps rotation rate below which it counts as still, in degrees/s
+     * @param heartbeatMs        longest gap between poses sent while still
+     */
+    PoseRateController(float linearDeadbandMps, float angularDeadbandDps, long heartbeatMs) {
+        this.linearDeadband = linearDeadbandMps;
+        this.angularDeadband = (float) Math.toRadians(angularDeadbandDps);
+        this.heartbeatNs = heartbeatMs * 1_000_000L;
+    }
+
+    /** Returns true if this pose, describing time {@code atNs}, should be sent. */
+    boolean shouldSend(float[] pos, float[] quat, long atNs) {
+        if (!started) {
+            started = true;
+            remember(pos, quat, atNs);
+            return send(pos, quat, atNs);
+        }
+        long dtNs = atNs - lastNs;
+        if (dtNs > 0) {
+            float dt = dtNs / 1e9f;
+            // Rotation since the last pose, q * conj(last); small-angle rate is 2 * xyz / dt
+            delta[0] = -lastQuat[0];
+            delta[1] = -lastQuat[1];
+            delta[2] = -lastQuat[2];
+            delta[3] = lastQuat[3];
+            PoseMath.multiply(quat, delta, delta);
+            float sign = delta[3] < 0f ? -2f : 2f;
+            float alpha = Math.min(1f, dt / VELOCITY_TAU_S);
+            for (int i = 0; i < 3; i++) {
+                velocity[i] += alpha * ((pos[i] - lastPos[i]) / dt - velocity[i]);
+                angularVelocity[i] += alpha * (sign * delta[i] / dt - angularVelocity[i]);
+            }
+        }
+        remember(pos, quat, atNs);
+        float linearSpeed = length(velocity);
+        float angularSpeed = length(angularVelocity);
+
+        // A slow drift shows up as distance from the last pose sent before it shows up as speed
+        float heartbeatS = heartbeatNs / 1e9f;
+        boolean moving = linearSpeed > linearDeadband || angularSpeed > angularDeadband
+                || distance(pos, sentPos) > linearDeadband * heartbeatS
+                || PoseMath.angleBetween(quat, sentQuat) > angularDeadband * heartbeatS;
+        if (moving) {
+            if (stillSinceNs >= 0 && atNs - stillSinceNs >= SETTLE_NS) motionOnsets++;
+            stillSinceNs = -1;
+            return send(pos, quat, atNs);
+        }
+        if (stillSinceNs < 0) stillSinceNs = atNs;
+        if (atNs - stillSinceNs < SETTLE_NS) return send(pos, quat, atNs);
+        if (atNs - sentNs >= heartbeatNs) {
+            heartbeats++;
+            return send(pos, quat, atNs);
+        }
+        saved++;
+        return false;
+    }
+
+    private void remember(float[] pos, float[] quat, long atNs) {
+        System.arraycopy(pos, 0, lastPos, 0, 3);
+        System.arraycopy(quat, 0, lastQuat, 0, 4);
+        lastNs = atNs;
+    }
+
+    private boolean send(float[] pos, float[] quat, long atNs) {
+        System.arraycopy(pos, 0, sentPos, 0, 3);
+        System.arraycopy(quat, 0, sentQuat, 0, 4);
+        sentNs = atNs;
+        sent++;
+        return true;
+    }
+
+    private static float length(float[] v) {
+        return (float) Math.sqrt(v[0] * v[0] + v[1] * v[1] + v[2] * v[2]);
+    }
+
+    private static float distance(float[] a, float[] b) {
+        float dx = a[0] - b[0], dy = a[1] - b[1], dz = a[2] - b[2];
+        return (float) Math.sqrt(dx * dx + dy * dy + dz * dz);
+    }
+
+    /** True once the controller has been still long enough to drop to the heartbeat. */
+    boolean isStill() {
+        return stillSinceNs >= 0 && lastNs - stillSinceNs >= SETTLE_NS;
+    }
+
+    long getSentCount() {
+        return sent;
+    }
+
+    /** Poses not sent because the controller was still. */
+    long getSavedCount() {
+        return saved;
+    }
+
+    /** Poses sent only because the heartbeat interval had passed. */
+    long getHeartbeatCount() {
+        return heartbeats;
+    }
+
+    /** Times motion resumed after the controller had dropped to the heartbeat. */
+    long getMotionOnsetCount() {
+        return motionOnsets;
+    }
+
+    /** Share of poses not sent, 0 to 1. */
+    double getSavedFraction() {
+        long total = sent + saved;
+        return total == 0 ? 0 : saved / (double) total;
+    }
+}
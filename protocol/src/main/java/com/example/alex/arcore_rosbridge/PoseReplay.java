@@ -0,0 +1,282 @@
+package com.example.alex.arcore_rosbridge;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Replays a recorded pose/IMU log through {@link PosePredictor} on the JVM and measures how far
+ * its predictions land from the recorded poses, against simply holding the last pose.
+ *
+ * Logs are CSV, one sample per line, in the order the samples became available on the phone:
+ * <pre>
+ *   P,timestampNs,px,py,pz,qx,qy,qz,qw   camera pose
+ *   G,timestampNs,x,y,z                   gyroscope, rad/s, device axes
+ *   A,timestampNs,x,y,z                   linear acceleration, m/s², device axes
+ * </pre>
+ * Like the live loop, a prediction is made after every gyro sample, {@code horizon} ahead of it.
+ *
+ * Usage: {@code PoseReplay <log.csv> [--accel=<weight>] [horizonMs...]}
+ */
+final class PoseReplay {
+    private static final byte POSE = 'P';
+    private static final byte GYRO = 'G';
+    private static final byte ACCEL = 'A';
+    private static final long[] DEFAULT_HORIZONS_MS = {0, 10, 20, 30, 50, 75, 100};
+
+    /** Mean errors for one horizon; position in mm, orientation in degrees. */
+    static final class Result {
+        final long horizonNs;
+        int samples;
+        double predictedPositionMm;
+        double predictedAngleDeg;
+        double heldPositionMm;
+        double heldAngleDeg;
+
+        Result(long horizonNs) {
+            this.horizonNs = horizonNs;
+        }
+
+        @Override public String toString() {
+            return String.format(Locale.US, "%6.1f ms %7d   %8.2f mm %7.3f°   %8.2f mm %7.3f°",
+                    horizonNs / 1e6, samples, predictedPositionMm, predictedAngleDeg,
+                    heldPositionMm, heldAngleDeg);
+        }
+    }
+
+    /** Appends samples to a log in the format {@link #load} reads. Safe to share across threads. */
+    static final class Recorder implements Closeable {
+        private final Writer out;
+        private boolean failed;
+
+        Recorder(Writer out) {
+            this.out = out;
+        }
+
+        synchronized void pose(long timestampNs, float[] pos, float[] quat) {
+            write(String.format(Locale.US, "P,%d,%f,%f,%f,%f,%f,%f,%f\n", timestampNs,
+                    pos[0], pos[1], pos[2], quat[0], quat[1], quat[2], quat[3]));
+        }
+
+        synchronized void gyro(long timestampNs, float x, float y, float z) {
+            write(String.format(Locale.US, "G,%d,%f,%f,%f\n", timestampNs, x, y, z));
+        }
+
+        synchronized void linearAcceleration(long timestampNs, float x, float y, float z) {
+            write(String.format(Locale.US, "A,%d,%f,%f,%f\n", timestampNs, x, y, z));
+        }
+
+        /** Recording stops quietly at the first I/O error; the app keeps streaming. */
+        synchronized boolean hasFailed() {
+            return failed;
+        }
+
+        private void write(String line) {
+            if (failed) return;
+            try {
+                out.write(line);
+            } catch (IOException e) {
+                failed = true;
+            }
+        }
+
+        @Override public synchronized void close() throws IOException {
+            out.close();
+        }
+    }
+
+    // Events in recorded order
+    private final byte[] kind;
+    private final long[] time;
+    private final float[] values;
+    private final int count;
+
+    // Poses sorted by timestamp, for ground truth
+    private final long[] poseTime;
+    private final float[] posePos;
+    private final float[] poseQuat;
+
+    private PoseReplay(byte[] kind, long[] time, float[] values, int count) {
+        this.kind = kind;
+        this.time = time;
+        this.values = values;
+        this.count = count;
+        int poses = 0;
+        for (int i = 0; i < count; i++) {
+            if (kind[i] == POSE) poses++;
+        }
+        poseTime = new long[poses];
+        posePos = new float[poses * 3];
+        poseQuat = new float[poses * 4];
+        int n = 0;
+        for (int i = 0; i < count; i++) {
+            if (kind[i] != POSE) continue;
+            poseTime[n] = time[i];
+            System.arraycopy(values, i * 7, posePos, n * 3, 3);
+            System.arraycopy(values, i * 7 + 3, poseQuat, n * 4, 4);
+            n++;
+        }
+        for (int i = 1; i < poses; i++) {
+            if (poseTime[i] <= poseTime[i - 1]) {
+                throw new IllegalArgumentException("Pose timestamps must increase (pose " + i + ")");
+            }
+        }
+    }
+
+    /** Parses a log; blank lines and lines starting with '#' are skipped. */
+    static PoseReplay load(Reader in) throws IOException {
+        BufferedReader reader = new BufferedReader(in);
+        byte[] kind = new byte[1024];
+        long[] time = new long[1024];
+        float[] values = new float[1024 * 7];
+        int count = 0;
+        String line;
+        int lineNo = 0;
+        while ((line = reader.readLine()) != null) {
+            lineNo++;
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) continue;
+            String[] f = line.split(",");
+            byte k = (byte) f[0].charAt(0);
+            int fields = k == POSE ? 7 : 3;
+            if ((k != POSE && k != GYRO && k != ACCEL) || f.length != fields + 2) {
+                throw new IOException("Malformed sample on line " + lineNo + ": " + line);
+            }
+            if (count == kind.length) {
+                kind = Arrays.copyOf(kind, count * 2);
+                time = Arrays.copyOf(time, count * 2);
+                values = Arrays.copyOf(values, count * 2 * 7);
+            }
+            kind[count] = k;
+            time[count] = Long.parseLong(f[1]);
+            for (int i = 0; i < fields; i++) {
+                values[count * 7 + i] = Float.parseFloat(f[i + 2]);
+            }
+            count++;
+        }
+        return new PoseReplay(kind, time, values, count);
+    }
+
+    /** Replays the whole log once per horizon with a fresh predictor. */
+    Result[] run(long[] horizonsNs, float accelerationWeight) {
+        Result[] results = new Result[horizonsNs.length];
+        for (int i = 0; i < horizonsNs.length; i++) {
+            results[i] = evaluate(horizonsNs[i], accelerationWeight);
+        }
+        return results;
+    }
+
+    Result evaluate(long horizonNs, float accelerationWeight) {
+        PosePredictor predictor = new PosePredictor();
+        predictor.setMaxHorizonNs(PosePredictor.DEFAULT_MAX_HORIZON_NS + horizonNs);
+        predictor.setAccelerationWeight(accelerationWeight);
+        Result result = new Result(horizonNs);
+        float[] predPos = new float[3], predQuat = new float[4];
+        float[] truePos = new float[3], trueQuat = new float[4];
+        float[] heldPos = new float[3], heldQuat = new float[4];
+        boolean held = false;
+
+        for (int i = 0; i < count; i++) {
+            int v = i * 7;
+            switch (kind[i]) {
+                case POSE:
+                    System.arraycopy(values, v, heldPos, 0, 3);
+                    System.arraycopy(values, v + 3, heldQuat, 0, 4);
+                    held = true;
+                    predictor.onPose(time[i], heldPos, heldQuat);
+                    break;
+                case ACCEL:
+                    predictor.onLinearAcceleration(time[i], values[v], values[v + 1], values[v + 2]);
+                    break;
+                case GYRO:
+                    predictor.onGyro(time[i], values[v], values[v + 1], values[v + 2]);
+                    long target = time[i] + horizonNs;
+                    if (!held || !truth(target, truePos, trueQuat)) break;
+                    predictor.predict(target, predPos, predQuat);
+                    result.samples++;
+                    result.predictedPositionMm += distanceMm(predPos, truePos);
+                    result.predictedAngleDeg += angleDeg(predQuat, trueQuat);
+                    result.heldPositionMm += distanceMm(heldPos, truePos);
+                    result.heldAngleDeg += angleDeg(heldQuat, trueQuat);
+                    break;
+            }
+        }
+        if (result.samples > 0) {
+            result.predictedPositionMm /= result.samples;
+            result.predictedAngleDeg /= result.samples;
+            result.heldPositionMm /= result.samples;
+            result.heldAngleDeg /= result.samples;
+        }
+        return result;
+    }
+
+    /** Interpolates the recorded pose at {@code t}; false outside the recorded span. */
+    private boolean truth(long t, float[] pos, float[] quat) {
+        int j = Arrays.binarySearch(poseTime, t);
+        if (j >= 0) {
+            System.arraycopy(posePos, j * 3, pos, 0, 3);
+            System.arraycopy(poseQuat, j * 4, quat, 0, 4);
+            return true;
+        }
+        int hi = -j - 1;
+        if (hi == 0 || hi == poseTime.length) return false;
+        int lo = hi - 1;
+        float a = (float) (t - poseTime[lo]) / (poseTime[hi] - poseTime[lo]);
+        for (int i = 0; i < 3; i++) {
+            pos[i] = posePos[lo * 3 + i] + a * (posePos[hi * 3 + i] - posePos[lo * 3 + i]);
+        }
+        // Normalised lerp is indistinguishable from slerp across one camera frame
+        float dot = 0f;
+        for (int i = 0; i < 4; i++) dot += poseQuat[lo * 4 + i] * poseQuat[hi * 4 + i];
+        float sign = dot < 0f ? -1f : 1f;
+        for (int i = 0; i < 4; i++) {
+            quat[i] = (1f - a) * poseQuat[lo * 4 + i] + a * sign * poseQuat[hi * 4 + i];
+        }
+        PoseMath.normalize(quat);
+        return true;
+    }
+
+    private static double distanceMm(float[] a, float[] b) {
+        double dx = a[0] - b[0], dy = a[1] - b[1], dz = a[2] - b[2];
+        return Math.sqrt(dx * dx + dy * dy + dz * dz) * 1000.0;
+    }
+
+    private static double angleDeg(float[] a, float[] b) {
+        double dot = Math.abs(a[0] * b[0] + a[1] * b[1] + a[2] * b[2] + a[3] * b[3]);
+        return Math.toDegrees(2.0 * Math.acos(Math.min(1.0, dot)));
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length == 0) {
+            System.err.println("usage: PoseReplay <log.csv> [--accel=<weight>] [horizonMs...]");
+            System.exit(2);
+        }
+        float accelWeight = 0f;
+        long[] horizonsMs = new long[args.length - 1];
+        int horizons = 0;
+        for (int i = 1; i < args.length; i++) {
+            if (args[i].startsWith("--accel=")) {
+                accelWeight = Float.parseFloat(args[i].substring("--accel=".length()));
+            } else {
+                horizonsMs[horizons++] = Long.parseLong(args[i]);
+            }
+        }
+        horizonsMs = horizons == 0 ? DEFAULT_HORIZONS_MS : Arrays.copyOf(horizonsMs, horizons);
+        long[] horizonsNs = new long[horizonsMs.length];
+        for (int i = 0; i < horizonsMs.length; i++) horizonsNs[i] = horizonsMs[i] * 1_000_000L;
+
+        PoseReplay replay;
+        try (Reader in = new FileReader(args[0])) {
+            replay = load(in);
+        }
+        System.out.println(" horizon samples   predicted            held");
+        for (Result r : replay.run(horizonsNs, accelWeight)) {
+            System.out.println(r);
+        }
+    }
+}
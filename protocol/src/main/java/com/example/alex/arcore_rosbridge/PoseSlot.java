@@ -0,0 +1,69 @@
+package com.example.alex.arcore_rosbridge;
+
+/**
+ * Single-entry, latest-value mailbox for handing poses from the GL thread to the BLE transmit
+ * thread. A pose that has not been taken yet is simply overwritten by the next one.
+ */
+final class PoseSlot {
+    private final float[] pos = new float[3];
+    private final float[] quat = new float[4];
+    private long stampNs;
+    private long takenStampNs;
+    private long poseTimeNs;
+    private long takenPoseTimeNs;
+    private boolean fresh;
+    private long overwritten;
+
+    /** Stores a copy of the given pose, replacing any pose not yet taken. */
+    synchronized void put(float[] p, float[] q) {
+        put(p, q, 0L);
+    }
+
+    /** As {@link #put(float[], float[])}, tagging the pose with a caller-defined timestamp. */
+    synchronized void put(float[] p, float[] q, long stamp) {
+        put(p, q, stamp, stamp);
+    }
+
+    /** As {@link #put(float[], float[], long)}, with the time the pose describes as well. */
+    synchronized void put(float[] p, float[] q, long stamp, long poseTime) {
+        if (fresh) overwritten++;
+        System.arraycopy(p, 0, pos, 0, 3);
+        System.arraycopy(q, 0, quat, 0, 4);
+        stampNs = stamp;
+        poseTimeNs = poseTime;
+        fresh = true;
+    }
+
+    /** Copies the pending pose into the given arrays; returns false if nothing new arrived. */
+    synchronized boolean take(float[] p, float[] q) {
+        if (!fresh) return false;
+        System.arraycopy(pos, 0, p, 0, 3);
+        System.arraycopy(quat, 0, q, 0, 4);
+        takenStampNs = stampNs;
+        takenPoseTimeNs = poseTimeNs;
+        fresh = false;
+        return true;
+    }
+
+    /** Timestamp the most recently taken pose was put with. */
+    synchronized long getTakenStamp() {
+        return takenStampNs;
+    }
+
+    /** Time the most recently taken pose describes. */
+    synchronized long getTakenPoseTime() {
+        return takenPoseTimeNs;
+    }
+
+    synchronized boolean hasPose() {
+        return fresh;
+    }
+
+    synchronized void clear() {
+        fresh = false;
+    }
+
+    synchronized long getOverwrittenCount() {
+        return overwritten;
+    }
+}
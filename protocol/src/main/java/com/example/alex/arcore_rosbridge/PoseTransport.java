@@ -0,0 +1,106 @@
+package com.example.alex.arcore_rosbridge;
+
+/**
+ * Carries poses, AprilTag detections and controller events to the Portal runtime.
+ * {@link BleClient} writes them to the Portal's GATT characteristic; {@link UdpTransport} sends
+ * the same packets as datagrams over any IP link (Wi-Fi, Wi-Fi Direct, USB tethering).
+ *
+ * <p>Threading is the same for every implementation: poses may be published from any thread,
+ * AprilTags must be queued from one thread (the detector), and button and calibration events
+ * from another (the main thread). Nothing here blocks on the link.
+ */
+public interface PoseTransport {
+    byte BUTTON_VOL_UP   = 0x00;
+    byte BUTTON_VOL_DOWN = 0x01;
+
+    /** Seven little-endian floats per pose (the original format). */
+    byte POSE_FORMAT_RAW     = PacketEncoder.POSE_FORMAT_RAW;
+    /** Millimetre keyframes/deltas with smallest-three rotation, about a third of the size. */
+    byte POSE_FORMAT_COMPACT = PacketEncoder.POSE_FORMAT_COMPACT;
+    /** The raw pose plus its capture time on the Portal's clock. */
+    byte POSE_FORMAT_TIMED   = PacketEncoder.POSE_FORMAT_TIMED;
+
+    /** Opens the link; the pose format and telemetry should be set before this. */
+    void start();
+
+    /** Closes the link and stops its threads; the transport cannot be restarted. */
+    void close();
+
+    /**
+     * Selects the pose wire format, announced in the hello packet when the link opens. The Portal
+     * may switch formats at run time; each new link starts with this one again.
+     */
+    void setPoseFormat(byte format);
+
+    /** Enables packing several pending packets into one write (packet type 0x04). */
+    void setBatchingEnabled(boolean enabled);
+
+    /** Logs every write, its duration and outcome to {@code recorder}; null stops logging. */
+    void setTelemetry(TelemetryRecorder recorder);
+
+    /**
+     * Hands the latest pose to the transmit thread, with the {@code System.nanoTime()} it was
+     * sampled at and the {@code System.nanoTime()} it describes (its camera frame's capture time,
+     * or the time it was predicted for). The arrays are copied before returning; a pose not yet
+     * sent is replaced.
+     */
+    void publishPose(float[] pos, float[] quat, long sampledAtNs, long capturedAtNs);
+
+    default void publishPose(float[] pos, float[] quat, long sampledAtNs) {
+        publishPose(pos, quat, sampledAtNs, sampledAtNs);
+    }
+
+    default void publishPose(float[] pos, float[] quat) {
+        publishPose(pos, quat, System.nanoTime());
+    }
+
+    /**
+     * Queues an AprilTag detection with the camera pose and ARCore timestamp of the frame it was
+     * detected in, to go out with the other tags of that frame at {@link #flushAprilTags}.
+     */
+    void queueAprilTag(int id, long frameTimestampNs, float[] camPos, float[] camQuat,
+                       float[] pos, float[] rotMat);
+
+    /**
+     * Queues a tag's world-space estimate from {@link TagRegistrationFilter} (packet type 0x0B),
+     * to go out at {@link #flushAprilTags}. Same thread as {@link #queueAprilTag}.
+     */
+    void queueTagEstimate(int id, long frameTimestampNs, float[] pos, float[] quat,
+                          float[] posVar, float rotVar, int samples);
+
+    /** Starts transmitting AprilTag packets and estimates queued since the last flush. */
+    void flushAprilTags();
+
+    default void sendAprilTag(int id, long frameTimestampNs, float[] camPos, float[] camQuat,
+                              float[] pos, float[] rotMat) {
+        queueAprilTag(id, frameTimestampNs, camPos, camQuat, pos, rotMat);
+        flushAprilTags();
+    }
+
+    /** Sends a one-byte calibration trigger (packet type 0x01). */
+    void sendCalibrationTrigger();
+
+    /** Sends a button press or release event. */
+    void sendButtonEvent(byte button, boolean pressed);
+
+    /** Packets handed to the link; each packet in a batch counts separately. */
+    long getSentPacketCount();
+
+    /** Poses replaced by a newer pose before they could be sent. */
+    long getCoalescedPoseCount();
+
+    /** Button, calibration and AprilTag packets discarded because their queue was full. */
+    long getDroppedPacketCount();
+
+    /** False while the Portal has asked for no AprilTag reports; queued tags are then dropped. */
+    boolean isAprilTagReportingEnabled();
+
+    /** Round trip of the last ping answered by the Portal, or -1 before the first. */
+    double getRoundTripMs();
+
+    /** Portal clock minus {@code System.nanoTime()}, estimated from ping round trips. */
+    long getClockOffsetNs();
+
+    /** {@code System.nanoTime()} the first pose was handed to the link, or 0 before then. */
+    long getFirstPoseSentNs();
+}
@@ -0,0 +1,132 @@
+package com.example.alex.arcore_rosbridge;
+
+/**
+ * Predicts where previously detected tags will appear in the next camera image so the detector
+ * can search a cropped region instead of the full frame.
+ *
+ * <p>Each detected tag is stored as a point in ARCore world space. For a new frame the point is
+ * moved into that frame's camera space using the frame's sensor-aligned camera pose and
+ * projected with its intrinsics; the region of interest is the bounding box of all projected
+ * tags, padded by their apparent size. A full-frame search is requested when nothing is tracked,
+ * every {@link #FULL_SEARCH_INTERVAL} detections to pick up new tags, and after a region search
+ * comes back empty.
+ *
+ * <p>Detector thread only. Camera-space inputs use the AprilTag convention (x right, y down,
+ * z forward); ARCore camera poses use x right, y up, -z forward.
+ */
+final class RoiTracker {
+    static final int MAX_TRACKS = 8;
+    static final int FULL_SEARCH_INTERVAL = 15;
+
+    /** Region half-size as a multiple of the tag's projected edge length. */
+    private static final float SIZE_MARGIN = 1.5f;
+    /** Extra pixels for motion the camera pose did not explain (hand shake, tag motion). */
+    private static final int MOTION_PAD_PX = 32;
+    private static final int MIN_HALF_SIZE_PX = 48;
+    /** Regions larger than this share of the image are not worth cropping. */
+    private static final float MAX_AREA_FRACTION = 0.5f;
+
+    private final float tagSize;
+    private final float[][] worldPoints = new float[MAX_TRACKS][3];
+    private int trackCount;
+    private int sinceFullSearch = FULL_SEARCH_INTERVAL;
+
+    private final float[] tmp = new float[3];
+
+    private long roiSearches;
+    private long fullSearches;
+
+    RoiTracker(float tagSizeMetres) {
+        this.tagSize = tagSizeMetres;
+    }
+
+    /**
+     * Computes the search region for a frame.
+     *
+     * @param camPos  sensor-aligned camera position in world space
+     * @param camQuat sensor-aligned camera rotation in world space
+     * @param roi     receives x, y, width, height when a region is returned
+     * @return true if {@code roi} should be searched, false for a full-frame search
+     */
+    boolean predict(float[] camPos, float[] camQuat,
+                    float fx, float fy, float cx, float cy,
+                    int width, int height, int[] roi) {
+        if (trackCount == 0 || sinceFullSearch >= FULL_SEARCH_INTERVAL) {
+            sinceFullSearch = 0;
+            fullSearches++;
+            return false;
+        }
+        float minX = Float.MAX_VALUE, minY = Float.MAX_VALUE;
+        float maxX = -Float.MAX_VALUE, maxY = -Float.MAX_VALUE;
+        for (int i = 0; i < trackCount; i++) {
+            float[] w = worldPoints[i];
+            tmp[0] = w[0] - camPos[0];
+            tmp[1] = w[1] - camPos[1];
+            tmp[2] = w[2] - camPos[2];
+            PoseMath.inverseRotate(camQuat, tmp, tmp);
+            float x = tmp[0], y = -tmp[1], z = -tmp[2];
+            if (z <= 0.05f) return fullSearch();
+            float u = fx * x / z + cx;
+            float v = fy * y / z + cy;
+            float half = Math.max(MIN_HALF_SIZE_PX, SIZE_MARGIN * tagSize * fx / z + MOTION_PAD_PX);
+            minX = Math.min(minX, u - half);
+            maxX = Math.max(maxX, u + half);
+            minY = Math.min(minY, v - half);
+            maxY = Math.max(maxY, v + half);
+        }
+        int x0 = Math.max(0, (int) minX);
+        int y0 = Math.max(0, (int) minY);
+        int x1 = Math.min(width, (int) Math.ceil(maxX));
+        int y1 = Math.min(height, (int) Math.ceil(maxY));
+        if (x1 - x0 < 2 * MIN_HALF_SIZE_PX || y1 - y0 < 2 * MIN_HALF_SIZE_PX) return fullSearch();
+        if ((float) (x1 - x0) * (y1 - y0) > MAX_AREA_FRACTION * width * height) return fullSearch();
+        roi[0] = x0;
+        roi[1] = y0;
+        roi[2] = x1 - x0;
+        roi[3] = y1 - y0;
+        sinceFullSearch++;
+        roiSearches++;
+        return true;
+    }
+
+    private boolean fullSearch() {
+        sinceFullSearch = 0;
+        fullSearches++;
+        return false;
+    }
+
+    /** Starts recording the result of a search; the tracked set is replaced by what is observed. */
+    void beginUpdate() {
+        trackCount = 0;
+    }
+
+    /** Records a detected tag centre, given in AprilTag camera coordinates of that frame. */
+    void observe(float x, float y, float z, float[] camPos, float[] camQuat) {
+        if (trackCount == MAX_TRACKS) return;
+        tmp[0] = x;
+        tmp[1] = -y;
+        tmp[2] = -z;
+        float[] w = worldPoints[trackCount++];
+        PoseMath.rotate(camQuat, tmp, w);
+        w[0] += camPos[0];
+        w[1] += camPos[1];
+        w[2] += camPos[2];
+    }
+
+    /** Forgets all tracks so the next frame is searched in full. */
+    void reset() {
+        trackCount = 0;
+    }
+
+    int getTrackCount() {
+        return trackCount;
+    }
+
+    long getRoiSearchCount() {
+        return roiSearches;
+    }
+
+    long getFullSearchCount() {
+        return fullSearches;
+    }
+}
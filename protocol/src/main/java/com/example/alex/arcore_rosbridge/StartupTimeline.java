@@ -0,0 +1,92 @@
+package com.example.alex.arcore_rosbridge;
+
+import java.util.Locale;
+
+/**
+ * Start and end times of the startup phases, which run concurrently on their own threads, and
+ * of the milestones up to the first pose handed to the link. All times are
+ * {@code System.nanoTime()}, reported relative to an origin such as process start.
+ *
+ * <p>Each phase is recorded once, from any thread, and written to the telemetry as a STARTUP
+ * record so cold-start times can be compared across releases.
+ */
+final class StartupTimeline {
+    /** Telemetry stores the ordinal, so only append. */
+    enum Phase {
+        TRANSPORT_START,
+        NATIVE_LOAD,
+        SESSION_CREATE,
+        CAMERA_CONFIG,
+        SESSION_CONFIGURE,
+        GL_CONTEXT,
+        SESSION_RESUME,
+        DETECTOR_CREATE,
+        FIRST_FRAME,
+        FIRST_TRACKING,
+        FIRST_POSE
+    }
+
+    private static final Phase[] PHASES = Phase.values();
+
+    private final long originNs;
+    private final long[] startNs = new long[PHASES.length];
+    private final long[] endNs = new long[PHASES.length];
+    private volatile TelemetryRecorder telemetry;
+
+    StartupTimeline(long originNs) {
+        this.originNs = originNs;
+    }
+
+    void setTelemetry(TelemetryRecorder telemetry) {
+        this.telemetry = telemetry;
+    }
+
+    /** Records a phase that ran from {@code startNs} to {@code endNs}; later calls are ignored. */
+    void phase(Phase phase, long startNs, long endNs) {
+        synchronized (this) {
+            if (this.endNs[phase.ordinal()] != 0) return;
+            this.startNs[phase.ordinal()] = startNs;
+            this.endNs[phase.ordinal()] = endNs;
+        }
+        TelemetryRecorder t = telemetry;
+        if (t != null) t.startup(phase.ordinal(), originNs, startNs, endNs);
+    }
+
+    /** Records a milestone reached at {@code atNs}; later calls are ignored. */
+    void milestone(Phase phase, long atNs) {
+        phase(phase, atNs, atNs);
+    }
+
+    synchronized boolean has(Phase phase) {
+        return endNs[phase.ordinal()] != 0;
+    }
+
+    /** When {@code phase} ended, in ms after the origin, or -1 if it has not. */
+    synchronized double getEndMs(Phase phase) {
+        long end = endNs[phase.ordinal()];
+        return end == 0 ? -1 : (end - originNs) / 1e6;
+    }
+
+    synchronized double getDurationMs(Phase phase) {
+        long end = endNs[phase.ordinal()];
+        return end == 0 ? -1 : (end - startNs[phase.ordinal()]) / 1e6;
+    }
+
+    /** From the origin until the first pose was handed to the link, or -1 before then. */
+    double getTimeToFirstPoseMs() {
+        return getEndMs(Phase.FIRST_POSE);
+    }
+
+    @Override public synchronized String toString() {
+        StringBuilder sb = new StringBuilder("startup");
+        for (Phase phase : PHASES) {
+            int i = phase.ordinal();
+            if (endNs[i] == 0) continue;
+            sb.append(String.format(Locale.US, endNs[i] == startNs[i] ? "%n  %-17s at %6.0f ms"
+                    : "%n  %-17s at %6.0f ms, took %.0f ms",
+                    phase.name().toLowerCase(Locale.US), (endNs[i] - originNs) / 1e6,
+                    (endNs[i] - startNs[i]) / 1e6));
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,227 @@
+package com.example.alex.arcore_rosbridge;
+
+/**
+ * Registers AprilTags in ARCore world space on the phone, so the runtime gets one settled pose
+ * per tag instead of every noisy detection.
+ *
+ * <p>Each detection is moved into world space with the sensor-aligned camera pose of its frame
+ * and folded into a running estimate for its tag id: a mean position and rotation, and the
+ * spread of the observations behind them (per-axis position variance and rotation variance).
+ * The first {@link #WINDOW} observations are averaged evenly, later ones exponentially so a
+ * slow drift of the ARCore map is followed. Once an estimate has {@link #MIN_SAMPLES}
+ * observations, one further than {@link #OUTLIER_SIGMAS} standard deviations (or the minimum
+ * gates) is rejected; {@link #RESET_AFTER_REJECTS} rejections in a row mean the tag was moved,
+ * and the estimate starts again from there.
+ *
+ * <p>An estimate is reported once it has converged, then again whenever it moves by more than
+ * the send thresholds from what was last reported, and every {@link #RESEND_INTERVAL_NS} while
+ * the tag is in view in case a report was lost.
+ *
+ * <p>Detector thread only. Tag inputs use the AprilTag convention (x right, y down, z forward);
+ * ARCore camera poses use x right, y up, -z forward.
+ */
+final class TagRegistrationFilter {
+    /** One tag's estimate, in ARCore world space; valid until the next {@link #update}. */
+    static final class Estimate {
+        int id;
+        final float[] pos = new float[3];
+        final float[] quat = new float[4];
+        /** Variance of the accepted observations along each world axis, in m². */
+        final float[] posVar = new float[3];
+        /** Variance of the accepted observations' rotation from the mean, in rad². */
+        float rotVar;
+        int samples;
+        /** ARCore timestamp of the last frame the tag was accepted in. */
+        long frameTimestampNs;
+
+        private final float[] sentPos = new float[3];
+        private final float[] sentQuat = new float[4];
+        private long sentNs;
+        private boolean sent;
+        private int rejectedInARow;
+        private long lastSeenNs;
+
+        boolean isConverged() {
+            return samples >= MIN_SAMPLES
+                    && posVar[0] + posVar[1] + posVar[2] <= CONVERGED_POS_SIGMA_M * CONVERGED_POS_SIGMA_M
+                    && rotVar <= CONVERGED_ROT_SIGMA_RAD * CONVERGED_ROT_SIGMA_RAD;
+        }
+
+        private void reset() {
+            samples = 0;
+            rejectedInARow = 0;
+            sent = false;
+        }
+    }
+
+    static final int MAX_TAGS = 16;
+    static final int MIN_SAMPLES = 10;
+    static final int WINDOW = 60;
+
+    static final float CONVERGED_POS_SIGMA_M = 0.005f;
+    static final float CONVERGED_ROT_SIGMA_RAD = (float) Math.toRadians(1.0);
+    static final float SEND_POS_CHANGE_M = 0.005f;
+    static final float SEND_ROT_CHANGE_RAD = (float) Math.toRadians(1.0);
+    static final long RESEND_INTERVAL_NS = 5_000_000_000L;
+
+    static final float OUTLIER_SIGMAS = 4f;
+    private static final float OUTLIER_MIN_POS_M = 0.02f;
+    private static final float OUTLIER_MIN_ROT_RAD = (float) Math.toRadians(3.0);
+    static final int RESET_AFTER_REJECTS = 10;
+
+    private final Estimate[] estimates = new Estimate[MAX_TAGS];
+    private int count;
+
+    private final float[] obsPos = new float[3];
+    private final float[] obsQuat = new float[4];
+    private final float[] camRot = new float[9];
+
+    private long observations;
+    private long rejected;
+    private long resets;
+    private long reports;
+
+    /**
+     * Adds a detection and returns the tag's estimate if it should be reported now, else null.
+     *
+     * @param camPos  sensor-aligned camera position of the frame, in world space
+     * @param camQuat sensor-aligned camera rotation of the frame, in world space
+     * @param tagPos  tag position in AprilTag camera coordinates
+     * @param rotMat  tag rotation in AprilTag camera coordinates, row-major
+     */
+    Estimate update(int id, long frameTimestampNs, float[] camPos, float[] camQuat,
+                    float[] tagPos, float[] rotMat) {
+        observations++;
+        toWorld(camPos, camQuat, tagPos, rotMat);
+        Estimate e = find(id, frameTimestampNs);
+        e.lastSeenNs = frameTimestampNs;
+
+        if (e.samples > 0) {
+            // Keep the observation in the mean's hemisphere so averaging does not cancel out
+            if (obsQuat[0] * e.quat[0] + obsQuat[1] * e.quat[1] + obsQuat[2] * e.quat[2]
+                    + obsQuat[3] * e.quat[3] < 0f) {
+                for (int i = 0; i < 4; i++) obsQuat[i] = -obsQuat[i];
+            }
+        }
+        if (e.samples >= MIN_SAMPLES && isOutlier(e)) {
+            rejected++;
+            if (++e.rejectedInARow < RESET_AFTER_REJECTS) return null;
+            resets++;
+            e.reset();
+        }
+        e.rejectedInARow = 0;
+        accept(e, frameTimestampNs);
+
+        if (!e.isConverged()) return null;
+        if (e.sent && frameTimestampNs - e.sentNs < RESEND_INTERVAL_NS
+                && distance(e.pos, e.sentPos) < SEND_POS_CHANGE_M
+                && PoseMath.angleBetween(e.quat, e.sentQuat) < SEND_ROT_CHANGE_RAD) {
+            return null;
+        }
+        e.sent = true;
+        e.sentNs = frameTimestampNs;
+        System.arraycopy(e.pos, 0, e.sentPos, 0, 3);
+        System.arraycopy(e.quat, 0, e.sentQuat, 0, 4);
+        reports++;
+        return e;
+    }
+
+    /** Moves a detection into world space, into {@link #obsPos} and {@link #obsQuat}. */
+    private void toWorld(float[] camPos, float[] camQuat, float[] tagPos, float[] rotMat) {
+        obsPos[0] = tagPos[0];
+        obsPos[1] = -tagPos[1];
+        obsPos[2] = -tagPos[2];
+        PoseMath.rotate(camQuat, obsPos, obsPos);
+        for (int i = 0; i < 3; i++) obsPos[i] += camPos[i];
+        // The tag's axes are unchanged; its rotation is re-expressed in ARCore camera axes
+        for (int j = 0; j < 3; j++) {
+            camRot[j] = rotMat[j];
+            camRot[3 + j] = -rotMat[3 + j];
+            camRot[6 + j] = -rotMat[6 + j];
+        }
+        PoseMath.fromMatrix(camRot, obsQuat);
+        PoseMath.multiply(camQuat, obsQuat, obsQuat);
+        PoseMath.normalize(obsQuat);
+    }
+
+    private boolean isOutlier(Estimate e) {
+        float posGate = Math.max(OUTLIER_MIN_POS_M,
+                OUTLIER_SIGMAS * (float) Math.sqrt(e.posVar[0] + e.posVar[1] + e.posVar[2]));
+        float rotGate = Math.max(OUTLIER_MIN_ROT_RAD, OUTLIER_SIGMAS * (float) Math.sqrt(e.rotVar));
+        return distance(obsPos, e.pos) > posGate || PoseMath.angleBetween(obsQuat, e.quat) > rotGate;
+    }
+
+    private void accept(Estimate e, long frameTimestampNs) {
+        e.frameTimestampNs = frameTimestampNs;
+        if (++e.samples == 1) {
+            System.arraycopy(obsPos, 0, e.pos, 0, 3);
+            System.arraycopy(obsQuat, 0, e.quat, 0, 4);
+            e.posVar[0] = e.posVar[1] = e.posVar[2] = 0f;
+            e.rotVar = 0f;
+            return;
+        }
+        // Running mean and variance; alpha = 1/n is the exact average until the window fills
+        float alpha = 1f / Math.min(e.samples, WINDOW);
+        for (int i = 0; i < 3; i++) {
+            float d = obsPos[i] - e.pos[i];
+            e.pos[i] += alpha * d;
+            e.posVar[i] = (1f - alpha) * (e.posVar[i] + alpha * d * d);
+        }
+        float angle = PoseMath.angleBetween(obsQuat, e.quat);
+        for (int i = 0; i < 4; i++) e.quat[i] += alpha * (obsQuat[i] - e.quat[i]);
+        PoseMath.normalize(e.quat);
+        e.rotVar = (1f - alpha) * (e.rotVar + alpha * angle * angle);
+    }
+
+    /** The estimate for {@code id}, taking over the longest unseen one when all are in use. */
+    private Estimate find(int id, long nowNs) {
+        Estimate oldest = null;
+        for (int i = 0; i < count; i++) {
+            Estimate e = estimates[i];
+            if (e.id == id) return e;
+            if (oldest == null || e.lastSeenNs < oldest.lastSeenNs) oldest = e;
+        }
+        Estimate e;
+        if (count < MAX_TAGS) {
+            e = estimates[count++] = new Estimate();
+        } else {
+            e = oldest;
+        }
+        e.id = id;
+        e.lastSeenNs = nowNs;
+        e.reset();
+        return e;
+    }
+
+    private static float distance(float[] a, float[] b) {
+        float dx = a[0] - b[0], dy = a[1] - b[1], dz = a[2] - b[2];
+        return (float) Math.sqrt(dx * dx + dy * dy + dz * dz);
+    }
+
+    /** The current estimate for {@code id}, or null if the tag has not been seen. */
+    Estimate get(int id) {
+        for (int i = 0; i < count; i++) {
+            if (estimates[i].id == id) return estimates[i];
+        }
+        return null;
+    }
+
+    long getObservationCount() {
+        return observations;
+    }
+
+    /** Observations discarded as outliers. */
+    long getRejectedCount() {
+        return rejected;
+    }
+
+    /** Estimates restarted because their tag appeared to have moved. */
+    long getResetCount() {
+        return resets;
+    }
+
+    /** Estimates returned for reporting. */
+    long getReportCount() {
+        return reports;
+    }
+}
@@ -0,0 +1,328 @@
+package com.example.alex.arcore_rosbridge;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Locale;
+
+/**
+ * Reads a {@link TelemetryRecorder} file on the JVM: a cursor over its records, a latency
+ * summary, and a replay of the recorded poses and detections through {@link PacketEncoder} and
+ * {@link WriteScheduler} over a simulated link, so changes to either can be benchmarked
+ * reproducibly without a phone.
+ *
+ * Usage: {@code TelemetryReader <telemetry.bin> [connectionIntervalMs]}
+ */
+final class TelemetryReader {
+    private final ByteBuffer data;
+    private final long wallClockStartMs;
+    private final int count;
+    private int index = -1;
+    private int at;
+
+    TelemetryReader(File path) throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(path, "r")) {
+            data = file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, file.length())
+                    .order(ByteOrder.LITTLE_ENDIAN);
+        }
+        if (data.limit() < TelemetryRecorder.HEADER_LENGTH
+                || data.getInt(0) != TelemetryRecorder.MAGIC) {
+            throw new IOException("Not a telemetry file: " + path);
+        }
+        if (data.getShort(4) != TelemetryRecorder.VERSION
+                || data.getShort(6) != TelemetryRecorder.RECORD_LENGTH) {
+            throw new IOException("Unsupported telemetry version " + data.getShort(4));
+        }
+        wallClockStartMs = data.getLong(8);
+        count = (data.limit() - TelemetryRecorder.HEADER_LENGTH) / TelemetryRecorder.RECORD_LENGTH;
+    }
+
+    long getWallClockStartMs() {
+        return wallClockStartMs;
+    }
+
+    int getRecordCount() {
+        return count;
+    }
+
+    /* ───────── Cursor ───────── */
+
+    /** Advances to the next record; returns false past the last one. */
+    boolean next() {
+        if (index + 1 >= count) return false;
+        index++;
+        at = TelemetryRecorder.HEADER_LENGTH + index * TelemetryRecorder.RECORD_LENGTH;
+        return true;
+    }
+
+    void rewind() {
+        index = -1;
+    }
+
+    byte type()  { return data.get(at); }
+    int aux()    { return data.getInt(at + 4); }
+    long t0()    { return data.getLong(at + 8); }
+    long t1()    { return data.getLong(at + 16); }
+    long t2()    { return data.getLong(at + 24); }
+
+    /** FRAME records: the camera pose. */
+    void pose(float[] pos, float[] quat) {
+        for (int i = 0; i < 3; i++) pos[i] = data.getFloat(at + 32 + i * 4);
+        for (int i = 0; i < 4; i++) quat[i] = data.getFloat(at + 44 + i * 4);
+    }
+
+    /** WRITE records: messages carried by the write. */
+    int messages()     { return data.getInt(at + 32); }
+    /** WRITE records: whether the stack accepted the write. */
+    boolean accepted() { return data.getInt(at + 36) != 0; }
+    /** WRITE records: poses coalesced by the scheduler up to this write. */
+    long coalesced()   { return data.getLong(at + 40); }
+    /** LINK records: whether the link was re-established after a loss. */
+    boolean reconnect() { return data.getInt(at + 32) != 0; }
+    /** TIER records: the tier changed from; {@link #aux()} is the new one. */
+    int fromTier()          { return data.getInt(at + 32); }
+    int thermalStatus()     { return data.getInt(at + 36); }
+    int batteryPercent()    { return data.getInt(at + 40); }
+    boolean charging()      { return data.getInt(at + 44) != 0; }
+    float framePeriodMs()   { return data.getFloat(at + 48); }
+    float detectionLatencyMs() { return data.getFloat(at + 52); }
+
+    /* ───────── Summary ───────── */
+
+    static final class Summary {
+        int frames;
+        int trackingFrames;
+        int detections;
+        int tags;
+        int writes;
+        int refusedWrites;
+        int failedWrites;
+        int poseWrites;
+        long coalescedPoses;
+        double meanUpdateMs;
+        double meanWriteCallMs;
+        // Pose sampled (update start) to writeCharacteristic returning, accepted writes only
+        double latencyP50Ms;
+        double latencyP95Ms;
+        double latencyMaxMs;
+        int links;
+        int reconnects;
+        // Link loss to first pose written, reconnects only
+        double reconnectMeanMs;
+        double reconnectMaxMs;
+        int tierChanges;
+        int worstTier;
+        // Origin (process start) to the first pose handed to the link, -1 if not recorded
+        double timeToFirstPoseMs = -1;
+
+        @Override public String toString() {
+            return String.format(Locale.US,
+                    "frames %d (tracking %d), update %.2f ms%n"
+                    + "detections %d, tags %d%n"
+                    + "writes %d (refused %d, failed %d), call %.3f ms, poses written %d, coalesced %d%n"
+                    + "pose → write latency p50 %.1f ms, p95 %.1f ms, max %.1f ms%n"
+                    + "links %d, reconnects %d, loss → pose mean %.0f ms, max %.0f ms%n"
+                    + "tier changes %d, worst tier %d%n"
+                    + "time to first pose %.0f ms",
+                    frames, trackingFrames, meanUpdateMs, detections, tags,
+                    writes, refusedWrites, failedWrites, meanWriteCallMs, poseWrites, coalescedPoses,
+                    latencyP50Ms, latencyP95Ms, latencyMaxMs,
+                    links, reconnects, reconnectMeanMs, reconnectMaxMs, tierChanges, worstTier,
+                    timeToFirstPoseMs);
+        }
+    }
+
+    Summary summarize() {
+        Summary s = new Summary();
+        long[] latencies = new long[64];
+        long updateNs = 0, callNs = 0, reconnectNs = 0;
+        rewind();
+        while (next()) {
+            switch (type()) {
+                case TelemetryRecorder.FRAME:
+                    s.frames++;
+                    if (aux() != 0) s.trackingFrames++;
+                    updateNs += t1() - t0();
+                    break;
+                case TelemetryRecorder.DETECTION:
+                    s.detections++;
+                    s.tags += aux();
+                    break;
+                case TelemetryRecorder.WRITE_DONE:
+                    if (aux() == 0) s.failedWrites++;
+                    break;
+                case TelemetryRecorder.WRITE:
+                    s.writes++;
+                    callNs += t1() - t0();
+                    s.coalescedPoses = coalesced();
+                    if (!accepted()) {
+                        s.refusedWrites++;
+                    } else if (t2() != 0) {
+                        if (s.poseWrites == latencies.length) {
+                            latencies = Arrays.copyOf(latencies, latencies.length * 2);
+                        }
+                        latencies[s.poseWrites++] = t1() - t2();
+                    }
+                    break;
+                case TelemetryRecorder.LINK:
+                    s.links++;
+                    if (reconnect()) {
+                        s.reconnects++;
+                        reconnectNs += t2() - t0();
+                        s.reconnectMaxMs = Math.max(s.reconnectMaxMs, (t2() - t0()) / 1e6);
+                    }
+                    break;
+                case TelemetryRecorder.TIER:
+                    s.tierChanges++;
+                    s.worstTier = Math.max(s.worstTier, aux());
+                    break;
+                case TelemetryRecorder.STARTUP:
+                    if (aux() == StartupTimeline.Phase.FIRST_POSE.ordinal()) {
+                        s.timeToFirstPoseMs = (t2() - t0()) / 1e6;
+                    }
+                    break;
+            }
+        }
+        rewind();
+        if (s.frames > 0) s.meanUpdateMs = updateNs / 1e6 / s.frames;
+        if (s.writes > 0) s.meanWriteCallMs = callNs / 1e6 / s.writes;
+        if (s.reconnects > 0) s.reconnectMeanMs = reconnectNs / 1e6 / s.reconnects;
+        if (s.poseWrites > 0) {
+            Arrays.sort(latencies, 0, s.poseWrites);
+            s.latencyP50Ms = latencies[(s.poseWrites - 1) / 2] / 1e6;
+            s.latencyP95Ms = latencies[(int) ((s.poseWrites - 1) * 0.95)] / 1e6;
+            s.latencyMaxMs = latencies[s.poseWrites - 1] / 1e6;
+        }
+        return s;
+    }
+
+    /* ───────── Replay ───────── */
+
+    static final class ReplayResult {
+        long writes;
+        long bytes;
+        long messages;
+        long batches;
+        long coalesced;
+        double meanPoseAgeMs;
+        double maxPoseAgeMs;
+
+        @Override public String toString() {
+            return String.format(Locale.US,
+                    "writes %d, bytes %d, messages %d, batches %d, coalesced %d, pose age mean %.2f ms, max %.2f ms",
+                    writes, bytes, messages, batches, coalesced, meanPoseAgeMs, maxPoseAgeMs);
+        }
+    }
+
+    /**
+     * Feeds the recorded tracking poses and detections, at their recorded times, through a fresh
+     * encoder and scheduler. The simulated link accepts every write and completes it
+     * {@code connectionIntervalNs} later. Pose age is measured from update start to the write.
+     */
+    ReplayResult replay(long connectionIntervalNs, int maxWriteLength, boolean batching, byte poseFormat) {
+        return new Replay(connectionIntervalNs, maxWriteLength, batching, poseFormat).run();
+    }
+
+    private final class Replay implements WriteScheduler.Sink {
+        private final long interval;
+        private final PoseSlot poses = new PoseSlot();
+        private final PacketEncoder encoder = new PacketEncoder();
+        private final WriteScheduler scheduler = new WriteScheduler(poses, encoder, this);
+        private final ReplayResult result = new ReplayResult();
+        private final float[] pos = new float[3];
+        private final float[] quat = new float[4];
+        private final float[] rot = new float[9];
+        private long now;
+        private long completeAt = Long.MAX_VALUE;
+        private long poseWrites;
+        private double ageSumMs;
+
+        Replay(long interval, int maxWriteLength, boolean batching, byte poseFormat) {
+            this.interval = interval;
+            scheduler.setMaxWriteLength(maxWriteLength);
+            scheduler.setBatchingEnabled(batching);
+            scheduler.setPoseFormat(poseFormat);
+        }
+
+        ReplayResult run() {
+            rewind();
+            while (next()) {
+                switch (type()) {
+                    case TelemetryRecorder.FRAME:
+                        if (aux() == 0) break;
+                        advance(t0());
+                        pose(pos, quat);
+                        poses.put(pos, quat, t0());
+                        pump();
+                        break;
+                    case TelemetryRecorder.DETECTION:
+                        advance(t1());
+                        for (int id = 0; id < aux(); id++) {
+                            byte[] packet = encoder.encodeAprilTag(id, t2(), pos, quat, pos, rot);
+                            scheduler.offerAprilTag(packet, packet.length);
+                        }
+                        pump();
+                        break;
+                }
+            }
+            rewind();
+            while (completeAt != Long.MAX_VALUE) advance(completeAt);
+            result.messages = scheduler.getSentCount();
+            result.batches = scheduler.getBatchCount();
+            result.coalesced = scheduler.getCoalescedCount();
+            if (poseWrites > 0) result.meanPoseAgeMs = ageSumMs / poseWrites;
+            return result;
+        }
+
+        /** Completes simulated writes due by {@code t}, pumping after each. */
+        private void advance(long t) {
+            while (completeAt <= t) {
+                now = completeAt;
+                completeAt = Long.MAX_VALUE;
+                scheduler.onWriteComplete(true);
+                pump();
+            }
+            now = Math.max(now, t);
+        }
+
+        private void pump() {
+            if (completeAt == Long.MAX_VALUE) scheduler.pump(now / 1_000_000L);
+        }
+
+        @Override public boolean write(byte[] packet, int length) {
+            result.writes++;
+            result.bytes += length;
+            long stamp = scheduler.getWritePoseStamp();
+            if (stamp != 0) {
+                double age = (now - stamp) / 1e6;
+                ageSumMs += age;
+                poseWrites++;
+                result.maxPoseAgeMs = Math.max(result.maxPoseAgeMs, age);
+            }
+            completeAt = now + interval;
+            return true;
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length == 0) {
+            System.err.println("usage: TelemetryReader <telemetry.bin> [connectionIntervalMs]");
+            System.exit(2);
+        }
+        TelemetryReader reader = new TelemetryReader(new File(args[0]));
+        double intervalMs = args.length > 1 ? Double.parseDouble(args[1]) : 7.5;
+        System.out.println(reader.summarize());
+        long intervalNs = (long) (intervalMs * 1e6);
+        for (byte format : new byte[] {PacketEncoder.POSE_FORMAT_RAW, PacketEncoder.POSE_FORMAT_COMPACT}) {
+            for (boolean batching : new boolean[] {false, true}) {
+                System.out.printf(Locale.US, "replay %.1f ms, %s, batching %s: %s%n", intervalMs,
+                        format == PacketEncoder.POSE_FORMAT_COMPACT ? "compact" : "raw", batching,
+                        reader.replay(intervalNs, PacketEncoder.MAX_WRITE_LENGTH, batching, format));
+            }
+        }
+    }
+}
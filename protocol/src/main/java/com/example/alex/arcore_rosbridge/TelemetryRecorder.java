@@ -0,0 +1,266 @@
+package com.example.alex.arcore_rosbridge;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Low-overhead binary session log. Producers on any thread claim a fixed-size slot in a
+ * preallocated ring and fill it without allocating or locking; a "telemetry" thread copies
+ * committed slots, in order, into a memory-mapped file. When the ring is full the record is
+ * dropped and counted rather than stalling the caller. {@link TelemetryReader} reads the file.
+ *
+ * <p>File layout, little-endian: a {@link #HEADER_LENGTH}-byte header
+ * ({@code magic i32, version u16, recordLength u16, wallClockStartMs i64}) followed by
+ * {@link #RECORD_LENGTH}-byte records:
+ * <pre>
+ *   0  u8  type        4  i32 aux       8  i64 t0      16  i64 t1      24  i64 t2
+ *   32 28-byte payload, zero unless listed below
+ *
+ *   FRAME       aux=tracking  t0=update start  t1=update end   t2=camera timestamp
+ *               payload: f32 × 3 position, f32 × 4 quaternion
+ *   WRITE       aux=length    t0=call start    t1=call return  t2=stamp of the pose written (0 if none)
+ *               payload: i32 messages, i32 accepted (1/0), i64 poses coalesced so far
+ *   WRITE_DONE  aux=success   t0=callback time
+ *   DETECTION   aux=tags      t0=start         t1=end          t2=camera timestamp
+ *   LINK        aux=attempts  t0=start or loss t1=link ready    t2=first pose written
+ *               payload: i32 reconnect (1/0)
+ *   TIER        aux=new tier  t0=change time
+ *               payload: i32 old tier, i32 thermal status, i32 battery %, i32 charging (1/0),
+ *                        f32 frame period ms, f32 detection latency ms
+ *   STARTUP     aux=phase     t0=origin        t1=phase start  t2=phase end
+ * </pre>
+ * All times are {@code System.nanoTime()} except camera timestamps.
+ */
+final class TelemetryRecorder implements Closeable {
+    static final int MAGIC = 0x4D4C5450;   // "PTLM"
+    static final short VERSION = 1;
+    static final int HEADER_LENGTH = 16;
+    static final int RECORD_LENGTH = 64;
+
+    static final byte FRAME = 1;
+    static final byte WRITE = 2;
+    static final byte WRITE_DONE = 3;
+    static final byte DETECTION = 4;
+    static final byte LINK = 5;
+    static final byte TIER = 6;
+    static final byte STARTUP = 7;
+
+    private static final long FLUSH_INTERVAL_MS = 100;
+    // The file is mapped and extended in chunks of this many bytes
+    private static final int MAP_CHUNK = 1 << 20;
+
+    private final ByteBuffer ring;
+    private final int capacity;
+    private final AtomicLong claimed = new AtomicLong();
+    // Slot i holds seq + 1 once record seq has been fully written into it
+    private final AtomicLongArray committed;
+    private final AtomicLong dropped = new AtomicLong();
+    private volatile long flushed;
+
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private MappedByteBuffer mapped;
+    private long mappedOffset;
+    private final Thread flusher = new Thread(this::flushLoop, "telemetry");
+    private volatile boolean closed;
+
+    /** Creates (or truncates) {@code path}; {@code capacity} is rounded up to a power of two. */
+    TelemetryRecorder(File path, int capacity) throws IOException {
+        this.capacity = Integer.highestOneBit(Math.max(capacity - 1, 1)) << 1;
+        ring = ByteBuffer.allocateDirect(this.capacity * RECORD_LENGTH).order(ByteOrder.LITTLE_ENDIAN);
+        committed = new AtomicLongArray(this.capacity);
+        file = new RandomAccessFile(path, "rw");
+        file.setLength(0);
+        channel = file.getChannel();
+        map(0);
+        mapped.putInt(MAGIC);
+        mapped.putShort(VERSION);
+        mapped.putShort((short) RECORD_LENGTH);
+        mapped.putLong(System.currentTimeMillis());
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    /* ───────── Producers (any thread) ───────── */
+
+    void frame(long updateStartNs, long updateEndNs, long frameTimestampNs,
+               boolean tracking, float[] pos, float[] quat) {
+        long seq = claim();
+        if (seq < 0) return;
+        int at = offset(seq);
+        header(at, FRAME, tracking ? 1 : 0, updateStartNs, updateEndNs, frameTimestampNs);
+        for (int i = 0; i < 3; i++) ring.putFloat(at + 32 + i * 4, pos[i]);
+        for (int i = 0; i < 4; i++) ring.putFloat(at + 44 + i * 4, quat[i]);
+        commit(seq);
+    }
+
+    void write(long startNs, long endNs, int length, int messages, boolean accepted,
+               long poseStampNs, long coalesced) {
+        long seq = claim();
+        if (seq < 0) return;
+        int at = offset(seq);
+        header(at, WRITE, length, startNs, endNs, poseStampNs);
+        ring.putInt(at + 32, messages);
+        ring.putInt(at + 36, accepted ? 1 : 0);
+        ring.putLong(at + 40, coalesced);
+        commit(seq);
+    }
+
+    void writeComplete(long nowNs, boolean success) {
+        long seq = claim();
+        if (seq < 0) return;
+        int at = offset(seq);
+        header(at, WRITE_DONE, success ? 1 : 0, nowNs, 0L, 0L);
+        commit(seq);
+    }
+
+    void detection(long startNs, long endNs, long frameTimestampNs, int tags) {
+        long seq = claim();
+        if (seq < 0) return;
+        int at = offset(seq);
+        header(at, DETECTION, tags, startNs, endNs, frameTimestampNs);
+        commit(seq);
+    }
+
+    /** One record per link (re)establishment, written once its first pose has gone out. */
+    void link(long startNs, long readyNs, long firstPoseNs, int attempts, boolean reconnect) {
+        long seq = claim();
+        if (seq < 0) return;
+        int at = offset(seq);
+        header(at, LINK, attempts, startNs, readyNs, firstPoseNs);
+        ring.putInt(at + 32, reconnect ? 1 : 0);
+        commit(seq);
+    }
+
+    /** One record per {@link PerformanceGovernor} tier change, with the readings behind it. */
+    void tier(long nowNs, int from, int to, int thermalStatus, int batteryPercent, boolean charging,
+              float framePeriodMs, float detectionLatencyMs) {
+        long seq = claim();
+        if (seq < 0) return;
+        int at = offset(seq);
+        header(at, TIER, to, nowNs, 0L, 0L);
+        ring.putInt(at + 32, from);
+        ring.putInt(at + 36, thermalStatus);
+        ring.putInt(at + 40, batteryPercent);
+        ring.putInt(at + 44, charging ? 1 : 0);
+        ring.putFloat(at + 48, framePeriodMs);
+        ring.putFloat(at + 52, detectionLatencyMs);
+        commit(seq);
+    }
+
+    /** One record per {@link StartupTimeline} phase, as its ordinal. */
+    void startup(int phase, long originNs, long startNs, long endNs) {
+        long seq = claim();
+        if (seq < 0) return;
+        header(offset(seq), STARTUP, phase, originNs, startNs, endNs);
+        commit(seq);
+    }
+
+    /** Records lost because the flusher fell a full ring behind. */
+    long getDroppedCount() {
+        return dropped.get();
+    }
+
+    /** Records copied to the file so far. */
+    long getFlushedCount() {
+        return flushed;
+    }
+
+    /** Returns the sequence number of a claimed slot, or -1 if the ring is full. */
+    private long claim() {
+        if (closed) return -1;
+        while (true) {
+            long seq = claimed.get();
+            if (seq - flushed >= capacity) {
+                dropped.incrementAndGet();
+                return -1;
+            }
+            if (claimed.compareAndSet(seq, seq + 1)) return seq;
+        }
+    }
+
+    private int offset(long seq) {
+        return (int) (seq & (capacity - 1)) * RECORD_LENGTH;
+    }
+
+    private void header(int at, byte type, int aux, long t0, long t1, long t2) {
+        ring.putInt(at, type);
+        ring.putInt(at + 4, aux);
+        ring.putLong(at + 8, t0);
+        ring.putLong(at + 16, t1);
+        ring.putLong(at + 24, t2);
+        for (int i = 32; i < RECORD_LENGTH; i += 8) ring.putLong(at + i, 0L);
+    }
+
+    private void commit(long seq) {
+        committed.lazySet((int) (seq & (capacity - 1)), seq + 1);
+    }
+
+    /* ───────── Flusher ───────── */
+
+    private void flushLoop() {
+        while (!closed) {
+            try {
+                flush();
+                Thread.sleep(FLUSH_INTERVAL_MS);
+            } catch (InterruptedException e) {
+                return;
+            } catch (IOException e) {
+                closed = true;   // disk full or file gone; stop recording, keep the app running
+            }
+        }
+    }
+
+    /** Copies every contiguous committed record to the mapped file. */
+    private synchronized void flush() throws IOException {
+        long seq = flushed;
+        while (true) {
+            int slot = (int) (seq & (capacity - 1));
+            if (committed.get(slot) != seq + 1) break;
+            if (mapped.remaining() < RECORD_LENGTH) map(mappedOffset + mapped.position());
+            int at = slot * RECORD_LENGTH;
+            for (int i = 0; i < RECORD_LENGTH; i += 8) {
+                mapped.putLong(ring.getLong(at + i));
+            }
+            seq++;
+            flushed = seq;
+        }
+    }
+
+    private void map(long offset) throws IOException {
+        mappedOffset = offset;
+        mapped = channel.map(FileChannel.MapMode.READ_WRITE, offset, MAP_CHUNK);
+        mapped.order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /** Flushes what is left, trims the file to the records written and closes it. */
+    @Override public void close() throws IOException {
+        closed = true;
+        flusher.interrupt();
+        try {
+            flusher.join(1000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (this) {
+            if (!channel.isOpen()) return;
+            try {
+                flush();
+                mapped.force();
+            } finally {
+                long length = mappedOffset + mapped.position();
+                mapped = null;
+                channel.truncate(length);
+                file.close();
+            }
+        }
+    }
+}
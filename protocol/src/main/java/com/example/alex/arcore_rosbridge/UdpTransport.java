@@ -0,0 +1,221 @@
+package com.example.alex.arcore_rosbridge;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetSocketAddress;
+import java.net.SocketException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Sends Portal packets as UDP datagrams: [seq u16 LE][payload], where the payload is exactly what
+ * {@link BleClient} would write to the characteristic (a single packet or a 0x04 batch) and the
+ * sequence number lets the receiver count losses. There is no flow control to wait for, so each
+ * write completes as soon as the socket accepts it; poses still coalesce to the newest one.
+ * Datagrams the Portal sends back to this socket, in the same framing, go to the
+ * {@link ControlChannel}.
+ *
+ * <p>All sends happen on a "udp-tx" thread; the host name is resolved there as well. A "udp-rx"
+ * thread receives.
+ */
+final class UdpTransport implements PoseTransport {
+    static final int DEFAULT_PORT = 47000;
+    static final int HEADER_LENGTH = 2;
+
+    private final String host;
+    private final int port;
+    private final PoseSlot poseSlot = new PoseSlot();
+    private final PacketEncoder encoder = new PacketEncoder();
+    private final WriteScheduler scheduler;
+    private final ControlChannel control;
+    private final Thread txThread = new Thread(this::transmitLoop, "udp-tx");
+    private final Thread rxThread = new Thread(this::receiveLoop, "udp-rx");
+    private volatile boolean running;
+    private volatile byte poseFormat = POSE_FORMAT_RAW;
+    private volatile long sendErrors;
+
+    // Transmit-thread state
+    private final byte[] datagram = new byte[HEADER_LENGTH + PacketEncoder.MAX_WRITE_LENGTH];
+    private volatile DatagramSocket socket;
+    private DatagramPacket packet;
+    private int seq;
+    private boolean wrote;
+
+    UdpTransport(String host, int port) {
+        this.host = host;
+        this.port = port;
+        this.scheduler = new WriteScheduler(poseSlot, encoder, this::write);
+        scheduler.setMaxWriteLength(PacketEncoder.MAX_WRITE_LENGTH);
+        this.control = new ControlChannel(scheduler, encoder, () -> LockSupport.unpark(txThread));
+    }
+
+    /** Parses {@code host[:port]}. */
+    static UdpTransport forTarget(String target) {
+        int colon = target.lastIndexOf(':');
+        if (colon < 0) return new UdpTransport(target, DEFAULT_PORT);
+        return new UdpTransport(target.substring(0, colon), Integer.parseInt(target.substring(colon + 1)));
+    }
+
+    @Override public void start() {
+        scheduler.offerControl(encoder.encodeHello(poseFormat), PacketEncoder.HELLO_LENGTH);
+        running = true;
+        txThread.start();
+    }
+
+    @Override public void close() {
+        running = false;
+        LockSupport.unpark(txThread);
+        try {
+            txThread.join(1000);
+            rxThread.join(1000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override public void setPoseFormat(byte format) {
+        poseFormat = format;
+        control.setDefaultPoseFormat(format);
+    }
+
+    @Override public void setBatchingEnabled(boolean enabled) {
+        scheduler.setBatchingEnabled(enabled);
+    }
+
+    @Override public void setTelemetry(TelemetryRecorder recorder) {
+        scheduler.setTelemetry(recorder);
+    }
+
+    @Override public void publishPose(float[] pos, float[] quat, long sampledAtNs, long capturedAtNs) {
+        poseSlot.put(pos, quat, sampledAtNs, capturedAtNs);
+        LockSupport.unpark(txThread);
+    }
+
+    @Override public void queueAprilTag(int id, long frameTimestampNs, float[] camPos, float[] camQuat,
+                                        float[] pos, float[] rotMat) {
+        if (!control.isAprilTagReportingEnabled()) return;
+        scheduler.offerAprilTag(encoder.encodeAprilTag(id, frameTimestampNs, camPos, camQuat, pos, rotMat),
+                PacketEncoder.APRILTAG_LENGTH);
+    }
+
+    @Override public void queueTagEstimate(int id, long frameTimestampNs, float[] pos, float[] quat,
+                                           float[] posVar, float rotVar, int samples) {
+        if (!control.isAprilTagReportingEnabled()) return;
+        scheduler.offerAprilTag(encoder.encodeTagEstimate(id, frameTimestampNs, pos, quat, posVar, rotVar, samples),
+                PacketEncoder.TAG_ESTIMATE_LENGTH);
+    }
+
+    @Override public void flushAprilTags() {
+        LockSupport.unpark(txThread);
+    }
+
+    @Override public void sendCalibrationTrigger() {
+        if (scheduler.offerControl(encoder.encodeCalibration(), PacketEncoder.CALIBRATION_LENGTH)) {
+            LockSupport.unpark(txThread);
+        }
+    }
+
+    @Override public void sendButtonEvent(byte button, boolean pressed) {
+        if (scheduler.offerControl(encoder.encodeButton(button, pressed), PacketEncoder.BUTTON_LENGTH)) {
+            LockSupport.unpark(txThread);
+        }
+    }
+
+    @Override public long getSentPacketCount() {
+        return scheduler.getSentCount();
+    }
+
+    @Override public long getCoalescedPoseCount() {
+        return scheduler.getCoalescedCount();
+    }
+
+    @Override public long getDroppedPacketCount() {
+        return scheduler.getDroppedCount();
+    }
+
+    @Override public boolean isAprilTagReportingEnabled() {
+        return control.isAprilTagReportingEnabled();
+    }
+
+    @Override public double getRoundTripMs() {
+        return control.getRoundTripMs();
+    }
+
+    @Override public long getClockOffsetNs() {
+        return control.getClockOffsetNs();
+    }
+
+    @Override public long getFirstPoseSentNs() {
+        return scheduler.getFirstPoseNs();
+    }
+
+    /** Datagrams the socket refused; they are retried like refused GATT writes. */
+    long getSendErrorCount() {
+        return sendErrors;
+    }
+
+    /* ───────── Transmit thread ───────── */
+
+    private void transmitLoop() {
+        try {
+            InetSocketAddress target = new InetSocketAddress(host, port);
+            socket = new DatagramSocket();
+            socket.connect(target);   // and only hear from the Portal
+            packet = new DatagramPacket(datagram, datagram.length, target);
+        } catch (SocketException | IllegalArgumentException e) {
+            running = false;
+            return;
+        }
+        rxThread.start();
+        try {
+            while (running) {
+                wrote = false;
+                long now = System.nanoTime();
+                long pingDelay = control.poll(now);
+                long delay = scheduler.pump(now / 1_000_000L);
+                if (wrote) {
+                    scheduler.onWriteComplete(true);
+                    continue;
+                }
+                if (delay < 0 || delay > pingDelay) delay = pingDelay;
+                LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(delay));
+            }
+        } finally {
+            socket.close();   // ends the receive loop
+        }
+    }
+
+    private void receiveLoop() {
+        byte[] buffer = new byte[HEADER_LENGTH + PacketEncoder.MAX_WRITE_LENGTH];
+        DatagramPacket in = new DatagramPacket(buffer, buffer.length);
+        while (running) {
+            try {
+                in.setLength(buffer.length);
+                socket.receive(in);
+            } catch (IOException e) {
+                break;   // socket closed
+            }
+            if (in.getLength() > HEADER_LENGTH) {
+                control.onReceived(buffer, HEADER_LENGTH, in.getLength() - HEADER_LENGTH);
+            }
+        }
+    }
+
+    /** WriteScheduler sink; transmit thread only. */
+    private boolean write(byte[] payload, int length) {
+        datagram[0] = (byte) seq;
+        datagram[1] = (byte) (seq >>> 8);
+        System.arraycopy(payload, 0, datagram, HEADER_LENGTH, length);
+        packet.setLength(HEADER_LENGTH + length);
+        try {
+            socket.send(packet);
+        } catch (IOException e) {
+            sendErrors++;
+            return false;
+        }
+        seq = (seq + 1) & 0xFFFF;
+        wrote = true;
+        return true;
+    }
+}
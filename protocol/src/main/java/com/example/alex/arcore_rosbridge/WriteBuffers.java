@@ -0,0 +1,23 @@
+package com.example.alex.arcore_rosbridge;
+
+/**
+ * Reusable arrays of exact lengths for link APIs that take a whole array as the value, such as
+ * {@code BluetoothGattCharacteristic.setValue}. Covers every length a {@link WriteScheduler} can
+ * hand its sink, batches included, and allocates each length once.
+ *
+ * <p>Not thread-safe; use from the transmit thread.
+ */
+final class WriteBuffers {
+    private final byte[][] buffers = new byte[PacketEncoder.MAX_WRITE_LENGTH + 1][];
+
+    /** Copies {@code length} bytes of {@code packet} into the array for that length and returns it. */
+    byte[] copy(byte[] packet, int length) {
+        byte[] b = buffers[length];
+        if (b == null) {
+            b = new byte[length];
+            buffers[length] = b;
+        }
+        System.arraycopy(packet, 0, b, 0, length);
+        return b;
+    }
+}
@@ -0,0 +1,317 @@
+package com.example.alex.arcore_rosbridge;
+
+/**
+ * Decides which packet the transmit thread writes next and keeps at most one write in flight.
+ *
+ * <p>Priorities, highest first: control packets (buttons, calibration), AprilTag detections, then
+ * the newest pose. Control packets are never evicted; AprilTag detections evict the oldest entry
+ * when their queue is full; poses are coalesced in a {@link PoseSlot} and only encoded when they
+ * are about to be written, so a backlog always collapses to the freshest pose. With a minimum
+ * pose interval set, poses keep coalescing until the interval has passed since the last one.
+ *
+ * <p>{@link #pump} and {@link #onWriteComplete} must be called from the transmit thread, which
+ * also owns the encoder's pose buffer. The {@code offer*} methods and the counters may be used
+ * from any thread.
+ */
+final class WriteScheduler {
+    /** Writes one packet to the link; returns false if the stack refused it. */
+    interface Sink {
+        boolean write(byte[] packet, int length);
+    }
+
+    /** How long to wait for a write callback before assuming it was lost. */
+    static final long WRITE_TIMEOUT_MS = 250;
+    /** Back-off after the stack refuses a write. */
+    static final long RETRY_DELAY_MS = 5;
+
+    /** Largest write before the MTU exchange has completed (default ATT MTU of 23, minus 3). */
+    static final int DEFAULT_WRITE_LENGTH = 20;
+
+    private static final int MAX_BATCH_COUNT = 255;
+
+    private final PoseSlot poses;
+    private final PacketEncoder encoder;
+    private final Sink sink;
+    private volatile int maxWriteLength = DEFAULT_WRITE_LENGTH;
+    private volatile boolean batching = true;
+    private volatile byte poseFormat = PacketEncoder.POSE_FORMAT_RAW;
+    private volatile long minPoseIntervalMs;
+    private volatile ClockSync clock;
+    private volatile TelemetryRecorder telemetry;
+    private final PacketQueue control = new PacketQueue(16, PacketEncoder.MAX_PACKET_LENGTH);
+    // Room for every tag the detector can report from one frame
+    private final PacketQueue aprilTags =
+            new PacketQueue(RoiTracker.MAX_TRACKS, PacketEncoder.MAX_PACKET_LENGTH, true);
+    private final PacketQueue[] queues = { control, aprilTags };
+
+    // Transmit-thread state
+    private final float[] pos = new float[3];
+    private final float[] quat = new float[4];
+    // Staged after a batch header and length prefix even when it goes out alone
+    private final byte[] pending =
+            new byte[PacketEncoder.BATCH_HEADER_LENGTH + 1 + PacketEncoder.MAX_WRITE_LENGTH];
+    private int pendingLength;
+    private int pendingCount;
+    private boolean pendingPose;
+    private boolean pendingLonePose;
+    private long pendingPoseStamp;
+    private byte encodedPoseFormat = PacketEncoder.POSE_FORMAT_RAW;
+    private boolean inFlight;
+    private long inFlightSince;
+    private long lastPoseMs = Long.MIN_VALUE / 2;
+
+    private volatile long sent;
+    private volatile long batches;
+    private volatile long coalesced;
+    private volatile long refused;
+    private volatile long failed;
+    private volatile long timedOut;
+    private volatile long firstPoseNs;
+
+    WriteScheduler(PoseSlot poses, PacketEncoder encoder, Sink sink) {
+        this.poses = poses;
+        this.encoder = encoder;
+        this.sink = sink;
+    }
+
+    /** Sets the largest write the link accepts, i.e. the negotiated ATT MTU minus 3. */
+    void setMaxWriteLength(int length) {
+        maxWriteLength = Math.min(length, PacketEncoder.MAX_WRITE_LENGTH);
+    }
+
+    /** Enables packing several messages into one {@link PacketEncoder#PACKET_BATCH} write. */
+    void setBatchingEnabled(boolean enabled) {
+        batching = enabled;
+    }
+
+    /** Selects the pose encoding; takes effect with the next pose, starting with a keyframe. */
+    void setPoseFormat(byte format) {
+        poseFormat = format;
+    }
+
+    /** Sends at most one pose per {@code intervalMs}; 0 sends them as fast as the link allows. */
+    void setMinPoseIntervalMs(long intervalMs) {
+        minPoseIntervalMs = Math.max(0L, intervalMs);
+    }
+
+    long getMinPoseIntervalMs() {
+        return minPoseIntervalMs;
+    }
+
+    /** Clock that translates pose times for {@link PacketEncoder#POSE_FORMAT_TIMED}. */
+    void setClock(ClockSync clock) {
+        this.clock = clock;
+    }
+
+    /** Records every write and write outcome; null stops recording. */
+    void setTelemetry(TelemetryRecorder recorder) {
+        telemetry = recorder;
+    }
+
+    /** Queues a button or calibration packet; returns false if the control queue is full. */
+    boolean offerControl(byte[] packet, int length) {
+        return control.offer(packet, length);
+    }
+
+    /** Queues an AprilTag packet, evicting the oldest queued detection if necessary. */
+    void offerAprilTag(byte[] packet, int length) {
+        aprilTags.offer(packet, length);
+    }
+
+    /** Reports the outcome of the write currently in flight. */
+    void onWriteComplete(boolean success) {
+        inFlight = false;
+        TelemetryRecorder t = telemetry;
+        if (t != null) t.writeComplete(System.nanoTime(), success);
+        if (!success) {
+            failed++;
+            encoder.requestKeyframe();   // the failed write may have carried the keyframe
+        }
+    }
+
+    /**
+     * Writes the next packet if the link is free.
+     *
+     * @return milliseconds until {@code pump} should run again even if nothing else happens, or
+     *         -1 if there is nothing to do until a new packet is offered
+     */
+    long pump(long nowMs) {
+        if (inFlight) {
+            long waited = nowMs - inFlightSince;
+            if (waited < WRITE_TIMEOUT_MS) return WRITE_TIMEOUT_MS - waited;
+            inFlight = false;
+            timedOut++;
+        }
+        if (pendingLength > 0 && pendingLonePose && poses.hasPose()) {
+            // A newer pose arrived while the previous one was being refused – send that instead
+            if (pending[0] == PacketEncoder.PACKET_POSE_KEY) encoder.requestKeyframe();
+            pendingLength = 0;
+            coalesced++;
+        }
+        if (pendingLength == 0 && !selectNext(nowMs)) {
+            // Only a rate-limited pose can be waiting here
+            return poses.hasPose() ? lastPoseMs + minPoseIntervalMs - nowMs : -1;
+        }
+
+        TelemetryRecorder t = telemetry;
+        long start = t != null ? System.nanoTime() : 0L;
+        boolean accepted = sink.write(pending, pendingLength);
+        if (t != null) {
+            t.write(start, System.nanoTime(), pendingLength, pendingCount, accepted,
+                    pendingPoseStamp, getCoalescedCount());
+        }
+        if (!accepted) {
+            refused++;
+            return RETRY_DELAY_MS;
+        }
+        sent += pendingCount;
+        if (pendingCount > 1) batches++;
+        if (pendingPose) {
+            lastPoseMs = nowMs;
+            if (firstPoseNs == 0) firstPoseNs = System.nanoTime();
+        }
+        pendingLength = 0;
+        inFlight = true;
+        inFlightSince = nowMs;
+        return WRITE_TIMEOUT_MS;
+    }
+
+    /** Drops everything queued and forgets the in-flight write, e.g. after a disconnect. */
+    void reset() {
+        control.clear();
+        aprilTags.clear();
+        poses.clear();
+        pendingLength = 0;
+        inFlight = false;
+        lastPoseMs = Long.MIN_VALUE / 2;
+        encoder.requestKeyframe();
+    }
+
+    /**
+     * Fills {@code pending} with the next write. Messages are staged after a batch header with a
+     * length prefix each; a lone message is shifted down to go out unframed, so it may use the
+     * whole write, while batched messages share it with the framing.
+     */
+    private boolean selectNext(long nowMs) {
+        int maxLength = maxWriteLength;
+        int maxCount = batching ? MAX_BATCH_COUNT : 1;
+        int offset = PacketEncoder.BATCH_HEADER_LENGTH;
+        int count = 0;
+        boolean pose = false;
+        boolean lonePose = false;
+        long poseStamp = 0L;
+
+        for (PacketQueue queue : queues) {
+            int length;
+            while (count < maxCount
+                    && (length = queue.poll(pending, offset + 1, room(maxLength, offset, count))) > 0) {
+                pending[offset] = (byte) length;
+                offset += 1 + length;
+                count++;
+            }
+        }
+        if (count < maxCount && poses.hasPose() && nowMs - lastPoseMs >= minPoseIntervalMs) {
+            byte format = poseFormat;
+            if (format != encodedPoseFormat) {
+                encodedPoseFormat = format;
+                encoder.requestKeyframe();
+            }
+            int room = room(maxLength, offset, count);
+            if (encoder.nextPoseLength(format) <= room && poses.take(pos, quat)) {
+                byte[] encoded = encodePose(format);
+                if (encoded.length <= room) {
+                    System.arraycopy(encoded, 0, pending, offset + 1, encoded.length);
+                    pending[offset] = (byte) encoded.length;
+                    offset += 1 + encoded.length;
+                    pose = true;
+                    lonePose = count == 0;
+                    poseStamp = poses.getTakenStamp();
+                    count++;
+                } else {
+                    // A delta that had to become a keyframe and no longer fits; the next pose
+                    // goes out as a keyframe instead
+                    encoder.requestKeyframe();
+                    coalesced++;
+                }
+            }
+        }
+
+        if (count == 0) return false;
+        if (count == 1) {
+            int first = PacketEncoder.BATCH_HEADER_LENGTH + 1;
+            pendingLength = offset - first;
+            System.arraycopy(pending, first, pending, 0, pendingLength);
+        } else {
+            pending[0] = PacketEncoder.PACKET_BATCH;
+            pending[1] = (byte) count;
+            pendingLength = offset;
+        }
+        pendingCount = count;
+        pendingPose = pose;
+        pendingLonePose = lonePose;
+        pendingPoseStamp = poseStamp;
+        return true;
+    }
+
+    /** Bytes left for the next message: the whole write if it is the first, else the batch's rest. */
+    private static int room(int maxLength, int offset, int count) {
+        return count == 0 ? maxLength : maxLength - offset - 1;
+    }
+
+    private byte[] encodePose(byte format) {
+        if (format == PacketEncoder.POSE_FORMAT_COMPACT) return encoder.encodeCompactPose(pos, quat);
+        if (format == PacketEncoder.POSE_FORMAT_TIMED) {
+            ClockSync c = clock;
+            long captured = c != null ? c.toRemote(poses.getTakenPoseTime()) : 0L;
+            return encoder.encodeTimedPose(pos, quat, captured);
+        }
+        return encoder.encodePose(pos, quat);
+    }
+
+    /**
+     * Stamp the pose carried by the current write was published with, or 0 if it carries none.
+     * Only meaningful inside {@link Sink#write}.
+     */
+    long getWritePoseStamp() {
+        return pendingPoseStamp;
+    }
+
+    /** Messages accepted by the stack; a batch counts once per message it carries. */
+    long getSentCount() {
+        return sent;
+    }
+
+    /** Poses replaced by a newer one before they could be written. */
+    long getCoalescedCount() {
+        return coalesced + poses.getOverwrittenCount();
+    }
+
+    /** Control packets rejected and AprilTag detections evicted because their queue was full. */
+    long getDroppedCount() {
+        return control.getDroppedCount() + aprilTags.getDroppedCount();
+    }
+
+    /** Writes the stack refused to accept; these are retried, not lost. */
+    long getRefusedCount() {
+        return refused;
+    }
+
+    /** Writes the stack accepted but then reported as failed. */
+    long getFailedCount() {
+        return failed;
+    }
+
+    /** Writes that carried more than one message. */
+    long getBatchCount() {
+        return batches;
+    }
+
+    /** {@code System.nanoTime()} the first pose was accepted by the link, or 0 before then. */
+    long getFirstPoseNs() {
+        return firstPoseNs;
+    }
+
+    long getTimedOutCount() {
+        return timedOut;
+    }
+}
@@ -0,0 +1,36 @@
+package com.example.alex.arcore_rosbridge;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class CameraConfigSelectorTest {
+    private static CameraConfigSelector.Candidate c(int w, int h, int maxFps, boolean depth) {
+        return new CameraConfigSelector.Candidate(w, h, 30, maxFps, depth);
+    }
+
+    @Test
+    public void prefersTargetRateWithinDetectionBudget() {
+        CameraConfigSelector selector = new CameraConfigSelector(60, 50f, 640, 480);
+        List<CameraConfigSelector.Candidate> candidates = Arrays.asList(
+                c(640, 480, 30, false), c(640, 480, 60, false), c(1920, 1080, 60, false));
+        assertEquals(1, selector.select(candidates));
+
+        // A fast detector can afford the larger image
+        selector.setDetectorCost(10f);
+        assertEquals(2, selector.select(candidates));
+    }
+
+    @Test
+    public void penalisesDepthAndSkipsImagesBelowMinimum() {
+        CameraConfigSelector selector = new CameraConfigSelector(30, 50f, 640, 480);
+        assertEquals(1, selector.select(Arrays.asList(c(640, 480, 30, true), c(640, 480, 30, false))));
+        assertEquals(1, selector.select(Arrays.asList(c(320, 240, 60, false), c(640, 480, 30, false))));
+        assertEquals(0, selector.select(Arrays.asList(c(320, 240, 30, false))));
+        assertEquals(-1, selector.select(Arrays.<CameraConfigSelector.Candidate>asList()));
+        assertEquals("640x480@30-60+depth", c(640, 480, 60, true).key());
+    }
+}
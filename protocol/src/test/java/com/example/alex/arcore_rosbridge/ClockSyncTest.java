@@ -0,0 +1,62 @@
+package com.example.alex.arcore_rosbridge;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class ClockSyncTest {
+    private static final long OFFSET_NS = 123_456_789_000L;
+    private static final double DRIFT = 40e-6;   // the Portal's clock runs 40 ppm fast
+    private static final long ONE_WAY_NS = 3_000_000L;
+
+    private static long remote(long local) {
+        return local + OFFSET_NS + Math.round(DRIFT * local);
+    }
+
+    /**
+     * One ping a second for {@code seconds}, with a fixed 3 ms each way plus up to two 7.5 ms
+     * connection intervals of queueing on either leg, drawn independently.
+     */
+    private static ClockSync exchange(int seconds) {
+        ClockSync sync = new ClockSync();
+        Random random = new Random(7);
+        for (int i = 0; i < seconds; i++) {
+            long sent = i * 1_000_000_000L;
+            long arrives = sent + ONE_WAY_NS + (long) (random.nextDouble() * 15e6);
+            long replied = arrives + 200_000L;
+            long received = replied + ONE_WAY_NS + (long) (random.nextDouble() * 15e6);
+            assertTrue(sync.addSample(sent, remote(arrives), remote(replied), received));
+        }
+        return sync;
+    }
+
+    @Test
+    public void offsetIsBoundedByTheFastestRoundTrip() {
+        ClockSync sync = exchange(5);
+        assertTrue(sync.isSynced());
+        assertEquals(0.0, sync.getDrift(), 0.0);
+        long now = 4_000_000_000L;
+        long error = Math.abs(sync.toRemote(now) - remote(now));
+        assertTrue("error " + error, error <= sync.getBestRoundTripNs() / 2);
+    }
+
+    @Test
+    public void driftIsTrackedOverMinutes() {
+        ClockSync sync = exchange(300);
+        assertEquals(DRIFT, sync.getDrift(), 10e-6);
+        // A minute past the last exchange the estimate is still within a few milliseconds
+        long later = 360_000_000_000L;
+        assertEquals(remote(later), sync.toRemote(later), 3_000_000L);
+    }
+
+    @Test
+    public void inconsistentSamplesAreIgnored() {
+        ClockSync sync = new ClockSync();
+        assertFalse(sync.addSample(1_000L, 5_000L, 4_000L, 2_000L));   // replied before receiving
+        assertFalse(sync.addSample(1_000L, 5_000L, 9_000L, 2_000L));   // turnaround longer than the round trip
+        assertEquals(0, sync.getSampleCount());
+        assertEquals(0L, sync.toRemote(1_000L));
+    }
+}
@@ -0,0 +1,57 @@
+package com.example.alex.arcore_rosbridge;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class DetectionSchedulerTest {
+    private static final long MIN_MS = 33;
+    private static final long MAX_MS = 1000;
+    private static final long TAG_MEMORY_MS = 2000;
+
+    private final DetectionScheduler<String> scheduler =
+            new DetectionScheduler<>(0.25f, 0.5f, MIN_MS, MAX_MS, TAG_MEMORY_MS);
+
+    @Test
+    public void newerFrame_displacesThePendingOne() throws Exception {
+        assertNull(scheduler.offer("a", 0));
+        assertEquals("a", scheduler.offer("b", 10));
+        assertEquals(1, scheduler.getDroppedCount());
+
+        assertEquals("b", scheduler.take());
+        assertNull(scheduler.drain());
+        assertNull(scheduler.offer("c", 20));
+        assertEquals("c", scheduler.drain());
+        assertEquals(1, scheduler.getDroppedCount());
+    }
+
+    @Test
+    public void interval_followsLatencyAndBudget() {
+        // Nothing measured yet: capture as often as allowed
+        assertEquals(MIN_MS, scheduler.currentIntervalMs(0));
+        assertTrue(scheduler.shouldCapture(0));
+
+        // 40 ms per detection at a quarter of a core: one capture every 160 ms
+        scheduler.onDetectionFinished(0, 40, false);
+        assertEquals(160, scheduler.currentIntervalMs(100_000));
+        scheduler.offer("a", 100_000);
+        assertFalse(scheduler.shouldCapture(100_159));
+        assertTrue(scheduler.shouldCapture(100_160));
+
+        // Detection slower than the longest interval allows is capped
+        DetectionScheduler<String> slow = new DetectionScheduler<>(0.01f, 0.01f, MIN_MS, MAX_MS, TAG_MEMORY_MS);
+        slow.onDetectionFinished(0, 500, false);
+        assertEquals(MAX_MS, slow.currentIntervalMs(100_000));
+    }
+
+    @Test
+    public void tagsSeen_boostTheBudgetForAWhile() {
+        scheduler.onDetectionFinished(0, 40, true);
+        assertEquals(80, scheduler.currentIntervalMs(40));
+        assertEquals(80, scheduler.currentIntervalMs(40 + TAG_MEMORY_MS - 1));
+        assertEquals(160, scheduler.currentIntervalMs(40 + TAG_MEMORY_MS));
+
+        scheduler.setCpuBudget(0.1f, 0.2f);
+        assertEquals(400, scheduler.currentIntervalMs(40 + TAG_MEMORY_MS));
+    }
+}
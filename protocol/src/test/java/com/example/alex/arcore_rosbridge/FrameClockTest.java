@@ -0,0 +1,45 @@
+package com.example.alex.arcore_rosbridge;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class FrameClockTest {
+    private static final long SUSPENDED_NS = 3_600_000_000_000L;   // an hour asleep since boot
+    private static final long MONO_NOW = 50_000_000_000L;
+    private static final long BOOT_NOW = MONO_NOW + SUSPENDED_NS;
+    private static final long FRAME_AGE = 30_000_000L;
+
+    @Test
+    public void boottimeFrames_areUsedAsIs() {
+        FrameClock clock = new FrameClock();
+        assertTrue(clock.update(BOOT_NOW - FRAME_AGE, BOOT_NOW, MONO_NOW));
+        assertEquals(FrameClock.Timebase.BOOTTIME, clock.getTimebase());
+        assertEquals(BOOT_NOW - FRAME_AGE, clock.frameToBoottime(BOOT_NOW - FRAME_AGE));
+        assertEquals(MONO_NOW - FRAME_AGE, clock.frameToMonotonic(BOOT_NOW - FRAME_AGE));
+    }
+
+    @Test
+    public void monotonicFrames_areMovedOntoTheImuClock() {
+        FrameClock clock = new FrameClock();
+        assertTrue(clock.update(MONO_NOW - FRAME_AGE, BOOT_NOW, MONO_NOW));
+        assertEquals(FrameClock.Timebase.MONOTONIC, clock.getTimebase());
+        assertEquals(BOOT_NOW - FRAME_AGE, clock.frameToBoottime(MONO_NOW - FRAME_AGE));
+        assertEquals(MONO_NOW - FRAME_AGE, clock.frameToMonotonic(MONO_NOW - FRAME_AGE));
+        assertEquals(MONO_NOW, clock.boottimeToMonotonic(BOOT_NOW));
+
+        // Settled once; later frames only refresh the offset
+        assertFalse(clock.update(MONO_NOW + 1_000_000L, BOOT_NOW + 2_000_000L, MONO_NOW + 2_000_000L));
+        assertEquals(FrameClock.Timebase.MONOTONIC, clock.getTimebase());
+    }
+
+    @Test
+    public void closeClocks_leaveTheTimebaseOpen() {
+        FrameClock clock = new FrameClock();
+        long gap = 5_000_000L;
+        assertFalse(clock.update(MONO_NOW - FRAME_AGE, MONO_NOW + gap, MONO_NOW));
+        assertEquals(FrameClock.Timebase.UNKNOWN, clock.getTimebase());
+        // Either way the mapping is off by no more than the gap
+        assertEquals(MONO_NOW - FRAME_AGE + gap, clock.frameToBoottime(MONO_NOW - FRAME_AGE));
+    }
+}
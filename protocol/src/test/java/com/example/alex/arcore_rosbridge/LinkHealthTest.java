@@ -0,0 +1,57 @@
+package com.example.alex.arcore_rosbridge;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class LinkHealthTest {
+    private static final String ADDRESS = "00:11:22:33:44:55";
+
+    @Test
+    public void sample_measuresRateAndLossPerInterval() {
+        LinkHealth health = new LinkHealth(ADDRESS, 0);
+
+        LinkHealth.Stats s = health.sample("READY", 300, 0, 12, 18.5, 5_000);
+        assertEquals(60.0, s.packetsPerSecond, 1e-9);
+        assertEquals(0.0, s.lossPercent, 1e-9);
+        assertEquals(12, s.coalescedPoses);
+
+        // 90 sent and 10 lost in the second interval
+        s = health.sample("READY", 390, 10, 20, 19.0, 10_000);
+        assertEquals(390, s.sentPackets);
+        assertEquals(18.0, s.packetsPerSecond, 1e-9);
+        assertEquals(10, s.lostPackets);
+        assertEquals(10.0, s.lossPercent, 1e-9);
+        assertSame(s, health.getStats());
+
+        // Nothing sent or lost: no loss rather than a division by zero
+        s = health.sample("CONNECTING", 390, 10, 20, 19.0, 15_000);
+        assertEquals(0.0, s.packetsPerSecond, 1e-9);
+        assertEquals(0.0, s.lossPercent, 1e-9);
+    }
+
+    @Test
+    public void linkThatNeverComesUp_expires() {
+        LinkHealth health = new LinkHealth(ADDRESS, 1_000);
+        health.update(false, 2_000);
+        assertTrue(health.isLive(1_000 + LinkHealth.UNREADY_TIMEOUT_MS - 1));
+        health.update(false, 1_000 + LinkHealth.UNREADY_TIMEOUT_MS);
+        assertFalse(health.isLive(1_000 + LinkHealth.UNREADY_TIMEOUT_MS));
+    }
+
+    @Test
+    public void readyLink_staysLiveThroughShortDropouts() {
+        LinkHealth health = new LinkHealth(ADDRESS, 0);
+        health.update(true, 1_000);
+        assertTrue(health.isLive(1_000 + 10 * LinkHealth.UNREADY_TIMEOUT_MS));
+
+        long lostAt = 60_000;
+        health.update(false, lostAt);
+        assertTrue(health.isLive(lostAt + LinkHealth.UNREADY_TIMEOUT_MS / 2));
+        health.update(true, lostAt + LinkHealth.UNREADY_TIMEOUT_MS / 2);
+
+        health.update(false, 90_000);
+        assertTrue(health.isLive(90_000 + LinkHealth.UNREADY_TIMEOUT_MS - 1));
+        assertFalse(health.isLive(90_000 + LinkHealth.UNREADY_TIMEOUT_MS));
+    }
+}
@@ -0,0 +1,53 @@
+package com.example.alex.arcore_rosbridge;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class PacketDecoderTest {
+    private static final float[] POS = { 0.125f, -1.5f, 3.25f };
+    private static final float[] QUAT = { 0f, 0f, 0f, 1f };
+
+    private final List<Integer> buttons = new ArrayList<>();
+    private final PacketDecoder decoder = new PacketDecoder(new PacketDecoder.Listener() {
+        @Override
+        public void onButton(int button, boolean pressed) {
+            buttons.add(button);
+        }
+    });
+
+    @Test
+    public void batch_isUnpacked() {
+        PacketEncoder encoder = new PacketEncoder();
+        byte[] pose = encoder.encodePose(POS, QUAT).clone();
+        byte[] button = encoder.encodeButton((byte) 1, true).clone();
+        byte[] batch = new byte[PacketEncoder.BATCH_HEADER_LENGTH + 2 + pose.length + button.length];
+        batch[0] = PacketEncoder.PACKET_BATCH;
+        batch[1] = 2;
+        batch[2] = (byte) pose.length;
+        System.arraycopy(pose, 0, batch, 3, pose.length);
+        batch[3 + pose.length] = (byte) button.length;
+        System.arraycopy(button, 0, batch, 4 + pose.length, button.length);
+
+        assertEquals(2, decoder.decode(batch, 0, batch.length));
+        assertEquals(1, buttons.size());
+        assertEquals(0, decoder.getMalformedCount());
+    }
+
+    @Test
+    public void emptyBatchEntry_isMalformed() {
+        byte[] batch = { PacketEncoder.PACKET_BATCH, 1, 0 };
+        assertEquals(0, decoder.decode(batch, 0, batch.length));
+        assertEquals(1, decoder.getMalformedCount());
+    }
+
+    @Test
+    public void truncatedBatchEntry_isMalformed() {
+        byte[] batch = { PacketEncoder.PACKET_BATCH, 1, 5, PacketEncoder.PACKET_BUTTON, 1 };
+        assertEquals(0, decoder.decode(batch, 0, batch.length));
+        assertEquals(1, decoder.getMalformedCount());
+    }
+}
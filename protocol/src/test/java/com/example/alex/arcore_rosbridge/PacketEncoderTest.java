@@ -0,0 +1,190 @@
+package com.example.alex.arcore_rosbridge;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Checks {@link PacketEncoder} against the original wire format and verifies that encoding does
+ * not allocate once warmed up.
+ */
+public class PacketEncoderTest {
+    private static final float[] POS = { 0.125f, -1.5f, 3.25f };
+    private static final float[] QUAT = { 0.1f, -0.2f, 0.3f, 0.927f };
+    private static final float[] TAG_POS = { -0.01f, 0.02f, 0.45f };
+    private static final float[] ROT = { 1f, 0f, 0f, 0f, 0.8f, -0.6f, 0f, 0.6f, 0.8f };
+
+    @Test
+    public void pose_matchesWireFormat() {
+        ByteBuffer bb = ByteBuffer.allocate(1 + 4 * 7).order(ByteOrder.LITTLE_ENDIAN);
+        bb.put((byte) 0x00);
+        bb.putFloat(POS[0]).putFloat(POS[1]).putFloat(POS[2])
+          .putFloat(QUAT[0]).putFloat(QUAT[1]).putFloat(QUAT[2]).putFloat(QUAT[3]);
+
+        assertArrayEquals(bb.array(), new PacketEncoder().encodePose(POS, QUAT));
+    }
+
+    @Test
+    public void aprilTag_matchesWireFormat() {
+        ByteBuffer bb = ByteBuffer.allocate(1 + 4 + 4 * (3 + 4 + 3 + 9) + 8)
+                                  .order(ByteOrder.LITTLE_ENDIAN);
+        bb.put((byte) 0x02);
+        bb.putInt(17);
+        for (int i = 0; i < 3; i++) bb.putFloat(POS[i]);
+        for (int i = 0; i < 4; i++) bb.putFloat(QUAT[i]);
+        for (int i = 0; i < 3; i++) bb.putFloat(TAG_POS[i]);
+        for (int i = 0; i < 9; i++) bb.putFloat(ROT[i]);
+        bb.putLong(123_456_789_012L);
+
+        assertArrayEquals(bb.array(), new PacketEncoder().encodeAprilTag(17, 123_456_789_012L, POS, QUAT, TAG_POS, ROT));
+    }
+
+    @Test
+    public void tagEstimate_matchesWireFormat() {
+        float[] var = { 1e-6f, 2e-6f, 3e-6f };
+        ByteBuffer bb = ByteBuffer.allocate(PacketEncoder.TAG_ESTIMATE_LENGTH).order(ByteOrder.LITTLE_ENDIAN);
+        bb.put((byte) 0x0B);
+        bb.putInt(17);
+        for (int i = 0; i < 3; i++) bb.putFloat(POS[i]);
+        for (int i = 0; i < 4; i++) bb.putFloat(QUAT[i]);
+        for (int i = 0; i < 3; i++) bb.putFloat(var[i]);
+        bb.putFloat(4e-5f);
+        bb.putShort((short) 42);
+        bb.putLong(123_456_789_012L);
+
+        assertArrayEquals(bb.array(),
+                new PacketEncoder().encodeTagEstimate(17, 123_456_789_012L, POS, QUAT, var, 4e-5f, 42));
+    }
+
+    @Test
+    public void buttonAndCalibration_matchWireFormat() {
+        PacketEncoder encoder = new PacketEncoder();
+        assertArrayEquals(new byte[] { 0x03, 0x01, 1 }, encoder.encodeButton((byte) 0x01, true));
+        assertArrayEquals(new byte[] { 0x03, 0x00, 0 }, encoder.encodeButton((byte) 0x00, false));
+        assertArrayEquals(new byte[] { 0x01 }, encoder.encodeCalibration());
+    }
+
+    @Test
+    public void compactPose_startsWithKeyframeThenDeltas() {
+        PacketEncoder encoder = new PacketEncoder();
+        ByteBuffer key = ByteBuffer.wrap(encoder.encodeCompactPose(POS, QUAT).clone())
+                                   .order(ByteOrder.LITTLE_ENDIAN);
+        assertEquals(PacketEncoder.POSE_KEY_LENGTH, key.remaining());
+        assertEquals(PacketEncoder.PACKET_POSE_KEY, key.get());
+        assertEquals(0, key.get());
+        assertEquals(125, key.getInt());
+        assertEquals(-1500, key.getInt());
+        assertEquals(3250, key.getInt());
+        assertEquals(PacketEncoder.packQuaternion(QUAT), key.getInt());
+
+        float[] moved = { POS[0] + 0.0104f, POS[1] - 0.25f, POS[2] };
+        ByteBuffer delta = ByteBuffer.wrap(encoder.encodeCompactPose(moved, QUAT))
+                                     .order(ByteOrder.LITTLE_ENDIAN);
+        assertEquals(PacketEncoder.POSE_DELTA_LENGTH, delta.remaining());
+        assertEquals(PacketEncoder.PACKET_POSE_DELTA, delta.get());
+        assertEquals(1, delta.get());   // sequence
+        assertEquals(0, delta.get());   // keyframe sequence
+        assertEquals(10, delta.getShort());
+        assertEquals(-250, delta.getShort());
+        assertEquals(0, delta.getShort());
+        assertTrue(PacketEncoder.POSE_DELTA_LENGTH - 1 <= (PacketEncoder.POSE_LENGTH - 1) / 2);
+    }
+
+    @Test
+    public void compactPose_refreshesKeyframe() {
+        PacketEncoder encoder = new PacketEncoder();
+        assertEquals(PacketEncoder.PACKET_POSE_KEY, encoder.encodeCompactPose(POS, QUAT)[0]);
+        for (int i = 1; i < PacketEncoder.KEYFRAME_INTERVAL; i++) {
+            assertEquals(PacketEncoder.PACKET_POSE_DELTA, encoder.encodeCompactPose(POS, QUAT)[0]);
+        }
+        assertEquals(PacketEncoder.PACKET_POSE_KEY, encoder.encodeCompactPose(POS, QUAT)[0]);
+
+        // Moving more than a 16-bit millimetre delta away forces a keyframe
+        float[] far = { POS[0] + 40f, POS[1], POS[2] };
+        assertEquals(PacketEncoder.PACKET_POSE_KEY, encoder.encodeCompactPose(far, QUAT)[0]);
+
+        encoder.requestKeyframe();
+        assertEquals(PacketEncoder.PACKET_POSE_KEY, encoder.encodeCompactPose(far, QUAT)[0]);
+    }
+
+    @Test
+    public void quaternion_roundTripsWithinQuantisation() {
+        java.util.Random random = new java.util.Random(42);
+        float[] q = new float[4];
+        float[] out = new float[4];
+        for (int n = 0; n < 1000; n++) {
+            double norm = 0;
+            for (int i = 0; i < 4; i++) {
+                q[i] = (float) random.nextGaussian();
+                norm += q[i] * q[i];
+            }
+            for (int i = 0; i < 4; i++) q[i] /= (float) Math.sqrt(norm);
+
+            PacketEncoder.unpackQuaternion(PacketEncoder.packQuaternion(q), out);
+            double dot = 0;
+            for (int i = 0; i < 4; i++) dot += q[i] * out[i];
+            double angleDeg = Math.toDegrees(2 * Math.acos(Math.min(1.0, Math.abs(dot))));
+            assertTrue("error " + angleDeg + " deg", angleDeg < 0.25);
+        }
+    }
+
+    @Test
+    public void hello_announcesPoseFormat() {
+        assertArrayEquals(new byte[] { 0x05, PacketEncoder.PROTOCOL_VERSION, 1 },
+                new PacketEncoder().encodeHello(PacketEncoder.POSE_FORMAT_COMPACT));
+    }
+
+    @Test
+    public void encode_reusesBuffers() {
+        PacketEncoder encoder = new PacketEncoder();
+        byte[] first = encoder.encodePose(POS, QUAT);
+        assertSame(first, encoder.encodePose(QUAT, QUAT));
+        assertSame(encoder.encodeButton((byte) 0, true), encoder.encodeButton((byte) 1, false));
+    }
+
+    @Test
+    public void encode_doesNotAllocateAfterWarmUp() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean mx = (com.sun.management.ThreadMXBean) bean;
+        assumeTrue(mx.isThreadAllocatedMemorySupported());
+        mx.setThreadAllocatedMemoryEnabled(true);
+
+        PacketEncoder encoder = new PacketEncoder();
+        PacketQueue queue = new PacketQueue(4, PacketEncoder.MAX_PACKET_LENGTH);
+        byte[] scratch = new byte[PacketEncoder.MAX_PACKET_LENGTH];
+        int iterations = 10_000;
+        int sink = 0;
+        for (int i = 0; i < iterations; i++) {
+            sink += encodeAll(encoder, queue, scratch, i);
+        }
+
+        long tid = Thread.currentThread().getId();
+        long before = mx.getThreadAllocatedBytes(tid);
+        for (int i = 0; i < iterations; i++) {
+            sink += encodeAll(encoder, queue, scratch, i);
+        }
+        long allocated = mx.getThreadAllocatedBytes(tid) - before;
+
+        assertTrue(sink != 0);
+        // Allow for a little measurement noise, but nothing proportional to the iteration count.
+        assertTrue("allocated " + allocated + " bytes", allocated < 1024);
+    }
+
+    private static int encodeAll(PacketEncoder encoder, PacketQueue queue, byte[] scratch, int i) {
+        int n = encoder.encodePose(POS, QUAT)[1];
+        n += encoder.encodeCompactPose(POS, QUAT)[1];
+        byte[] tag = encoder.encodeAprilTag(i, i, POS, QUAT, TAG_POS, ROT);
+        queue.offer(tag, PacketEncoder.APRILTAG_LENGTH);
+        byte[] button = encoder.encodeButton((byte) (i & 1), (i & 2) != 0);
+        queue.offer(button, PacketEncoder.BUTTON_LENGTH);
+        n += queue.poll(scratch);
+        n += queue.poll(scratch);
+        return n + encoder.encodeCalibration()[0];
+    }
+}
@@ -0,0 +1,64 @@
+package com.example.alex.arcore_rosbridge;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class PerformanceGovernorTest {
+    private static final long FRAME_NS = 33_333_333L;
+
+    /** Runs the governor once a second for {@code seconds}, with a frame every {@code frameNs}. */
+    private static PerformanceGovernor.Tier run(PerformanceGovernor governor, long[] clockMs,
+                                                int seconds, long frameNs, float detectionMs) {
+        PerformanceGovernor.Tier tier = governor.getTier();
+        for (int i = 0; i < seconds; i++) {
+            for (long t = 0; t < 1_000_000_000L; t += frameNs) {
+                governor.onFrame(clockMs[0] * 1_000_000L + t);
+            }
+            clockMs[0] += 1000;
+            tier = governor.update(clockMs[0], detectionMs);
+        }
+        return tier;
+    }
+
+    @Test
+    public void thermalStatus_stepsDownAtOnceAndBackOneTierAtATime() {
+        PerformanceGovernor governor = new PerformanceGovernor();
+        long[] clock = { 0 };
+        assertEquals(PerformanceGovernor.Tier.FULL, run(governor, clock, 5, FRAME_NS, 20f));
+
+        governor.setThermalStatus(PerformanceGovernor.THERMAL_SEVERE);
+        assertEquals(PerformanceGovernor.Tier.LOW, run(governor, clock, 1, FRAME_NS, 20f));
+
+        governor.setThermalStatus(PerformanceGovernor.THERMAL_NONE);
+        assertEquals(PerformanceGovernor.Tier.LOW, run(governor, clock, 30, FRAME_NS, 20f));
+        assertEquals(PerformanceGovernor.Tier.REDUCED, run(governor, clock, 1, FRAME_NS, 20f));
+        assertEquals(PerformanceGovernor.Tier.FULL, run(governor, clock, 30, FRAME_NS, 20f));
+        assertEquals(3, governor.getChangeCount());
+    }
+
+    @Test
+    public void slowFramesAndDetection_stepDownWhileTheyLast() {
+        PerformanceGovernor governor = new PerformanceGovernor();
+        long[] clock = { 0 };
+        // 15 fps from a throttled camera
+        assertEquals(PerformanceGovernor.Tier.FULL, run(governor, clock, 4, 2 * FRAME_NS, 20f));
+        assertEquals(PerformanceGovernor.Tier.REDUCED, run(governor, clock, 2, 2 * FRAME_NS, 20f));
+        assertEquals(PerformanceGovernor.Tier.LOW, run(governor, clock, 5, FRAME_NS, 400f));
+
+        assertEquals(PerformanceGovernor.Tier.LOW, run(governor, clock, 20, FRAME_NS, 20f));
+        assertEquals(PerformanceGovernor.Tier.FULL, run(governor, clock, 150, FRAME_NS, 20f));
+    }
+
+    @Test
+    public void lowBattery_holdsReducedTierUntilCharging() {
+        PerformanceGovernor governor = new PerformanceGovernor();
+        long[] clock = { 0 };
+        governor.setBattery(15, false);
+        assertEquals(PerformanceGovernor.Tier.REDUCED, run(governor, clock, 1, FRAME_NS, 20f));
+        assertEquals(PerformanceGovernor.Tier.REDUCED, run(governor, clock, 60, FRAME_NS, 20f));
+
+        governor.setBattery(15, true);
+        assertEquals(PerformanceGovernor.Tier.FULL, run(governor, clock, 31, FRAME_NS, 20f));
+    }
+}
@@ -0,0 +1,67 @@
+package com.example.alex.arcore_rosbridge;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class PoseMathTest {
+    private static final float EPS = 1e-5f;
+
+    @Test
+    public void adjustQuaternion_isUnitLength() {
+        float[] q = PoseMath.adjustQuaternion(180f, -90f);
+        assertEquals(1f, length(q), EPS);
+
+        // Composing with a unit pose keeps it unit length
+        float[] pose = { 0.1f, -0.2f, 0.3f, 0.927f };
+        PoseMath.normalize(pose);
+        PoseMath.multiply(pose, q, pose);
+        assertEquals(1f, length(pose), EPS);
+    }
+
+    @Test
+    public void adjustQuaternion_survivesCompactRoundTrip() {
+        float[] q = PoseMath.adjustQuaternion(180f, -90f);
+        float[] out = new float[4];
+        PacketEncoder.unpackQuaternion(PacketEncoder.packQuaternion(q), out);
+        for (int i = 0; i < 4; i++) assertEquals(q[i], out[i], 2e-3f);
+        double angleDeg = Math.toDegrees(PoseMath.angleBetween(q, out));
+        assertTrue("error " + angleDeg + " deg", angleDeg < 0.25);
+    }
+
+    @Test
+    public void rotate_turnsAboutTheAxis() {
+        float s = (float) Math.sqrt(0.5);
+        float[] aboutZ = { 0f, 0f, s, s };   // 90 degrees about z
+        float[] v = { 1f, 2f, 3f };
+        float[] out = new float[3];
+        PoseMath.rotate(aboutZ, v, out);
+        assertArrayEquals(new float[] { -2f, 1f, 3f }, out, EPS);
+
+        PoseMath.inverseRotate(aboutZ, out, out);
+        assertArrayEquals(v, out, EPS);
+    }
+
+    @Test
+    public void rotate_matchesQuaternionProduct() {
+        float[] q = { 0.1f, -0.2f, 0.3f, 0.927f };
+        PoseMath.normalize(q);
+        float[] v = { 0.5f, -1.5f, 2f };
+
+        // q * (v, 0) * conj(q)
+        float[] p = { v[0], v[1], v[2], 0f };
+        PoseMath.multiply(q, p, p);
+        PoseMath.multiply(p, new float[] { -q[0], -q[1], -q[2], q[3] }, p);
+
+        float[] out = v.clone();
+        PoseMath.rotate(q, out, out);   // in place
+        assertArrayEquals(new float[] { p[0], p[1], p[2] }, out, EPS);
+
+        PoseMath.inverseRotate(q, out, out);
+        assertArrayEquals(v, out, EPS);
+    }
+
+    private static float length(float[] q) {
+        return (float) Math.sqrt(q[0] * q[0] + q[1] * q[1] + q[2] * q[2] + q[3] * q[3]);
+    }
+}
@@ -0,0 +1,101 @@
+package com.example.alex.arcore_rosbridge;
+
+import org.junit.Test;
+
+import java.io.StringReader;
+import java.io.StringWriter;
+
+import static org.junit.Assert.*;
+
+/**
+ * Replays a synthetic recording – 30 Hz poses arriving 30 ms after capture, 400 Hz gyro – and
+ * checks that prediction beats holding the last pose at every horizon.
+ */
+public class PosePredictorTest {
+    private static final long STEP_NS = 250_000L;          // truth integration step
+    private static final int GYRO_STEPS = 10;               // 400 Hz
+    private static final int POSE_STEPS = 133;              // ~30 Hz
+    private static final int POSE_LATENCY_STEPS = 120;      // 30 ms capture-to-available
+    private static final int TOTAL_STEPS = 20_000;          // 5 s
+
+    private static void angularVelocity(double t, float[] w) {
+        w[0] = (float) (0.8 * Math.sin(2.0 * t));
+        w[1] = 2.0f;
+        w[2] = (float) (0.5 * Math.cos(1.3 * t));
+    }
+
+    private static void position(double t, float[] p) {
+        p[0] = (float) (0.3 * Math.sin(1.5 * t));
+        p[1] = (float) (0.1 * t);
+        p[2] = (float) (0.2 * Math.cos(t));
+    }
+
+    private static PoseReplay syntheticLog() throws Exception {
+        int n = TOTAL_STEPS + 1;
+        float[] quats = new float[n * 4];
+        float[] q = {0f, 0f, 0f, 1f}, w = new float[3], d = new float[4];
+        for (int i = 0; i < n; i++) {
+            System.arraycopy(q, 0, quats, i * 4, 4);
+            angularVelocity(i * STEP_NS * 1e-9, w);
+            double rate = Math.sqrt(w[0] * w[0] + w[1] * w[1] + w[2] * w[2]);
+            double half = rate * STEP_NS * 0.5e-9;
+            double s = Math.sin(half) / rate;
+            d[0] = (float) (w[0] * s);
+            d[1] = (float) (w[1] * s);
+            d[2] = (float) (w[2] * s);
+            d[3] = (float) Math.cos(half);
+            PoseMath.multiply(q, d, q);
+            PoseMath.normalize(q);
+        }
+
+        StringWriter log = new StringWriter();
+        PoseReplay.Recorder recorder = new PoseReplay.Recorder(log);
+        float[] p = new float[3], quat = new float[4];
+        for (int i = 0; i <= TOTAL_STEPS; i++) {
+            // A pose captured POSE_LATENCY_STEPS ago becomes available now
+            int captured = i - POSE_LATENCY_STEPS;
+            if (captured >= 0 && captured % POSE_STEPS == 0) {
+                position(captured * STEP_NS * 1e-9, p);
+                System.arraycopy(quats, captured * 4, quat, 0, 4);
+                recorder.pose(captured * STEP_NS, p, quat);
+            }
+            if (i % GYRO_STEPS == 0) {
+                angularVelocity(i * STEP_NS * 1e-9, w);
+                recorder.gyro(i * STEP_NS, w[0], w[1], w[2]);
+            }
+        }
+        recorder.close();
+        assertFalse(recorder.hasFailed());
+        return PoseReplay.load(new StringReader(log.toString()));
+    }
+
+    @Test
+    public void predictionBeatsHoldingTheLastPose() throws Exception {
+        PoseReplay replay = syntheticLog();
+        long[] horizons = {0L, 20_000_000L, 50_000_000L};
+        for (PoseReplay.Result r : replay.run(horizons, 0f)) {
+            assertTrue(r.samples > 1000);
+            assertTrue(r.toString(), r.predictedAngleDeg < r.heldAngleDeg * 0.1);
+            assertTrue(r.toString(), r.predictedPositionMm < r.heldPositionMm * 0.5);
+        }
+    }
+
+    @Test
+    public void predictionIsClampedToTheMaxHorizon() {
+        PosePredictor predictor = new PosePredictor();
+        predictor.setMaxHorizonNs(10_000_000L);
+        float[] pos = new float[3], quat = new float[4];
+        assertFalse(predictor.predict(0L, pos, quat));
+
+        predictor.onPose(0L, new float[] {0f, 0f, 0f}, new float[] {0f, 0f, 0f, 1f});
+        predictor.onPose(10_000_000L, new float[] {0.01f, 0f, 0f}, new float[] {0f, 0f, 0f, 1f});
+        predictor.onGyro(10_000_000L, 0f, 0f, 1f);
+        assertTrue(predictor.predict(1_000_000_000L, pos, quat));
+        // Velocity is smoothed to half of 1 m/s; 10 ms of it and of 1 rad/s at most
+        assertEquals(0.01f + 0.005f, pos[0], 1e-4f);
+        assertEquals(Math.sin(0.005), quat[2], 1e-4);
+
+        predictor.reset();
+        assertFalse(predictor.predict(1_000_000_000L, pos, quat));
+    }
+}
@@ -0,0 +1,72 @@
+package com.example.alex.arcore_rosbridge;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class PoseRateControllerTest {
+    private static final long FRAME_NS = 16_666_667L;
+
+    private final Random random = new Random(3);
+    private final float[] pos = new float[3];
+    private final float[] quat = { 0f, 0f, 0f, 1f };
+
+    /** A pose at {@code x} with 0.2 mm of tracking jitter. */
+    private void jitter(float x) {
+        pos[0] = x + 0.0002f * (float) random.nextGaussian();
+        pos[1] = 0.0002f * (float) random.nextGaussian();
+        pos[2] = 0.0002f * (float) random.nextGaussian();
+    }
+
+    @Test
+    public void still_dropsToHeartbeatWithBoundedStaleness() {
+        PoseRateController rate = new PoseRateController(0.02f, 3f, 100);
+        long t = 0;
+        long lastSent = 0;
+        long maxGap = 0;
+        for (int i = 0; i < 600; i++) {
+            t += FRAME_NS;
+            jitter(0f);
+            if (rate.shouldSend(pos, quat, t)) {
+                maxGap = Math.max(maxGap, t - lastSent);
+                lastSent = t;
+            }
+        }
+        assertTrue(rate.isStill());
+        assertTrue("max gap " + maxGap, maxGap <= 100_000_000L + FRAME_NS);
+        assertTrue(rate.getSavedFraction() > 0.8);
+        assertEquals(600, rate.getSentCount() + rate.getSavedCount());
+        assertTrue(rate.getHeartbeatCount() > 0);
+    }
+
+    @Test
+    public void motion_returnsToFullRateAtOnce() {
+        PoseRateController rate = new PoseRateController(0.02f, 3f, 100);
+        long t = 0;
+        for (int i = 0; i < 120; i++) {
+            jitter(0f);
+            rate.shouldSend(pos, quat, t += FRAME_NS);
+        }
+        assertTrue(rate.isStill());
+
+        // 0.5 m/s: every frame goes out from the first one that moves
+        for (int i = 1; i <= 30; i++) {
+            jitter(0.5f * i * FRAME_NS / 1e9f);
+            assertTrue("frame " + i, rate.shouldSend(pos, quat, t += FRAME_NS));
+        }
+        assertFalse(rate.isStill());
+        assertEquals(1, rate.getMotionOnsetCount());
+
+        // Turning in place at 30 degrees/s counts as motion too
+        float x = pos[0];
+        for (int i = 1; i <= 30; i++) {
+            double half = Math.toRadians(30.0 * i * FRAME_NS / 1e9) / 2;
+            quat[1] = (float) Math.sin(half);
+            quat[3] = (float) Math.cos(half);
+            jitter(x);
+            assertTrue(rate.shouldSend(pos, quat, t += FRAME_NS));
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package com.example.alex.arcore_rosbridge;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class RoiTrackerTest {
+    private static final float F = 500f, CX = 320f, CY = 240f;
+    private static final int W = 640, H = 480;
+    private static final float[] ORIGIN = { 0f, 0f, 0f };
+    private static final float[] IDENTITY = { 0f, 0f, 0f, 1f };
+
+    private final RoiTracker tracker = new RoiTracker(0.1f);
+    private final int[] roi = new int[4];
+
+    private void track(float x, float y, float z, float[] camPos, float[] camQuat) {
+        assertFalse(tracker.predict(camPos, camQuat, F, F, CX, CY, W, H, roi));
+        tracker.beginUpdate();
+        tracker.observe(x, y, z, camPos, camQuat);
+    }
+
+    @Test
+    public void tagAhead_isProjectedToTheImageCentre() {
+        track(0f, 0f, 1f, ORIGIN, IDENTITY);
+
+        // Half-size 1.5 * 0.1 m * 500 px / 1 m + 32 px of motion padding
+        assertTrue(tracker.predict(ORIGIN, IDENTITY, F, F, CX, CY, W, H, roi));
+        assertArrayEquals(new int[] { 213, 133, 214, 214 }, roi);
+    }
+
+    @Test
+    public void region_followsTheCamera() {
+        track(0.1f, -0.05f, 1f, ORIGIN, IDENTITY);
+
+        // AprilTag y points down, so the tag sits above the centre; moving the camera 10 cm right
+        // brings it back to the centre column
+        float[] moved = { 0.1f, 0f, 0f };
+        assertTrue(tracker.predict(moved, IDENTITY, F, F, CX, CY, W, H, roi));
+        assertEquals(320 - 107, roi[0]);
+        assertEquals(240 - 25 - 107, roi[1]);
+    }
+
+    @Test
+    public void rotatedCamera_seesTheTagWhereItObservedIt() {
+        float s = (float) Math.sqrt(0.5);
+        float[] yawed = { 0f, s, 0f, s };   // looking along -x instead of -z
+        float[] pos = { 1f, 0.5f, -2f };
+        track(0f, 0f, 1f, pos, yawed);
+
+        assertTrue(tracker.predict(pos, yawed, F, F, CX, CY, W, H, roi));
+        // Within a pixel, as the round trip through the rotation is not exact
+        int[] expected = { 213, 133, 214, 214 };
+        for (int i = 0; i < 4; i++) assertEquals(expected[i], roi[i], 1);
+
+        // Looking the other way the tag is behind the camera
+        assertFalse(tracker.predict(pos, IDENTITY, F, F, CX, CY, W, H, roi));
+    }
+
+    @Test
+    public void fullSearch_isInterleaved() {
+        track(0f, 0f, 1f, ORIGIN, IDENTITY);
+        for (int i = 0; i < RoiTracker.FULL_SEARCH_INTERVAL; i++) {
+            assertTrue(tracker.predict(ORIGIN, IDENTITY, F, F, CX, CY, W, H, roi));
+        }
+        assertFalse(tracker.predict(ORIGIN, IDENTITY, F, F, CX, CY, W, H, roi));
+        assertEquals(RoiTracker.FULL_SEARCH_INTERVAL, tracker.getRoiSearchCount());
+        assertEquals(2, tracker.getFullSearchCount());
+    }
+}
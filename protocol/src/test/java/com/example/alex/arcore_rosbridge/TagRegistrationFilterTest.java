@@ -0,0 +1,110 @@
+package com.example.alex.arcore_rosbridge;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class TagRegistrationFilterTest {
+    private static final long FRAME_NS = 33_333_333L;
+    // 30° about Y, then 20° about X
+    private static final float[] TAG_QUAT = new float[4];
+    static {
+        PoseMath.multiply(new float[] { 0f, (float) Math.sin(Math.toRadians(15)), 0f, (float) Math.cos(Math.toRadians(15)) },
+                new float[] { (float) Math.sin(Math.toRadians(10)), 0f, 0f, (float) Math.cos(Math.toRadians(10)) }, TAG_QUAT);
+    }
+
+    private final Random random = new Random(7);
+    private final float[] camPos = new float[3];
+    private final float[] camQuat = new float[4];
+    private final float[] tagPos = new float[3];
+    private final float[] rotMat = new float[9];
+
+    /**
+     * Builds the detection of a tag at {@code worldPos}, {@code worldQuat} from a camera wandering
+     * around the origin, with {@code noiseM} of position noise in camera space.
+     */
+    private void observe(float[] worldPos, float[] worldQuat, float noiseM) {
+        camPos[0] = 0.1f * (float) random.nextGaussian();
+        camPos[1] = 0.1f * (float) random.nextGaussian();
+        camPos[2] = 0.1f * (float) random.nextGaussian();
+        double half = Math.toRadians(10) * random.nextGaussian();
+        camQuat[0] = 0f;
+        camQuat[1] = (float) Math.sin(half);
+        camQuat[2] = 0f;
+        camQuat[3] = (float) Math.cos(half);
+
+        float[] rel = { worldPos[0] - camPos[0], worldPos[1] - camPos[1], worldPos[2] - camPos[2] };
+        PoseMath.inverseRotate(camQuat, rel, rel);
+        tagPos[0] = rel[0] + noiseM * (float) random.nextGaussian();
+        tagPos[1] = -rel[1] + noiseM * (float) random.nextGaussian();
+        tagPos[2] = -rel[2] + noiseM * (float) random.nextGaussian();
+
+        // Tag rotation in ARCore camera axes, then with Y and Z flipped to the AprilTag convention
+        float[] inv = { -camQuat[0], -camQuat[1], -camQuat[2], camQuat[3] };
+        float[] q = new float[4];
+        PoseMath.multiply(inv, worldQuat, q);
+        for (int col = 0; col < 3; col++) {
+            float[] axis = new float[3];
+            axis[col] = 1f;
+            PoseMath.rotate(q, axis, axis);
+            rotMat[col] = axis[0];
+            rotMat[3 + col] = -axis[1];
+            rotMat[6 + col] = -axis[2];
+        }
+    }
+
+    @Test
+    public void staticTag_convergesToWorldPoseAndReportsOnce() {
+        TagRegistrationFilter filter = new TagRegistrationFilter();
+        float[] world = { 0.3f, -0.2f, -0.8f };
+        int reports = 0;
+        TagRegistrationFilter.Estimate reported = null;
+        for (int i = 0; i < 100; i++) {
+            observe(world, TAG_QUAT, 0.002f);
+            TagRegistrationFilter.Estimate e = filter.update(5, i * FRAME_NS, camPos, camQuat, tagPos, rotMat);
+            if (e != null) {
+                reports++;
+                reported = e;
+            }
+        }
+        assertEquals(1, reports);
+        assertNotNull(reported);
+        assertEquals(5, reported.id);
+        assertTrue(reported.isConverged());
+        for (int i = 0; i < 3; i++) assertEquals(world[i], reported.pos[i], 0.002f);
+        assertTrue(Math.toDegrees(PoseMath.angleBetween(TAG_QUAT, reported.quat)) < 0.5);
+        assertTrue(reported.posVar[0] > 0f);
+
+        // Still in view after the resend interval
+        observe(world, TAG_QUAT, 0.002f);
+        assertNotNull(filter.update(5, 100 * FRAME_NS + TagRegistrationFilter.RESEND_INTERVAL_NS,
+                camPos, camQuat, tagPos, rotMat));
+    }
+
+    @Test
+    public void outliersAreRejectedAndAMovedTagStartsOver() {
+        TagRegistrationFilter filter = new TagRegistrationFilter();
+        float[] world = { 0f, 0f, -1f };
+        long t = 0;
+        for (int i = 0; i < 30; i++) {
+            observe(world, TAG_QUAT, 0.001f);
+            filter.update(1, t += FRAME_NS, camPos, camQuat, tagPos, rotMat);
+        }
+        float[] moved = { 0.2f, 0f, -1f };
+        observe(moved, TAG_QUAT, 0f);
+        assertNull(filter.update(1, t += FRAME_NS, camPos, camQuat, tagPos, rotMat));
+        assertEquals(1, filter.getRejectedCount());
+        assertEquals(0f, filter.get(1).pos[0], 0.002f);
+
+        TagRegistrationFilter.Estimate reported = null;
+        for (int i = 0; i < 40 && reported == null; i++) {
+            observe(moved, TAG_QUAT, 0.001f);
+            reported = filter.update(1, t += FRAME_NS, camPos, camQuat, tagPos, rotMat);
+        }
+        assertEquals(1, filter.getResetCount());
+        assertNotNull(reported);
+        assertEquals(0.2f, reported.pos[0], 0.002f);
+    }
+}
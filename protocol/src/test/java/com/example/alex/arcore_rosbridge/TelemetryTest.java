@@ -0,0 +1,117 @@
+package com.example.alex.arcore_rosbridge;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+
+import static org.junit.Assert.*;
+
+public class TelemetryTest {
+    @Rule public TemporaryFolder tmp = new TemporaryFolder();
+
+    private static final float[] POS = { 0.1f, -0.2f, 1.5f };
+    private static final float[] QUAT = { 0f, 0.7071f, 0f, 0.7071f };
+    private static final long FRAME_NS = 16_666_667L;
+
+    /**
+     * Two seconds of 60 Hz tracking, a detection every 10th frame, one write per frame and a
+     * reconnect that took 350 ms from link loss to the first pose, after a first pose 1.25 s
+     * from process start.
+     */
+    private File recordSession() throws Exception {
+        File file = tmp.newFile("session.bin");
+        TelemetryRecorder recorder = new TelemetryRecorder(file, 1024);
+        long t = 1_000_000_000L;
+        for (int i = 0; i < 120; i++, t += FRAME_NS) {
+            recorder.frame(t, t + 2_000_000L, 5_000_000_000L + t, i >= 3, POS, QUAT);
+            if (i % 10 == 0) recorder.detection(t + 3_000_000L, t + 12_000_000L, 5_000_000_000L + t, 2);
+            recorder.write(t + 4_000_000L, t + 4_100_000L, 29, 1, i % 20 != 0, t, i / 2);
+            recorder.writeComplete(t + 11_500_000L, true);
+            if (i == 60) recorder.link(t - 350_000_000L, t - 20_000_000L, t + 4_100_000L, 2, true);
+        }
+        StartupTimeline startup = new StartupTimeline(0L);
+        startup.setTelemetry(recorder);
+        startup.milestone(StartupTimeline.Phase.FIRST_POSE, 1_250_000_000L);
+        recorder.close();
+        assertEquals(0, recorder.getDroppedCount());
+        return file;
+    }
+
+    @Test
+    public void recordsRoundTrip() throws Exception {
+        TelemetryReader reader = new TelemetryReader(recordSession());
+        assertEquals(120 * 3 + 12 + 2, reader.getRecordCount());
+
+        assertTrue(reader.next());
+        assertEquals(TelemetryRecorder.FRAME, reader.type());
+        assertEquals(0, reader.aux());
+        assertEquals(1_000_000_000L, reader.t0());
+        assertEquals(1_002_000_000L, reader.t1());
+        assertEquals(6_000_000_000L, reader.t2());
+        float[] pos = new float[3], quat = new float[4];
+        reader.pose(pos, quat);
+        assertArrayEquals(POS, pos, 0f);
+        assertArrayEquals(QUAT, quat, 0f);
+
+        assertTrue(reader.next());
+        assertEquals(TelemetryRecorder.DETECTION, reader.type());
+        assertEquals(2, reader.aux());
+
+        assertTrue(reader.next());
+        assertEquals(TelemetryRecorder.WRITE, reader.type());
+        assertEquals(29, reader.aux());
+        assertEquals(1, reader.messages());
+        assertFalse(reader.accepted());
+
+        TelemetryReader.Summary s = reader.summarize();
+        assertEquals(120, s.frames);
+        assertEquals(117, s.trackingFrames);
+        assertEquals(12, s.detections);
+        assertEquals(24, s.tags);
+        assertEquals(120, s.writes);
+        assertEquals(6, s.refusedWrites);
+        assertEquals(114, s.poseWrites);
+        assertEquals(59, s.coalescedPoses);
+        assertEquals(4.1, s.latencyP50Ms, 1e-6);
+        assertEquals(2.0, s.meanUpdateMs, 1e-6);
+        assertEquals(1, s.reconnects);
+        assertEquals(354.1, s.reconnectMeanMs, 1e-6);
+        assertEquals(1250.0, s.timeToFirstPoseMs, 1e-6);
+    }
+
+    @Test
+    public void replayIsReproducible() throws Exception {
+        TelemetryReader reader = new TelemetryReader(recordSession());
+        // 60 Hz poses over a 30 ms connection interval: about every other pose is coalesced
+        TelemetryReader.ReplayResult a = reader.replay(30_000_000L, PacketEncoder.MAX_WRITE_LENGTH, false,
+                PacketEncoder.POSE_FORMAT_RAW);
+        TelemetryReader.ReplayResult b = reader.replay(30_000_000L, PacketEncoder.MAX_WRITE_LENGTH, false,
+                PacketEncoder.POSE_FORMAT_RAW);
+        assertEquals(a.toString(), b.toString());
+        assertTrue(a.toString(), a.writes > 0);
+        assertEquals(a.messages, a.writes);
+        // Every tracked pose is sent or coalesced, and every tag is sent
+        assertEquals(117 + 24, a.messages + a.coalesced);
+        assertTrue(a.toString(), a.coalesced > 40);
+        assertTrue(a.maxPoseAgeMs <= 30.0 + 1e-6);
+
+        // Batching at full MTU carries the detections alongside poses in fewer writes
+        TelemetryReader.ReplayResult batched =
+                reader.replay(30_000_000L, PacketEncoder.MAX_WRITE_LENGTH, true, PacketEncoder.POSE_FORMAT_COMPACT);
+        assertTrue(batched.batches > 0);
+        assertEquals(117 + 24, batched.messages + batched.coalesced);
+    }
+
+    @Test
+    public void fullRingDropsInsteadOfBlocking() throws Exception {
+        File file = tmp.newFile("overflow.bin");
+        TelemetryRecorder recorder = new TelemetryRecorder(file, 16);
+        for (int i = 0; i < 1000; i++) recorder.writeComplete(i, true);
+        recorder.close();
+        TelemetryReader reader = new TelemetryReader(file);
+        assertEquals(1000, reader.getRecordCount() + recorder.getDroppedCount());
+        assertEquals(recorder.getFlushedCount(), reader.getRecordCount());
+    }
+}
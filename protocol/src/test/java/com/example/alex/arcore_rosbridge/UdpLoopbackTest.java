@@ -0,0 +1,150 @@
+package com.example.alex.arcore_rosbridge;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+
+import static org.junit.Assert.*;
+
+public class UdpLoopbackTest {
+    private static final float[] CAM_POS = { 0.1f, 0.2f, 0.3f };
+    private static final float[] CAM_QUAT = { 0f, 0f, 0f, 1f };
+    private static final float[] TAG_POS = { 0f, 0f, 0.5f };
+    private static final float[] TAG_ROT = { 1, 0, 0, 0, 1, 0, 0, 0, 1 };
+
+    private PortalReceiver receiver;
+    private UdpTransport transport;
+
+    @Before
+    public void setUp() throws Exception {
+        receiver = new PortalReceiver(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), null);
+        receiver.start();
+        transport = new UdpTransport(InetAddress.getLoopbackAddress().getHostAddress(), receiver.getPort());
+    }
+
+    @After
+    public void tearDown() {
+        transport.close();
+        receiver.close();
+    }
+
+    /**
+     * Streams 100 poses at ~500 Hz plus a tag, a tag estimate, a button and a calibration; returns
+     * the last pose.
+     */
+    private float[] stream() throws InterruptedException {
+        transport.start();
+        float[] pos = new float[3];
+        float[] quat = { 0f, 0f, 0f, 1f };
+        for (int i = 0; i < 100; i++) {
+            pos[0] = i * 0.01f;
+            pos[1] = -i * 0.002f;
+            pos[2] = 1.25f;
+            transport.publishPose(pos, quat);
+            if (i == 50) {
+                transport.sendAprilTag(7, 123_456_789L, CAM_POS, CAM_QUAT, TAG_POS, TAG_ROT);
+                transport.queueTagEstimate(7, 123_456_789L, TAG_POS, CAM_QUAT, TAG_POS, 1e-4f, 20);
+                transport.flushAprilTags();
+                transport.sendButtonEvent(PoseTransport.BUTTON_VOL_UP, true);
+                transport.sendCalibrationTrigger();
+            }
+            Thread.sleep(2);
+        }
+        return pos;
+    }
+
+    private PortalReceiver.Stats awaitPose(float[] pos) throws InterruptedException {
+        PortalReceiver.Stats s = receiver.snapshot();
+        for (int i = 0; i < 100 && Math.abs(s.lastPos[0] - pos[0]) > 0.001f; i++) {
+            Thread.sleep(10);
+            s = receiver.snapshot();
+        }
+        return s;
+    }
+
+    @Test
+    public void rawPoses_arriveInOrder() throws Exception {
+        float[] last = stream();
+        PortalReceiver.Stats s = awaitPose(last);
+
+        assertEquals(1, s.hellos);
+        assertEquals(PoseTransport.POSE_FORMAT_RAW, s.poseFormat);
+        assertArrayEquals(last, s.lastPos, 0f);
+        assertEquals(1f, s.lastQuat[3], 0f);
+        assertTrue(s.poses > 0);
+        assertEquals(1, s.aprilTags);
+        assertEquals(1, s.tagEstimates);
+        assertEquals(1, s.buttons);
+        assertEquals(1, s.calibrations);
+        assertEquals(0, s.lost);
+        assertEquals(0, s.malformed);
+        assertEquals(transport.getSentPacketCount(), s.messages);
+    }
+
+    @Test
+    public void compactPoses_roundTripWithinAMillimetre() throws Exception {
+        transport.setPoseFormat(PoseTransport.POSE_FORMAT_COMPACT);
+        float[] last = stream();
+        PortalReceiver.Stats s = awaitPose(last);
+
+        assertEquals(PoseTransport.POSE_FORMAT_COMPACT, s.poseFormat);
+        assertArrayEquals(last, s.lastPos, 0.001f);
+        assertEquals(1f, s.lastQuat[3], 0.001f);
+        assertEquals(0, s.lost);
+        assertEquals(0, s.malformed);
+    }
+
+    @Test
+    public void timedPoses_carryTheirCaptureTime() throws Exception {
+        transport.setPoseFormat(PoseTransport.POSE_FORMAT_TIMED);
+        float[] last = stream();
+        PortalReceiver.Stats s = awaitPose(last);
+
+        assertEquals(PoseTransport.POSE_FORMAT_TIMED, s.poseFormat);
+        assertArrayEquals(last, s.lastPos, 0f);
+        // Both ends share one clock here, so the estimated offset is off by at most half the round
+        // trip it came from, which a busy machine can stretch well past a millisecond
+        double offsetMs = transport.getClockOffsetNs() / 1e6;
+        assertTrue("offset " + offsetMs, Math.abs(offsetMs) <= transport.getRoundTripMs() / 2 + 1.0);
+        assertTrue(s.timedPoses > 0);
+        assertTrue("age " + s.meanPoseAgeMs, s.meanPoseAgeMs > -1.0 && s.maxPoseAgeMs < 100.0);
+    }
+
+    @Test
+    public void portalRequests_reachThePhone() throws Exception {
+        transport.start();
+        float[] pos = { 0f, 0f, 1f };
+        for (int i = 0; i < 50 && transport.getRoundTripMs() < 0; i++) {
+            transport.publishPose(pos, CAM_QUAT);   // the receiver replies to whoever sent last
+            Thread.sleep(10);
+        }
+        assertTrue(transport.getRoundTripMs() >= 0);
+        assertEquals(1, receiver.snapshot().pings);
+
+        assertTrue(receiver.sendSetAprilTags(false));
+        assertTrue(receiver.sendSetPoseFormat(PoseTransport.POSE_FORMAT_COMPACT));
+        assertTrue(receiver.sendSetPoseRate(20));
+        for (int i = 0; i < 50 && (transport.isAprilTagReportingEnabled() || receiver.snapshot().hellos < 2); i++) {
+            Thread.sleep(10);
+        }
+        assertFalse(transport.isAprilTagReportingEnabled());
+        assertEquals(PoseTransport.POSE_FORMAT_COMPACT, receiver.snapshot().poseFormat);
+
+        long posesBefore = receiver.snapshot().poses;
+        long start = System.nanoTime();
+        for (int i = 0; i < 100; i++) {
+            pos[0] = i * 0.01f;
+            transport.publishPose(pos, CAM_QUAT);
+            Thread.sleep(2);
+        }
+        long elapsedMs = (System.nanoTime() - start) / 1_000_000L;
+        Thread.sleep(50);
+        long poses = receiver.snapshot().poses - posesBefore;
+        // About 200 ms of 500 Hz poses thinned to one every 50 ms
+        assertTrue("poses " + poses + " in " + elapsedMs + " ms", poses >= 2 && poses <= elapsedMs / 50 + 2);
+        assertTrue(transport.getCoalescedPoseCount() > 50);
+    }
+}
@@ -0,0 +1,54 @@
+package com.example.alex.arcore_rosbridge;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class WriteBuffersTest {
+    private static final float[] POS = { 1f, 2f, 3f };
+    private static final float[] QUAT = { 0f, 0f, 0f, 1f };
+    private static final float[] ROT = { 1f, 0f, 0f, 0f, 1f, 0f, 0f, 0f, 1f };
+
+    /** The same sink BleClient uses: each write goes out as an exact-length array. */
+    @Test
+    public void batchLongerThanAnyPacket_goesThroughTheSink() {
+        WriteBuffers buffers = new WriteBuffers();
+        List<byte[]> values = new ArrayList<>();
+        List<byte[]> expected = new ArrayList<>();
+        PoseSlot poses = new PoseSlot();
+        PacketEncoder encoder = new PacketEncoder();
+        WriteScheduler scheduler = new WriteScheduler(poses, encoder, (packet, length) -> {
+            expected.add(Arrays.copyOf(packet, length));
+            values.add(buffers.copy(packet, length));
+            return true;
+        });
+        scheduler.setMaxWriteLength(PacketEncoder.MAX_WRITE_LENGTH);
+
+        byte[] tag = encoder.encodeAprilTag(7, 0L, POS, QUAT, POS, ROT).clone();
+        for (int i = 0; i < 4; i++) scheduler.offerAprilTag(tag, tag.length);
+        poses.put(POS, QUAT);
+        scheduler.pump(0);
+
+        assertEquals(1, values.size());
+        assertEquals(2 + 4 * (1 + PacketEncoder.APRILTAG_LENGTH) + 1 + PacketEncoder.POSE_LENGTH,
+                values.get(0).length);
+        assertTrue(values.get(0).length > PacketEncoder.MAX_PACKET_LENGTH);
+        assertArrayEquals(expected.get(0), values.get(0));
+    }
+
+    @Test
+    public void everyWriteLength_isCovered() {
+        WriteBuffers buffers = new WriteBuffers();
+        byte[] packet = new byte[PacketEncoder.MAX_WRITE_LENGTH];
+        packet[PacketEncoder.MAX_WRITE_LENGTH - 1] = 42;
+        byte[] value = buffers.copy(packet, PacketEncoder.MAX_WRITE_LENGTH);
+        assertEquals(PacketEncoder.MAX_WRITE_LENGTH, value.length);
+        assertEquals(42, value[PacketEncoder.MAX_WRITE_LENGTH - 1]);
+        // Reused, not reallocated
+        assertSame(value, buffers.copy(packet, PacketEncoder.MAX_WRITE_LENGTH));
+    }
+}
@@ -0,0 +1,198 @@
+package com.example.alex.arcore_rosbridge;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class WriteSchedulerTest {
+    private static final float[] POS = { 1f, 2f, 3f };
+    private static final float[] QUAT = { 0f, 0f, 0f, 1f };
+    private static final float[] ROT = { 1f, 0f, 0f, 0f, 1f, 0f, 0f, 0f, 1f };
+    private static final byte BUTTON_VOL_UP = 0x00;
+    private static final byte BUTTON_VOL_DOWN = 0x01;
+
+    private final List<byte[]> written = new ArrayList<>();
+    private boolean accept = true;
+    private PoseSlot poses;
+    private PacketEncoder encoder;
+    private WriteScheduler scheduler;
+
+    @Before
+    public void setUp() {
+        poses = new PoseSlot();
+        encoder = new PacketEncoder();
+        scheduler = new WriteScheduler(poses, encoder, (packet, length) -> {
+            if (accept) written.add(Arrays.copyOf(packet, length));
+            return accept;
+        });
+        scheduler.setMaxWriteLength(244);
+    }
+
+    @Test
+    public void singleMessage_isSentUnframed() {
+        poses.put(POS, QUAT);
+        scheduler.pump(0);
+
+        assertEquals(1, written.size());
+        assertArrayEquals(new PacketEncoder().encodePose(POS, QUAT), written.get(0));
+    }
+
+    @Test
+    public void pendingMessages_areBatchedInPriorityOrder() {
+        poses.put(POS, QUAT);
+        byte[] tag = encoder.encodeAprilTag(7, 0L, POS, QUAT, POS, ROT).clone();
+        scheduler.offerAprilTag(tag, tag.length);
+        byte[] button = encoder.encodeButton(BUTTON_VOL_UP, true).clone();
+        scheduler.offerControl(button, button.length);
+        scheduler.pump(0);
+
+        byte[] pose = new PacketEncoder().encodePose(POS, QUAT);
+        byte[] expected = new byte[2 + 3 * 1 + button.length + tag.length + pose.length];
+        int offset = 0;
+        expected[offset++] = PacketEncoder.PACKET_BATCH;
+        expected[offset++] = 3;
+        for (byte[] message : new byte[][] { button, tag, pose }) {
+            expected[offset++] = (byte) message.length;
+            System.arraycopy(message, 0, expected, offset, message.length);
+            offset += message.length;
+        }
+        assertEquals(1, written.size());
+        assertArrayEquals(expected, written.get(0));
+        assertEquals(3, scheduler.getSentCount());
+        assertEquals(1, scheduler.getBatchCount());
+    }
+
+    @Test
+    public void batch_respectsMaxWriteLength() {
+        scheduler.setMaxWriteLength(2 + 2 * (1 + PacketEncoder.APRILTAG_LENGTH));
+        byte[] tag = encoder.encodeAprilTag(7, 0L, POS, QUAT, POS, ROT);
+        for (int i = 0; i < 3; i++) scheduler.offerAprilTag(tag, tag.length);
+
+        scheduler.pump(0);
+        scheduler.onWriteComplete(true);
+        scheduler.pump(1);
+
+        assertEquals(2, written.size());
+        assertEquals(2, written.get(0)[1]);
+        assertEquals(PacketEncoder.APRILTAG_LENGTH, written.get(1).length);
+    }
+
+    @Test
+    public void lonePose_usesTheWholeWrite() {
+        scheduler.setMaxWriteLength(PacketEncoder.POSE_LENGTH);
+        poses.put(POS, QUAT);
+        scheduler.pump(0);
+        assertEquals(1, written.size());
+        assertEquals(PacketEncoder.POSE_LENGTH, written.get(0).length);
+
+        // Before the MTU exchange a compact keyframe fits, a raw pose does not
+        scheduler.onWriteComplete(true);
+        scheduler.setMaxWriteLength(WriteScheduler.DEFAULT_WRITE_LENGTH);
+        poses.put(POS, QUAT);
+        assertEquals(-1, scheduler.pump(1));
+        scheduler.setPoseFormat(PacketEncoder.POSE_FORMAT_COMPACT);
+        scheduler.pump(2);
+        assertEquals(2, written.size());
+        assertEquals(PacketEncoder.PACKET_POSE_KEY, written.get(1)[0]);
+    }
+
+    @Test
+    public void poseThatDoesNotFitTheBatch_waitsForTheNextWrite() {
+        scheduler.setPoseFormat(PacketEncoder.POSE_FORMAT_COMPACT);
+        poses.put(POS, QUAT);
+        scheduler.pump(0);
+        scheduler.onWriteComplete(true);
+
+        // Room for a lone raw pose, or the button and a compact delta, but not the button and a raw pose
+        scheduler.setMaxWriteLength(PacketEncoder.POSE_LENGTH + 1);
+        byte[] button = encoder.encodeButton(BUTTON_VOL_UP, true).clone();
+        scheduler.offerControl(button, button.length);
+        poses.put(POS, QUAT);
+        scheduler.pump(1);
+        assertEquals(2, written.get(1)[1]);
+        assertEquals(PacketEncoder.PACKET_POSE_DELTA, written.get(1)[4 + button.length]);
+        scheduler.onWriteComplete(true);
+
+        scheduler.setPoseFormat(PacketEncoder.POSE_FORMAT_RAW);
+        scheduler.offerControl(button, button.length);
+        poses.put(POS, QUAT);
+        scheduler.pump(2);
+        assertArrayEquals(button, written.get(2));
+        scheduler.onWriteComplete(true);
+        scheduler.pump(3);
+        assertArrayEquals(new PacketEncoder().encodePose(POS, QUAT), written.get(3));
+    }
+
+    @Test
+    public void secondWrite_waitsForCompletion() {
+        poses.put(POS, QUAT);
+        scheduler.pump(0);
+        poses.put(QUAT, QUAT);
+        poses.put(POS, QUAT);   // replaces the pose queued behind the in-flight write
+
+        assertTrue(scheduler.pump(10) > 0);
+        assertEquals(1, written.size());
+
+        scheduler.onWriteComplete(true);
+        scheduler.pump(20);
+        assertEquals(2, written.size());
+        assertEquals(1, scheduler.getCoalescedCount());
+        assertArrayEquals(new PacketEncoder().encodePose(POS, QUAT), written.get(1));
+    }
+
+    @Test
+    public void lostCallback_timesOut() {
+        poses.put(POS, QUAT);
+        scheduler.pump(0);
+        poses.put(POS, QUAT);
+
+        scheduler.pump(WriteScheduler.WRITE_TIMEOUT_MS);
+        assertEquals(2, written.size());
+        assertEquals(1, scheduler.getTimedOutCount());
+    }
+
+    @Test
+    public void refusedWrite_isRetried() {
+        byte[] button = encoder.encodeButton(BUTTON_VOL_DOWN, false);
+        scheduler.offerControl(button, button.length);
+        accept = false;
+        assertEquals(WriteScheduler.RETRY_DELAY_MS, scheduler.pump(0));
+
+        accept = true;
+        scheduler.pump(WriteScheduler.RETRY_DELAY_MS);
+        assertEquals(1, written.size());
+        assertArrayEquals(new byte[] { PacketEncoder.PACKET_BUTTON, BUTTON_VOL_DOWN, 0 },
+                written.get(0));
+        assertEquals(1, scheduler.getRefusedCount());
+    }
+
+    @Test
+    public void poseRateLimit_holdsPosesButNotControl() {
+        scheduler.setMinPoseIntervalMs(10);
+        poses.put(POS, QUAT);
+        scheduler.pump(0);
+        scheduler.onWriteComplete(true);
+
+        poses.put(QUAT, QUAT);
+        byte[] button = encoder.encodeButton(BUTTON_VOL_UP, true).clone();
+        scheduler.offerControl(button, button.length);
+        scheduler.pump(4);
+        scheduler.onWriteComplete(true);
+        assertEquals(2, written.size());
+        assertArrayEquals(button, written.get(1));
+
+        poses.put(POS, QUAT);   // replaces the held pose
+        assertEquals(6, scheduler.pump(4));
+        assertEquals(2, written.size());
+
+        scheduler.pump(10);
+        assertEquals(3, written.size());
+        assertArrayEquals(new PacketEncoder().encodePose(POS, QUAT), written.get(2));
+        assertEquals(1, scheduler.getCoalescedCount());
+    }
+}